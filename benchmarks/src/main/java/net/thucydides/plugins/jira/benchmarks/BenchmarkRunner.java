@@ -0,0 +1,30 @@
+package net.thucydides.plugins.jira.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs every benchmark with the GC profiler, so that both throughput and allocation rates are reported,
+ * and writes the results to jmh-results.json.
+ * Any command line arguments are passed straight to JMH instead, e.g. {@code -p latencyInMillis=20 Lookup}.
+ */
+public class BenchmarkRunner {
+
+    public static void main(String[] args) throws RunnerException, java.io.IOException {
+        if (args.length > 0) {
+            org.openjdk.jmh.Main.main(args);
+            return;
+        }
+        Options options = new OptionsBuilder()
+                .include(BenchmarkRunner.class.getPackage().getName() + ".*Benchmark")
+                .addProfiler(GCProfiler.class)
+                .resultFormat(ResultFormatType.JSON)
+                .result("jmh-results.json")
+                .build();
+        new Runner(options).run();
+    }
+}
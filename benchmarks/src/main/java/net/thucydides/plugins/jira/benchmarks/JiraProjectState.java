@@ -0,0 +1,84 @@
+package net.thucydides.plugins.jira.benchmarks;
+
+import net.thucydides.core.model.TestOutcome;
+import net.thucydides.core.util.EnvironmentVariables;
+import net.thucydides.core.util.MockEnvironmentVariables;
+import net.thucydides.plugins.jira.requirements.JIRARequirementsProvider;
+import net.thucydides.plugins.jira.service.SystemPropertiesJIRAConfiguration;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * A stub JIRA server serving a synthetic project of a configurable shape, shared by all the benchmark threads.
+ */
+@State(Scope.Benchmark)
+public class JiraProjectState {
+
+    public static final String PROJECT_KEY = "BENCH";
+
+    @Param({"50"})
+    public int epics;
+
+    @Param({"20"})
+    public int storiesPerEpic;
+
+    @Param({"2"})
+    public int linkedTasksPerStory;
+
+    @Param({"Epic Link, relates to"})
+    public String requirementLinks;
+
+    @Param({"0"})
+    public long latencyInMillis;
+
+    @Param({"threads", "virtual"})
+    public String executionMode;
+
+    SyntheticProject project;
+    StubJiraServer server;
+
+    @Setup
+    public void startServer() throws IOException {
+        project = new SyntheticProject(PROJECT_KEY, epics, storiesPerEpic, linkedTasksPerStory);
+        server = new StubJiraServer(project, latencyInMillis).start();
+    }
+
+    @TearDown
+    public void stopServer() {
+        server.stop();
+    }
+
+    public EnvironmentVariables environmentVariables() {
+        EnvironmentVariables environmentVariables = new MockEnvironmentVariables();
+        environmentVariables.setProperty("jira.url", server.getUrl());
+        environmentVariables.setProperty("jira.username", "bench");
+        environmentVariables.setProperty("jira.password", "bench");
+        environmentVariables.setProperty("jira.project", PROJECT_KEY);
+        environmentVariables.setProperty("jira.custom.narrative.field", "User Story");
+        environmentVariables.setProperty("jira.requirement.links", requirementLinks);
+        environmentVariables.setProperty("jira.execution.mode", executionMode);
+        environmentVariables.setProperty("jira.requests.per.second", "0");
+        return environmentVariables;
+    }
+
+    public JIRARequirementsProvider newProvider() {
+        EnvironmentVariables environmentVariables = environmentVariables();
+        return new JIRARequirementsProvider(new SystemPropertiesJIRAConfiguration(environmentVariables),
+                                            environmentVariables);
+    }
+
+    public static TestOutcome outcomeFor(final List<String> issueKeys) {
+        return new TestOutcome("benchmark") {
+            @Override
+            public List<String> getIssueKeys() {
+                return issueKeys;
+            }
+        };
+    }
+}
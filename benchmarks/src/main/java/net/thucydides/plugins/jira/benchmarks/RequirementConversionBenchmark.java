@@ -0,0 +1,120 @@
+package net.thucydides.plugins.jira.benchmarks;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import net.thucydides.core.requirements.model.Requirement;
+import net.thucydides.core.util.EnvironmentVariables;
+import net.thucydides.core.util.MockEnvironmentVariables;
+import net.thucydides.plugins.jira.client.JerseyJiraClient;
+import net.thucydides.plugins.jira.domain.IssueSummary;
+import net.thucydides.plugins.jira.requirements.RequirementFieldMapping;
+import org.apache.commons.lang3.StringUtils;
+import org.json.JSONException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost of converting one JIRA issue into a requirement, which happens for every node of every crawl.
+ * {@code perIssueConfigurationLookups} reproduces the conversion as it used to be done, reading the field
+ * configuration for each issue; {@code fieldMappingPlan} uses the mapping the provider now builds once.
+ * The issues are read from the stub JIRA server once, before the measurements.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RequirementConversionBenchmark {
+
+    private EnvironmentVariables environmentVariables;
+    private RequirementFieldMapping fieldMapping;
+    private List<IssueSummary> issues;
+    private int next;
+
+    @Setup
+    public void loadIssues() throws IOException, JSONException {
+        environmentVariables = new MockEnvironmentVariables();
+        environmentVariables.setProperty("jira.custom.narrative.field", "User Story");
+        environmentVariables.setProperty("jira.custom.field.1", "User Story");
+        environmentVariables.setProperty("jira.custom.field.2", "Epic Link");
+        fieldMapping = RequirementFieldMapping.configuredIn(environmentVariables);
+
+        SyntheticProject project = new SyntheticProject(JiraProjectState.PROJECT_KEY, 10, 10, 1);
+        StubJiraServer server = new StubJiraServer(project, 0).start();
+        try {
+            JerseyJiraClient jiraClient = new JerseyJiraClient(server.getUrl(), "bench", "bench",
+                                                               JiraProjectState.PROJECT_KEY,
+                                                               ImmutableList.of("User Story", "Epic Link"));
+            issues = jiraClient.findByJQL("project = " + JiraProjectState.PROJECT_KEY);
+        } finally {
+            server.stop();
+        }
+    }
+
+    private IssueSummary nextIssue() {
+        next = (next + 1) % issues.size();
+        return issues.get(next);
+    }
+
+    @Benchmark
+    public Requirement fieldMappingPlan() {
+        return fieldMapping.requirementFrom(nextIssue());
+    }
+
+    @Benchmark
+    public Requirement perIssueConfigurationLookups() {
+        return requirementFromConfiguration(nextIssue());
+    }
+
+    private Requirement requirementFromConfiguration(IssueSummary issue) {
+        Requirement baseRequirement = Requirement.named(issue.getSummary())
+                .withOptionalCardNumber(issue.getKey())
+                .withType(issue.getType())
+                .withNarrative(narrativeTextFrom(issue))
+                .withReleaseVersions(issue.getFixVersions());
+
+        for (String fieldName : definedCustomFields()) {
+            if (issue.customField(fieldName).isPresent()) {
+                String value = issue.customField(fieldName).get().asString();
+                String renderedValue = issue.getRendered().customField(fieldName).or(value);
+                baseRequirement = baseRequirement.withCustomField(fieldName).setTo(value, renderedValue);
+            }
+        }
+        return baseRequirement;
+    }
+
+    private List<String> definedCustomFields() {
+        List<String> customFields = Lists.newArrayList();
+        int customFieldIndex = 1;
+        String customFieldName = environmentVariables.getProperty("jira.custom.field." + customFieldIndex);
+        while (StringUtils.isNotEmpty(customFieldName)) {
+            customFields.add(customFieldName);
+            customFieldIndex++;
+            customFieldName = environmentVariables.getProperty("jira.custom.field." + customFieldIndex);
+        }
+        return customFields;
+    }
+
+    private String narrativeTextFrom(IssueSummary issue) {
+        Optional<String> customFieldName
+                = Optional.fromNullable(environmentVariables.getProperty("jira.custom.narrative.field"));
+        if (customFieldName.isPresent() && issue.customField(customFieldName.get()).isPresent()) {
+            return issue.customField(customFieldName.get()).get().asString();
+        }
+        return issue.getRendered().getDescription();
+    }
+}
@@ -0,0 +1,35 @@
+package net.thucydides.plugins.jira.benchmarks;
+
+import net.thucydides.core.requirements.model.Requirement;
+import net.thucydides.plugins.jira.requirements.JIRARequirementsProvider;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures a complete, cold load of the requirements tree from the stub JIRA server.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class RequirementsLoadingBenchmark {
+
+    @Benchmark
+    public List<Requirement> getRequirements(JiraProjectState jira) {
+        JIRARequirementsProvider provider = jira.newProvider();
+        try {
+            return provider.getRequirements();
+        } finally {
+            provider.close();
+        }
+    }
+}
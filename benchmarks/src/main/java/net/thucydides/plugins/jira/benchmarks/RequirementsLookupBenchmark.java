@@ -0,0 +1,78 @@
+package net.thucydides.plugins.jira.benchmarks;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import net.thucydides.core.model.TestOutcome;
+import net.thucydides.core.model.TestTag;
+import net.thucydides.core.requirements.model.Requirement;
+import net.thucydides.plugins.jira.requirements.JIRARequirementsProvider;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures tag and requirement lookups against a provider whose requirements tree has already been loaded.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RequirementsLookupBenchmark {
+
+    private JIRARequirementsProvider provider;
+    private List<TestOutcome> storyOutcomes;
+    private List<TestTag> storyTags;
+    private int next;
+
+    @Setup
+    public void loadRequirements(JiraProjectState jira) {
+        provider = jira.newProvider();
+        provider.getRequirements();
+        storyOutcomes = Lists.newArrayList();
+        storyTags = Lists.newArrayList();
+        for (String storyKey : jira.project.keysOfType("Story")) {
+            storyOutcomes.add(JiraProjectState.outcomeFor(ImmutableList.of(storyKey)));
+            storyTags.add(TestTag.withName(jira.project.getIssue(storyKey).getSummary()).andType("Story"));
+        }
+    }
+
+    @TearDown
+    public void closeProvider() {
+        provider.close();
+    }
+
+    private int nextIndex(int size) {
+        next = (next + 1) % size;
+        return next;
+    }
+
+    @Benchmark
+    public Set<TestTag> getTagsFor() {
+        return provider.getTagsFor(storyOutcomes.get(nextIndex(storyOutcomes.size())));
+    }
+
+    @Benchmark
+    public Optional<Requirement> getRequirementFor() {
+        return provider.getRequirementFor(storyTags.get(nextIndex(storyTags.size())));
+    }
+
+    @Benchmark
+    public Optional<Requirement> getParentRequirementOf() {
+        return provider.getParentRequirementOf(storyOutcomes.get(nextIndex(storyOutcomes.size())));
+    }
+}
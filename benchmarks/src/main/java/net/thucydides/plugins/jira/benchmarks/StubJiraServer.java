@@ -0,0 +1,297 @@
+package net.thucydides.plugins.jira.benchmarks;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A local stand-in for the parts of the JIRA REST API used by the requirements provider.
+ * It serves a synthetic project, understands the JQL queries the provider generates,
+ * and can add a fixed latency to every request to simulate a remote server.
+ */
+public class StubJiraServer {
+
+    public static final String EPIC_LINK_FIELD = "customfield_10008";
+    public static final String NARRATIVE_FIELD = "customfield_10010";
+
+    private static final Pattern ISSUE_TYPE = Pattern.compile("issuetype\\s*=\\s*(\\w+)", Pattern.CASE_INSENSITIVE);
+    private static final Pattern EPIC_LINK_IN = Pattern.compile("'Epic Link'\\s+in\\s+\\(([^)]*)\\)", Pattern.CASE_INSENSITIVE);
+    private static final Pattern EPIC_LINK_EQUALS = Pattern.compile("'Epic Link'\\s*=\\s*([\\w-]+)", Pattern.CASE_INSENSITIVE);
+    private static final Pattern LINKED_ISSUES = Pattern.compile("linkedIssues\\(([\\w-]+)\\s*,\\s*\"[^\"]*\"\\)", Pattern.CASE_INSENSITIVE);
+    private static final Pattern KEY_IN = Pattern.compile("key\\s+in\\s+\\(([^)]*)\\)", Pattern.CASE_INSENSITIVE);
+    private static final Pattern UPDATED = Pattern.compile("updated\\s*>=", Pattern.CASE_INSENSITIVE);
+
+    private final SyntheticProject project;
+    private final long latencyInMillis;
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final AtomicInteger requestCount = new AtomicInteger();
+
+    public StubJiraServer(SyntheticProject project, long latencyInMillis) throws IOException {
+        this.project = project;
+        this.latencyInMillis = latencyInMillis;
+        this.server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/rest/api/2/search", new SearchHandler());
+        server.createContext("/rest/api/2/issue/", new IssueHandler());
+        server.createContext("/rest/api/2/field", new FieldHandler());
+        server.createContext("/rest/api/2/project/", new VersionsHandler());
+        server.setExecutor(executor);
+    }
+
+    public StubJiraServer start() {
+        server.start();
+        return this;
+    }
+
+    public void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    public String getUrl() {
+        return "http://localhost:" + server.getAddress().getPort();
+    }
+
+    public int getRequestCount() {
+        return requestCount.get();
+    }
+
+    List<SyntheticProject.SyntheticIssue> search(String jql) {
+        if (UPDATED.matcher(jql).find()) {
+            return ImmutableList.of();
+        }
+        Matcher keyIn = KEY_IN.matcher(jql);
+        if (keyIn.find()) {
+            return project.issuesWithKeys(keysIn(keyIn.group(1)));
+        }
+        Matcher epicLinkIn = EPIC_LINK_IN.matcher(jql);
+        if (epicLinkIn.find()) {
+            return project.issuesInEpics(keysIn(epicLinkIn.group(1)));
+        }
+        Matcher epicLinkEquals = EPIC_LINK_EQUALS.matcher(jql);
+        if (epicLinkEquals.find()) {
+            return project.issuesInEpics(Sets.newHashSet(epicLinkEquals.group(1).toUpperCase()));
+        }
+        Matcher linkedIssues = LINKED_ISSUES.matcher(jql);
+        Set<String> linkedParents = Sets.newLinkedHashSet();
+        while (linkedIssues.find()) {
+            linkedParents.add(linkedIssues.group(1).toUpperCase());
+        }
+        if (!linkedParents.isEmpty()) {
+            return project.issuesLinkedTo(linkedParents);
+        }
+        Matcher issueType = ISSUE_TYPE.matcher(jql);
+        if (issueType.find()) {
+            return project.issuesOfType(issueType.group(1));
+        }
+        return ImmutableList.copyOf(project.getIssues());
+    }
+
+    private Set<String> keysIn(String keyList) {
+        Set<String> keys = Sets.newLinkedHashSet();
+        for (String key : Splitter.on(",").trimResults().omitEmptyStrings().split(keyList)) {
+            keys.add(key.toUpperCase());
+        }
+        return keys;
+    }
+
+    private JSONObject toJSON(SyntheticProject.SyntheticIssue issue) throws JSONException {
+        JSONObject fields = new JSONObject();
+        fields.put("summary", issue.getSummary());
+        fields.put("issuetype", new JSONObject().put("name", issue.getType()));
+        fields.put("status", new JSONObject().put("name", "Open"));
+        fields.put("description", "In order to benchmark the provider, as a developer I want " + issue.getSummary());
+        fields.put("labels", new JSONArray());
+        fields.put("comment", new JSONObject().put("comments", new JSONArray()).put("total", 0));
+        JSONArray fixVersions = new JSONArray();
+        for (String version : issue.getFixVersions()) {
+            fixVersions.put(new JSONObject().put("name", version));
+        }
+        fields.put("fixVersions", fixVersions);
+        JSONArray issueLinks = new JSONArray();
+        for (String linkedKey : issue.getLinkedIssueKeys()) {
+            JSONObject linkType = new JSONObject().put("name", "Relates")
+                                                  .put("inward", SyntheticProject.RELATES_TO)
+                                                  .put("outward", SyntheticProject.RELATES_TO);
+            issueLinks.put(new JSONObject().put("type", linkType)
+                                           .put("outwardIssue", new JSONObject().put("key", linkedKey)));
+        }
+        fields.put("issuelinks", issueLinks);
+        if (issue.getEpicKey() != null) {
+            fields.put(EPIC_LINK_FIELD, issue.getEpicKey());
+        }
+        fields.put(NARRATIVE_FIELD, "As a developer I want " + issue.getSummary());
+
+        JSONObject renderedFields = new JSONObject();
+        renderedFields.put("description", "<p>In order to benchmark the provider, as a developer I want "
+                                          + issue.getSummary() + "</p>");
+        renderedFields.put(NARRATIVE_FIELD, "<p>As a developer I want " + issue.getSummary() + "</p>");
+
+        JSONObject issueObject = new JSONObject();
+        issueObject.put("id", Integer.toString(issue.getId()));
+        issueObject.put("key", issue.getKey());
+        issueObject.put("self", getUrl() + "/rest/api/2/issue/" + issue.getId());
+        issueObject.put("fields", fields);
+        issueObject.put("renderedFields", renderedFields);
+        return issueObject;
+    }
+
+    private abstract class JsonHandler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            requestCount.incrementAndGet();
+            simulateLatency();
+            try {
+                Response response = respondTo(exchange.getRequestURI().getPath(),
+                                              parametersIn(exchange.getRequestURI().getRawQuery()));
+                send(exchange, response.status, response.body);
+            } catch (JSONException e) {
+                send(exchange, 500, "{\"errorMessages\":[\"" + e.getMessage() + "\"]}");
+            }
+        }
+
+        abstract Response respondTo(String path, Map<String, String> parameters) throws JSONException;
+
+        private void simulateLatency() {
+            if (latencyInMillis > 0) {
+                try {
+                    Thread.sleep(latencyInMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        private void send(HttpExchange exchange, int status, String body) throws IOException {
+            byte[] bytes = body.getBytes(Charsets.UTF_8);
+            exchange.getResponseHeaders().add("Content-Type", "application/json;charset=UTF-8");
+            exchange.sendResponseHeaders(status, bytes.length);
+            OutputStream responseBody = exchange.getResponseBody();
+            try {
+                responseBody.write(bytes);
+            } finally {
+                responseBody.close();
+            }
+        }
+    }
+
+    private class SearchHandler extends JsonHandler {
+        @Override
+        Response respondTo(String path, Map<String, String> parameters) throws JSONException {
+            List<SyntheticProject.SyntheticIssue> matchingIssues = search(valueOf(parameters, "jql", ""));
+            int startAt = Integer.parseInt(valueOf(parameters, "startAt", "0"));
+            int maxResults = Integer.parseInt(valueOf(parameters, "maxResults", "50"));
+            JSONArray issues = new JSONArray();
+            for (int i = startAt; i < Math.min(matchingIssues.size(), startAt + maxResults); i++) {
+                issues.put(toJSON(matchingIssues.get(i)));
+            }
+            JSONObject results = new JSONObject();
+            results.put("startAt", startAt);
+            results.put("maxResults", maxResults);
+            results.put("total", matchingIssues.size());
+            results.put("issues", issues);
+            return new Response(200, results.toString());
+        }
+    }
+
+    private class IssueHandler extends JsonHandler {
+        @Override
+        Response respondTo(String path, Map<String, String> parameters) throws JSONException {
+            String key = path.substring(path.lastIndexOf('/') + 1);
+            SyntheticProject.SyntheticIssue issue = project.getIssue(key);
+            if (issue == null) {
+                return new Response(400, "{\"errorMessages\":[\"Issue Does Not Exist\"]}");
+            }
+            return new Response(200, toJSON(issue).toString());
+        }
+    }
+
+    private class FieldHandler extends JsonHandler {
+        @Override
+        Response respondTo(String path, Map<String, String> parameters) throws JSONException {
+            JSONArray fields = new JSONArray();
+            fields.put(customField(EPIC_LINK_FIELD, "Epic Link", "com.pyxis.greenhopper.jira:gh-epic-link"));
+            fields.put(customField(NARRATIVE_FIELD, "User Story", "com.atlassian.jira.plugin.system.customfieldtypes:textarea"));
+            return new Response(200, fields.toString());
+        }
+
+        private JSONObject customField(String id, String name, String customType) throws JSONException {
+            return new JSONObject().put("id", id)
+                                   .put("name", name)
+                                   .put("custom", true)
+                                   .put("schema", new JSONObject().put("type", "string").put("custom", customType));
+        }
+    }
+
+    private class VersionsHandler extends JsonHandler {
+        @Override
+        Response respondTo(String path, Map<String, String> parameters) throws JSONException {
+            JSONArray versions = new JSONArray();
+            for (int release = 1; release <= 3; release++) {
+                versions.put(new JSONObject().put("id", Integer.toString(release))
+                                             .put("name", "Release " + release)
+                                             .put("released", false)
+                                             .put("archived", false));
+            }
+            return new Response(200, versions.toString());
+        }
+    }
+
+    private static class Response {
+        private final int status;
+        private final String body;
+
+        Response(int status, String body) {
+            this.status = status;
+            this.body = body;
+        }
+    }
+
+    private static String valueOf(Map<String, String> parameters, String name, String defaultValue) {
+        return parameters.containsKey(name) ? parameters.get(name) : defaultValue;
+    }
+
+    private static Map<String, String> parametersIn(String rawQuery) {
+        Map<String, String> parameters = Maps.newHashMap();
+        if (rawQuery == null) {
+            return parameters;
+        }
+        for (String parameter : Splitter.on("&").omitEmptyStrings().split(rawQuery)) {
+            int separator = parameter.indexOf('=');
+            if (separator > 0) {
+                parameters.put(decoded(parameter.substring(0, separator)), decoded(parameter.substring(separator + 1)));
+            }
+        }
+        return parameters;
+    }
+
+    private static String decoded(String value) {
+        try {
+            return URLDecoder.decode(value, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
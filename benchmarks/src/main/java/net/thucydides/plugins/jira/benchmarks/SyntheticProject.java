@@ -0,0 +1,168 @@
+package net.thucydides.plugins.jira.benchmarks;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A generated JIRA project with a fixed shape: a number of epics, a number of stories in each epic,
+ * and a number of tasks linked to each story with a "relates to" link.
+ */
+public class SyntheticProject {
+
+    public static final String RELATES_TO = "relates to";
+
+    private final String projectKey;
+    private final Map<String, SyntheticIssue> issues = Maps.newLinkedHashMap();
+    private int nextIssueNumber = 1;
+
+    public SyntheticProject(String projectKey, int epics, int storiesPerEpic, int linkedTasksPerStory) {
+        this.projectKey = projectKey;
+        for (int epicIndex = 0; epicIndex < epics; epicIndex++) {
+            SyntheticIssue epic = add("Epic", "Epic " + epicIndex, null, null);
+            for (int storyIndex = 0; storyIndex < storiesPerEpic; storyIndex++) {
+                SyntheticIssue story = add("Story", "Story " + epicIndex + "." + storyIndex, epic.getKey(), null);
+                for (int taskIndex = 0; taskIndex < linkedTasksPerStory; taskIndex++) {
+                    add("Task", "Task " + epicIndex + "." + storyIndex + "." + taskIndex, null, story.getKey());
+                }
+            }
+        }
+    }
+
+    private SyntheticIssue add(String type, String summary, String epicKey, String linkedIssueKey) {
+        int issueNumber = nextIssueNumber++;
+        SyntheticIssue issue = new SyntheticIssue(issueNumber, projectKey + "-" + issueNumber, type, summary,
+                                                  epicKey, linkedIssueKey,
+                                                  ImmutableList.of("Release " + (issueNumber % 3 + 1)));
+        issues.put(issue.getKey(), issue);
+        if (linkedIssueKey != null) {
+            issues.get(linkedIssueKey).linkTo(issue.getKey());
+        }
+        return issue;
+    }
+
+    public String getProjectKey() {
+        return projectKey;
+    }
+
+    public Collection<SyntheticIssue> getIssues() {
+        return issues.values();
+    }
+
+    public SyntheticIssue getIssue(String key) {
+        return issues.get(key.toUpperCase());
+    }
+
+    public List<String> keysOfType(String type) {
+        List<String> keys = Lists.newArrayList();
+        for (SyntheticIssue issue : issues.values()) {
+            if (issue.getType().equalsIgnoreCase(type)) {
+                keys.add(issue.getKey());
+            }
+        }
+        return keys;
+    }
+
+    public List<SyntheticIssue> issuesOfType(String type) {
+        List<SyntheticIssue> matchingIssues = Lists.newArrayList();
+        for (SyntheticIssue issue : issues.values()) {
+            if (issue.getType().equalsIgnoreCase(type)) {
+                matchingIssues.add(issue);
+            }
+        }
+        return matchingIssues;
+    }
+
+    public List<SyntheticIssue> issuesInEpics(Set<String> epicKeys) {
+        List<SyntheticIssue> matchingIssues = Lists.newArrayList();
+        for (SyntheticIssue issue : issues.values()) {
+            if (issue.getEpicKey() != null && epicKeys.contains(issue.getEpicKey())) {
+                matchingIssues.add(issue);
+            }
+        }
+        return matchingIssues;
+    }
+
+    public List<SyntheticIssue> issuesLinkedTo(Set<String> keys) {
+        Set<String> linkedKeys = Sets.newLinkedHashSet();
+        for (String key : keys) {
+            SyntheticIssue issue = getIssue(key);
+            if (issue != null) {
+                linkedKeys.addAll(issue.getLinkedIssueKeys());
+            }
+        }
+        return issuesWithKeys(linkedKeys);
+    }
+
+    public List<SyntheticIssue> issuesWithKeys(Collection<String> keys) {
+        List<SyntheticIssue> matchingIssues = Lists.newArrayList();
+        for (String key : keys) {
+            SyntheticIssue issue = getIssue(key);
+            if (issue != null) {
+                matchingIssues.add(issue);
+            }
+        }
+        return matchingIssues;
+    }
+
+    public static class SyntheticIssue {
+        private final int id;
+        private final String key;
+        private final String type;
+        private final String summary;
+        private final String epicKey;
+        private final List<String> linkedIssueKeys = Lists.newArrayList();
+        private final List<String> fixVersions;
+
+        SyntheticIssue(int id, String key, String type, String summary, String epicKey, String linkedIssueKey,
+                       List<String> fixVersions) {
+            this.id = id;
+            this.key = key;
+            this.type = type;
+            this.summary = summary;
+            this.epicKey = epicKey;
+            this.fixVersions = fixVersions;
+            if (linkedIssueKey != null) {
+                linkedIssueKeys.add(linkedIssueKey);
+            }
+        }
+
+        void linkTo(String otherKey) {
+            linkedIssueKeys.add(otherKey);
+        }
+
+        public int getId() {
+            return id;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        public String getType() {
+            return type;
+        }
+
+        public String getSummary() {
+            return summary;
+        }
+
+        public String getEpicKey() {
+            return epicKey;
+        }
+
+        public List<String> getLinkedIssueKeys() {
+            return linkedIssueKeys;
+        }
+
+        public List<String> getFixVersions() {
+            return fixVersions;
+        }
+    }
+}
@@ -0,0 +1,251 @@
+package net.thucydides.plugins.jira.requirements;
+
+import com.google.common.base.Joiner;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import net.thucydides.plugins.jira.client.JerseyJiraClient;
+import net.thucydides.plugins.jira.domain.CustomFieldCast;
+import net.thucydides.plugins.jira.domain.IssueSummary;
+import org.json.JSONException;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Loads the children of a whole level of the requirements tree using a small number of batched JQL queries,
+ * rather than one query per parent.
+ * Epic children are grouped by the value of their 'Epic Link' field, and issues found through other link types by
+ * their issue links. When a child does not say which parent it was found through, the batch is split in half until
+ * every non-empty result can be attributed to a single parent, as long as that is expected to need fewer queries than
+ * asking about each parent of the batch in turn; otherwise each parent is asked about in turn.
+ */
+public class ChildIssueLoader {
+
+    public static final String EPIC_LINK = "Epic Link";
+
+    static int DEFAULT_BATCH_SIZE = 50;
+    static int DEFAULT_MAX_JQL_LENGTH = 2000;
+
+    private final org.slf4j.Logger logger = LoggerFactory.getLogger(ChildIssueLoader.class);
+
+    private final JerseyJiraClient jiraClient;
+    private final int batchSize;
+    private final int maxJqlLength;
+    private final AtomicInteger failedQueries = new AtomicInteger();
+
+    public ChildIssueLoader(JerseyJiraClient jiraClient) {
+        this(jiraClient, DEFAULT_BATCH_SIZE, DEFAULT_MAX_JQL_LENGTH);
+    }
+
+    public ChildIssueLoader(JerseyJiraClient jiraClient, int batchSize, int maxJqlLength) {
+        this.jiraClient = jiraClient;
+        this.batchSize = Math.max(1, batchSize);
+        this.maxJqlLength = maxJqlLength;
+    }
+
+    /**
+     * How many child queries have failed so far, even after being retried.
+     * The children of the parents they were about are missing from the results, so a tree loaded while this number
+     * went up is incomplete.
+     */
+    public int getFailedQueries() {
+        return failedQueries.get();
+    }
+
+    /**
+     * Find the child issues of each of the given parents, following the given link type.
+     * Parents without children do not appear in the returned map.
+     */
+    public Map<String, List<IssueSummary>> findChildrenOf(Collection<String> parentKeys, String linkType) {
+        Map<String, List<IssueSummary>> childrenByParent = Maps.newHashMap();
+        for (List<String> batch : batchesOf(parentKeys, linkType)) {
+            if (linkType.equals(EPIC_LINK)) {
+                loadEpicChildren(batch, childrenByParent);
+            } else {
+                loadLinkedChildren(batch, linkType, childrenByParent);
+            }
+        }
+        return childrenByParent;
+    }
+
+    /**
+     * Find the child issues of a single parent, following the given link type.
+     * Unlike the batched lookup, a failed query is not taken to mean that the parent has no children.
+     */
+    public List<IssueSummary> findChildrenOf(String parentKey, String linkType) throws JSONException {
+        try {
+            return jiraClient.findByJQL(childIssuesJQL(ImmutableList.of(parentKey), linkType));
+        } catch (JSONException e) {
+            failedQueries.incrementAndGet();
+            throw e;
+        }
+    }
+
+    private void loadEpicChildren(List<String> epicKeys, Map<String, List<IssueSummary>> childrenByParent) {
+        List<IssueSummary> children = childIssuesFor(epicKeys, EPIC_LINK);
+        Map<String, List<IssueSummary>> childrenByEpic = Maps.newHashMap();
+        for (IssueSummary child : children) {
+            Optional<String> epicKey = epicKeyOf(child);
+            if (!epicKey.isPresent() || !epicKeys.contains(epicKey.get())) {
+                logger.debug("Epic Link field not available for {}: grouping children by query", child.getKey());
+                groupByQuery(epicKeys, EPIC_LINK, children, childrenByParent);
+                return;
+            }
+            addChild(childrenByEpic, epicKey.get(), child);
+        }
+        childrenByParent.putAll(childrenByEpic);
+    }
+
+    private Optional<String> epicKeyOf(IssueSummary issue) {
+        Optional<CustomFieldCast> epicLink = issue.customField(EPIC_LINK);
+        if (epicLink.isPresent()) {
+            return Optional.fromNullable(epicLink.get().asString());
+        }
+        return Optional.absent();
+    }
+
+    private void loadLinkedChildren(List<String> parentKeys, String linkType,
+                                    Map<String, List<IssueSummary>> childrenByParent) {
+        List<IssueSummary> children = childIssuesFor(parentKeys, linkType);
+        Map<String, List<IssueSummary>> childrenByLinkedParent = Maps.newHashMap();
+        for (IssueSummary child : children) {
+            Set<String> linkedParents = linkedParentsOf(child, parentKeys, linkType);
+            if (linkedParents.isEmpty()) {
+                logger.debug("Issue links not available for {}: grouping children by query", child.getKey());
+                groupByQuery(parentKeys, linkType, children, childrenByParent);
+                return;
+            }
+            for (String parentKey : linkedParents) {
+                addChild(childrenByLinkedParent, parentKey, child);
+            }
+        }
+        childrenByParent.putAll(childrenByLinkedParent);
+    }
+
+    private Set<String> linkedParentsOf(IssueSummary child, List<String> parentKeys, String linkType) {
+        if (!(child instanceof LinkedIssueSummary)) {
+            return ImmutableSet.of();
+        }
+        return Sets.intersection(((LinkedIssueSummary) child).getIssuesLinkedAs(linkType),
+                                 ImmutableSet.copyOf(parentKeys));
+    }
+
+    /**
+     * Attribute the children of a batch to their parents with further queries, by bisection when few of the parents
+     * are expected to have children, or else one parent at a time, so that it never takes many more queries than
+     * there are parents in the batch.
+     */
+    private void groupByQuery(List<String> parentKeys, String linkType,
+                              List<IssueSummary> children,
+                              Map<String, List<IssueSummary>> childrenByParent) {
+        if (bisectionQueriesFor(parentKeys.size(), children.size()) < parentKeys.size()) {
+            groupByBisection(parentKeys, linkType, children, childrenByParent);
+        } else {
+            for (String parentKey : parentKeys) {
+                List<String> parent = ImmutableList.of(parentKey);
+                groupByBisection(parent, linkType, childIssuesFor(parent, linkType), childrenByParent);
+            }
+        }
+    }
+
+    /**
+     * Each parent with children costs at most two queries for every halving of the batch.
+     */
+    static int bisectionQueriesFor(int parentCount, int childCount) {
+        int parentsWithChildren = Math.min(parentCount, childCount);
+        int halvings = 32 - Integer.numberOfLeadingZeros(Math.max(parentCount - 1, 0));
+        return 2 * parentsWithChildren * halvings;
+    }
+
+    private void groupByBisection(List<String> parentKeys, String linkType,
+                                  List<IssueSummary> children,
+                                  Map<String, List<IssueSummary>> childrenByParent) {
+        if (children.isEmpty()) {
+            return;
+        }
+        if (parentKeys.size() == 1) {
+            for (IssueSummary child : children) {
+                addChild(childrenByParent, parentKeys.get(0), child);
+            }
+            return;
+        }
+        int middle = parentKeys.size() / 2;
+        List<String> firstHalf = parentKeys.subList(0, middle);
+        List<String> secondHalf = parentKeys.subList(middle, parentKeys.size());
+        groupByBisection(firstHalf, linkType, childIssuesFor(firstHalf, linkType), childrenByParent);
+        groupByBisection(secondHalf, linkType, childIssuesFor(secondHalf, linkType), childrenByParent);
+    }
+
+    private void addChild(Map<String, List<IssueSummary>> childrenByParent, String parentKey, IssueSummary child) {
+        if (!childrenByParent.containsKey(parentKey)) {
+            childrenByParent.put(parentKey, Lists.<IssueSummary>newArrayList());
+        }
+        childrenByParent.get(parentKey).add(child);
+    }
+
+    private List<IssueSummary> childIssuesFor(List<String> parentKeys, String linkType) {
+        String jql = childIssuesJQL(parentKeys, linkType);
+        try {
+            logger.info("Loading child requirements for " + parentKeys.size() + " requirements");
+            List<IssueSummary> children = jiraClient.findByJQL(jql);
+            logger.info("Loading child requirements done: " + children.size());
+            return children;
+        } catch (JSONException e) {
+            failedQueries.incrementAndGet();
+            logger.warn("No children found for requirements (JQL = " + jql + ")", e);
+            return ImmutableList.of();
+        }
+    }
+
+    /**
+     * Build the JQL query returning the children of all of the given parents.
+     */
+    public static String childIssuesJQL(List<String> parentKeys, String linkType) {
+        if (linkType.equals(EPIC_LINK)) {
+            return "'" + EPIC_LINK + "' in (" + Joiner.on(", ").join(parentKeys) + ")";
+        } else {
+            List<String> clauses = Lists.newArrayList();
+            for (String parentKey : parentKeys) {
+                clauses.add(linkedIssuesClause(parentKey, linkType));
+            }
+            return Joiner.on(" OR ").join(clauses);
+        }
+    }
+
+    private static String linkedIssuesClause(String parentKey, String linkType) {
+        return "issue in linkedIssues(" + parentKey + ",\"" + linkType + "\")";
+    }
+
+    /**
+     * Split the parent keys into batches small enough to respect both the batch size and the maximum JQL length.
+     */
+    List<List<String>> batchesOf(Collection<String> parentKeys, String linkType) {
+        List<List<String>> batches = Lists.newArrayList();
+        List<String> currentBatch = Lists.newArrayList();
+        int currentLength = 0;
+        for (String parentKey : Sets.newLinkedHashSet(parentKeys)) {
+            int clauseLength = linkType.equals(EPIC_LINK) ? parentKey.length() + 2
+                                                          : linkedIssuesClause(parentKey, linkType).length() + 4;
+            if (!currentBatch.isEmpty()
+                    && (currentBatch.size() >= batchSize || currentLength + clauseLength > maxJqlLength)) {
+                batches.add(currentBatch);
+                currentBatch = Lists.newArrayList();
+                currentLength = 0;
+            }
+            currentBatch.add(parentKey);
+            currentLength += clauseLength;
+        }
+        if (!currentBatch.isEmpty()) {
+            batches.add(currentBatch);
+        }
+        return batches;
+    }
+}
@@ -1,17 +1,46 @@
 package net.thucydides.plugins.jira.requirements;
 
+import com.google.common.base.Joiner;
 import com.google.common.base.Optional;
+import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 import net.thucydides.core.guice.Injectors;
 import net.thucydides.core.util.EnvironmentVariables;
 import net.thucydides.plugins.jira.client.JIRAAuthenticationError;
 import net.thucydides.plugins.jira.client.JIRAConfigurationError;
 import net.thucydides.plugins.jira.client.JerseyJiraClient;
+import net.thucydides.plugins.jira.domain.CustomFieldCast;
 import net.thucydides.plugins.jira.domain.IssueSummary;
+import org.apache.commons.lang3.StringUtils;
+import org.json.JSONArray;
 import org.json.JSONException;
+import org.json.JSONObject;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static net.thucydides.plugins.jira.requirements.JIRARequirementsConfiguration.JIRA_BATCH_SIZE;
+import static net.thucydides.plugins.jira.requirements.JIRARequirementsConfiguration.JIRA_CIRCUIT_BREAKER_RESET;
+import static net.thucydides.plugins.jira.requirements.JIRARequirementsConfiguration.JIRA_CIRCUIT_BREAKER_THRESHOLD;
+import static net.thucydides.plugins.jira.requirements.JIRARequirementsConfiguration.JIRA_CONNECT_TIMEOUT;
+import static net.thucydides.plugins.jira.requirements.JIRARequirementsConfiguration.JIRA_ISSUE_CACHE_SIZE;
+import static net.thucydides.plugins.jira.requirements.JIRARequirementsConfiguration.JIRA_ISSUE_CACHE_TTL;
+import static net.thucydides.plugins.jira.requirements.JIRARequirementsConfiguration.JIRA_READ_TIMEOUT;
+import static net.thucydides.plugins.jira.requirements.JIRARequirementsConfiguration.JIRA_REQUESTS_PER_SECOND;
+import static net.thucydides.plugins.jira.requirements.JIRARequirementsConfiguration.JIRA_RETRY_ATTEMPTS;
+import static net.thucydides.plugins.jira.requirements.JIRARequirementsConfiguration.JIRA_RETRY_BACKOFF;
+import static net.thucydides.plugins.jira.requirements.JIRARequirementsConfiguration.JIRA_TRACE_FILE;
 
 /**
  * A description goes here.
@@ -22,13 +51,130 @@ import java.util.List;
 public class ConfigurableJiraClient extends JerseyJiraClient {
 
     private static final String FAIL_ON_JIRA_ERROR = "thucydides.fail.on.jira.error";
+    private static final String SEARCH = "/rest/api/2/search";
+    private static final String FIELDS = "/rest/api/2/field";
+    private static final String PROJECT_VERSIONS = "/rest/api/2/project/%s/versions";
+    private static final int SEARCH_PAGE_SIZE = 100;
     private final EnvironmentVariables environmentVariables;
+    private final IssueCache issueCache;
+    private final RequirementsProviderMetrics metrics = new RequirementsProviderMetrics();
+    private final JiraRequestGuard requestGuard;
+    private final CrawlTrace trace;
+    private final AtomicInteger jiraErrors = new AtomicInteger();
+    private final JiraRestConnection restConnection;
+    private final List<String> customFieldNames;
+    private final RequirementFieldMapping fieldMapping;
+    private volatile IssueSummaryReader issueReader;
 
     private final org.slf4j.Logger logger = LoggerFactory.getLogger(JIRARequirementsProvider.class);
 
     public ConfigurableJiraClient(String url, String username, String password, String project) {
         super(url, username, password, project, customFields());
         environmentVariables = Injectors.getInjector().getProvider(EnvironmentVariables.class).get() ;
+        restConnection = restConnectionConfiguredIn(environmentVariables, url, username, password);
+        customFieldNames = customFields();
+        fieldMapping = RequirementFieldMapping.configuredIn(environmentVariables);
+        issueCache = issueCacheConfiguredIn(environmentVariables);
+        requestGuard = requestGuardConfiguredIn(environmentVariables, metrics);
+        trace = traceConfiguredIn(environmentVariables);
+        metrics.monitor(issueCache);
+    }
+
+    public ConfigurableJiraClient(String url, String username, String password, String project,
+                                  List<String> customFields, EnvironmentVariables environmentVariables) {
+        this(url, username, password, project, customFields, environmentVariables,
+             restConnectionConfiguredIn(environmentVariables, url, username, password));
+    }
+
+    /**
+     * A client sending the requests it makes itself, rather than through Jersey, over the given connection.
+     */
+    public ConfigurableJiraClient(String url, String username, String password, String project,
+                                  List<String> customFields, EnvironmentVariables environmentVariables,
+                                  JiraRestConnection restConnection) {
+        super(url, username, password, project, customFields);
+        this.restConnection = restConnection;
+        this.customFieldNames = ImmutableList.copyOf(customFields);
+        this.environmentVariables = environmentVariables;
+        this.fieldMapping = RequirementFieldMapping.configuredIn(environmentVariables);
+        this.issueCache = issueCacheConfiguredIn(environmentVariables);
+        this.requestGuard = requestGuardConfiguredIn(environmentVariables, metrics);
+        this.trace = traceConfiguredIn(environmentVariables);
+        metrics.monitor(issueCache);
+    }
+
+    private static IssueCache issueCacheConfiguredIn(EnvironmentVariables environmentVariables) {
+        return new IssueCache(
+                environmentVariables.getPropertyAsInteger(JIRA_ISSUE_CACHE_SIZE.getName(), IssueCache.DEFAULT_MAXIMUM_SIZE),
+                environmentVariables.getPropertyAsInteger(JIRA_ISSUE_CACHE_TTL.getName(), IssueCache.DEFAULT_TTL_IN_MINUTES),
+                TimeUnit.MINUTES);
+    }
+
+    private static JiraRequestGuard requestGuardConfiguredIn(EnvironmentVariables environmentVariables,
+                                                             RequirementsProviderMetrics metrics) {
+        return new JiraRequestGuard(
+                environmentVariables.getPropertyAsInteger(JIRA_REQUESTS_PER_SECOND.getName(),
+                                                          (int) JiraRequestGuard.DEFAULT_REQUESTS_PER_SECOND),
+                environmentVariables.getPropertyAsInteger(JIRA_RETRY_ATTEMPTS.getName(),
+                                                          JiraRequestGuard.DEFAULT_RETRY_ATTEMPTS),
+                environmentVariables.getPropertyAsInteger(JIRA_RETRY_BACKOFF.getName(),
+                                                          (int) JiraRequestGuard.DEFAULT_RETRY_BACKOFF_IN_MILLIS),
+                environmentVariables.getPropertyAsInteger(JIRA_CIRCUIT_BREAKER_THRESHOLD.getName(),
+                                                          JiraRequestGuard.DEFAULT_CIRCUIT_BREAKER_THRESHOLD),
+                TimeUnit.SECONDS.toMillis(environmentVariables.getPropertyAsInteger(
+                        JIRA_CIRCUIT_BREAKER_RESET.getName(),
+                        (int) TimeUnit.MILLISECONDS.toSeconds(JiraRequestGuard.DEFAULT_CIRCUIT_BREAKER_RESET_IN_MILLIS))),
+                metrics);
+    }
+
+    private static JiraRestConnection restConnectionConfiguredIn(EnvironmentVariables environmentVariables,
+                                                                 String url, String username, String password) {
+        return new JiraRestConnection(url, username, password,
+                (int) TimeUnit.SECONDS.toMillis(environmentVariables.getPropertyAsInteger(
+                        JIRA_CONNECT_TIMEOUT.getName(), JiraRestConnection.DEFAULT_CONNECT_TIMEOUT_IN_SECONDS)),
+                (int) TimeUnit.SECONDS.toMillis(environmentVariables.getPropertyAsInteger(
+                        JIRA_READ_TIMEOUT.getName(), JiraRestConnection.DEFAULT_READ_TIMEOUT_IN_SECONDS)));
+    }
+
+    private static CrawlTrace traceConfiguredIn(EnvironmentVariables environmentVariables) {
+        return StringUtils.isNotEmpty(environmentVariables.getProperty(JIRA_TRACE_FILE.getName()))
+                ? CrawlTrace.enabled() : CrawlTrace.disabled();
+    }
+
+    /**
+     * False once so many consecutive requests have failed that JIRA is considered to be down,
+     * until a probe request gets an answer again.
+     * Requirements loaded while JIRA was down are likely to be incomplete.
+     */
+    public boolean isJiraAvailable() {
+        return requestGuard.isJiraAvailable();
+    }
+
+    /**
+     * How many times JIRA has been considered to be down so far.
+     */
+    public int getCircuitBreaks() {
+        return requestGuard.getCircuitBreaks();
+    }
+
+    /**
+     * How many requests have failed with an authentication or configuration error so far.
+     * Unless thucydides.fail.on.jira.error is set, these errors are only logged, and the request returns no issues.
+     */
+    public int getJiraErrors() {
+        return jiraErrors.get();
+    }
+
+    public IssueCache getIssueCache() {
+        return issueCache;
+    }
+
+    public RequirementsProviderMetrics getMetrics() {
+        return metrics;
+    }
+
+    public CrawlTrace getTrace() {
+        return trace;
     }
 
     private static List<String> customFields() {
@@ -37,16 +183,23 @@ public class ConfigurableJiraClient extends JerseyJiraClient {
     }
 
     @Override
-    public List<IssueSummary> findByJQL(String query) throws JSONException {
+    public List<IssueSummary> findByJQL(final String query) throws JSONException {
         try {
-            return super.findByJQL(query);
+            return issueCache.getQueryResults(query, new Callable<List<IssueSummary>>() {
+                @Override
+                public List<IssueSummary> call() throws Exception {
+                    return loadByJQL(query);
+                }
+            });
         } catch(JIRAAuthenticationError authenticationError) {
+            jiraErrors.incrementAndGet();
             if (failOnJiraErrors()) {
                 throw authenticationError;
             } else {
                 logger.error("Could not connect to JIRA", authenticationError);
             }
         } catch(JIRAConfigurationError configurationError) {
+            jiraErrors.incrementAndGet();
             if (failOnJiraErrors()) {
                 throw configurationError;
             } else {
@@ -57,19 +210,353 @@ public class ConfigurableJiraClient extends JerseyJiraClient {
         return Lists.newArrayList();
     }
 
+    private List<IssueSummary> loadByJQL(final String query) throws JSONException {
+        return requestGuard.call(new Callable<List<IssueSummary>>() {
+            @Override
+            public List<IssueSummary> call() throws Exception {
+                return timedJQLRequest(query);
+            }
+        });
+    }
+
+    private List<IssueSummary> timedJQLRequest(String query) throws IOException, JSONException {
+        long start = System.currentTimeMillis();
+        long traceStart = trace.now();
+        boolean failed = true;
+        int issueCount = 0;
+        try {
+            List<IssueSummary> issues = searchAll(query);
+            issueCount = issues.size();
+            failed = false;
+            return issues;
+        } finally {
+            metrics.recordRequest(RequirementsProviderMetrics.RequestType.JQL,
+                                  System.currentTimeMillis() - start, issueCount, failed);
+            trace.recordRequest("JQL", query, traceStart, trace.now(), issueCount, failed);
+        }
+    }
+
+    /**
+     * All the results of a JQL query, SEARCH_PAGE_SIZE at a time, with only the fields that requirements and tags
+     * are built from, rather than every field of every issue, rendered, as the Jersey client asks for.
+     */
+    private List<IssueSummary> searchAll(String query) throws IOException, JSONException {
+        IssueSummaryReader reader = issueReader();
+        List<IssueSummary> issues = Lists.newArrayList();
+        while (true) {
+            JSONObject results = new JSONObject(restConnection.get(SEARCH, searchParameters(query, issues.size(),
+                                                                                            SEARCH_PAGE_SIZE, reader)));
+            List<IssueSummary> page = withRenderedDescriptions(reader.issuesIn(results), reader);
+            issues.addAll(page);
+            if (page.isEmpty() || issues.size() >= results.optInt("total", issues.size())) {
+                return issues;
+            }
+        }
+    }
+
+    private Map<String, String> searchParameters(String query, int startAt, int maxResults, IssueSummaryReader reader) {
+        return searchParameters(query, startAt, maxResults, reader, renderedFieldsAlwaysRead());
+    }
+
+    private Map<String, String> searchParameters(String query, int startAt, int maxResults, IssueSummaryReader reader,
+                                                 boolean renderedFieldsRead) {
+        Map<String, String> parameters = Maps.newLinkedHashMap();
+        parameters.put("jql", query);
+        parameters.put("startAt", Integer.toString(startAt));
+        parameters.put("maxResults", Integer.toString(maxResults));
+        parameters.put("fields", Joiner.on(",").join(reader.fieldsToRequest()));
+        if (renderedFieldsRead) {
+            parameters.put("expand", "renderedFields");
+        }
+        return parameters;
+    }
+
+    /**
+     * Rendered fields are always needed for the configured custom fields (jira.custom.field.1, ...), and for the
+     * description when no narrative field is read. With a narrative field, the rendered description is only needed
+     * for the issues where that field is empty.
+     */
+    private boolean renderedFieldsAlwaysRead() {
+        return !fieldMapping.getNarrativeField().isPresent()
+                || !customFieldNames.contains(fieldMapping.getNarrativeField().get())
+                || !fieldMapping.getCustomFields().isEmpty();
+    }
+
+    /**
+     * Issues read without their rendered fields whose narrative field is empty fall back on their description,
+     * so they are read again, in a single search, with their rendered fields.
+     */
+    private List<IssueSummary> withRenderedDescriptions(List<IssueSummary> issues, IssueSummaryReader reader)
+            throws IOException, JSONException {
+        if (renderedFieldsAlwaysRead()) {
+            return issues;
+        }
+        List<String> keysWithoutNarrative = Lists.newArrayList();
+        for (IssueSummary issue : issues) {
+            if (!hasNarrative(issue)) {
+                keysWithoutNarrative.add(issue.getKey());
+            }
+        }
+        if (keysWithoutNarrative.isEmpty()) {
+            return issues;
+        }
+        String query = "key in (" + Joiner.on(", ").join(keysWithoutNarrative) + ")";
+        JSONObject results = new JSONObject(restConnection.get(SEARCH, searchParameters(query, 0,
+                                                                                        keysWithoutNarrative.size(),
+                                                                                        reader, true)));
+        Map<String, IssueSummary> renderedIssues = Maps.newHashMap();
+        for (IssueSummary renderedIssue : reader.issuesIn(results)) {
+            renderedIssues.put(renderedIssue.getKey(), renderedIssue);
+        }
+        List<IssueSummary> issuesWithRenderedDescriptions = Lists.newArrayListWithCapacity(issues.size());
+        for (IssueSummary issue : issues) {
+            issuesWithRenderedDescriptions.add(renderedIssues.containsKey(issue.getKey())
+                                                       ? renderedIssues.get(issue.getKey()) : issue);
+        }
+        return issuesWithRenderedDescriptions;
+    }
+
+    private boolean hasNarrative(IssueSummary issue) {
+        Optional<CustomFieldCast> narrative = issue.customField(fieldMapping.getNarrativeField().get());
+        return narrative.isPresent() && narrative.get().asString() != null;
+    }
+
+    private IssueSummaryReader issueReader() throws IOException, JSONException {
+        if (issueReader == null) {
+            issueReader = new IssueSummaryReader(customFieldIds());
+        }
+        return issueReader;
+    }
+
+    /**
+     * The ids of the custom fields to read, which differ from one JIRA instance to another.
+     * They are only looked up once, when the first search is sent.
+     */
+    private Map<String, String> customFieldIds() throws IOException, JSONException {
+        Map<String, String> customFieldIds = Maps.newLinkedHashMap();
+        if (customFieldNames.isEmpty()) {
+            return customFieldIds;
+        }
+        JSONArray fields = new JSONArray(restConnection.get(FIELDS, ImmutableMap.<String, String>of()));
+        Map<String, String> fieldIdsByName = Maps.newHashMap();
+        for (int i = 0; i < fields.length(); i++) {
+            JSONObject field = fields.getJSONObject(i);
+            fieldIdsByName.put(field.optString("name"), field.getString("id"));
+        }
+        for (String customFieldName : customFieldNames) {
+            if (fieldIdsByName.containsKey(customFieldName)) {
+                customFieldIds.put(customFieldName, fieldIdsByName.get(customFieldName));
+            } else {
+                logger.warn("No custom field named '" + customFieldName + "' is defined in JIRA");
+            }
+        }
+        return customFieldIds;
+    }
+
+    /**
+     * Read the results of a JQL query a page at a time, rather than waiting for all of them.
+     */
+    public JQLPages findPagesByJQL(String query, int pageSize) {
+        return new JQLPages(this, query, pageSize);
+    }
+
+    JQLPages.IssuePage searchPage(final String query, final int startAt, final int maxResults) throws JSONException {
+        JQLPages.IssuePage page = requestGuard.call(new Callable<JQLPages.IssuePage>() {
+            @Override
+            public JQLPages.IssuePage call() throws Exception {
+                return timedPageSearch(query, startAt, maxResults);
+            }
+        });
+        issueCache.addAll(page.getIssues());
+        return page;
+    }
+
+    private JQLPages.IssuePage timedPageSearch(String query, int startAt, int maxResults) throws IOException, JSONException {
+        long start = System.currentTimeMillis();
+        long traceStart = trace.now();
+        boolean failed = true;
+        int issueCount = 0;
+        try {
+            IssueSummaryReader reader = issueReader();
+            JSONObject results = new JSONObject(restConnection.get(SEARCH, searchParameters(query, startAt,
+                                                                                            maxResults, reader)));
+            List<IssueSummary> issues = withRenderedDescriptions(reader.issuesIn(results), reader);
+            issueCount = issues.size();
+            failed = false;
+            return new JQLPages.IssuePage(issues, results.optInt("total", startAt + issues.size()));
+        } finally {
+            metrics.recordRequest(RequirementsProviderMetrics.RequestType.JQL,
+                                  System.currentTimeMillis() - start, issueCount, failed);
+            trace.recordRequest("JQL search", query, traceStart, trace.now(), issueCount, failed);
+        }
+    }
+
     private boolean failOnJiraErrors() {
         return environmentVariables.getPropertyAsBoolean(FAIL_ON_JIRA_ERROR,false);
     }
 
-    @Override
-    public Optional<IssueSummary> findByKey(String key) throws JSONException {
+    /**
+     * Load several issues at once, using a few 'key in (...)' queries rather than one request per issue.
+     * Issues that a batch query does not return (because they have been moved, or do not exist) are looked up
+     * individually. The returned map is indexed by the requested keys, and does not contain unknown issues.
+     */
+    public Map<String, IssueSummary> findByKeys(Collection<String> keys) {
+        Map<String, IssueSummary> issuesByKey = Maps.newHashMap();
+        Map<String, Optional<IssueSummary>> cachedIssues = issueCache.getCachedIssues(keys);
+        for (Map.Entry<String, Optional<IssueSummary>> cachedIssue : cachedIssues.entrySet()) {
+            if (cachedIssue.getValue().isPresent()) {
+                issuesByKey.put(cachedIssue.getKey(), cachedIssue.getValue().get());
+            }
+        }
+        Set<String> keysToLoad = Sets.newLinkedHashSet(keys);
+        keysToLoad.removeAll(cachedIssues.keySet());
+        for (List<String> batch : Iterables.partition(keysToLoad, getBatchSize())) {
+            Map<String, IssueSummary> batchIssues = Maps.newHashMap();
+            try {
+                for (IssueSummary issue : findByJQL("key in (" + Joiner.on(", ").join(batch) + ")")) {
+                    batchIssues.put(issue.getKey().toUpperCase(), issue);
+                }
+            } catch (JSONException e) {
+                logger.debug("Could not load issues " + batch + " in a single query", e);
+            }
+            for (String key : batch) {
+                Optional<IssueSummary> issue = batchIssues.containsKey(key.toUpperCase())
+                        ? Optional.of(batchIssues.get(key.toUpperCase())) : findIndividually(key);
+                if (issue.isPresent()) {
+                    issuesByKey.put(key, issue.get());
+                }
+            }
+        }
+        return issuesByKey;
+    }
+
+    private Optional<IssueSummary> findIndividually(String key) {
         try {
-            return super.findByKey(key);
-        } catch(JIRAAuthenticationError authenticationError) {
+            return findByKey(key);
+        } catch (JSONException e) {
+            logger.debug("Could not load issue " + key, e);
+            return Optional.absent();
+        }
+    }
 
+    /**
+     * The names of the versions defined in the given project, or nothing if JIRA rejected the request
+     * (for example because the project does not exist or the user may not browse it).
+     */
+    public Optional<List<String>> findVersionsOf(final String projectKey) throws JSONException {
+        try {
+            return Optional.of(requestGuard.call(new Callable<List<String>>() {
+                @Override
+                public List<String> call() throws Exception {
+                    return timedVersionsRequest(projectKey);
+                }
+            }));
+        } catch(JIRAAuthenticationError authenticationError) {
+            jiraErrors.incrementAndGet();
+            if (failOnJiraErrors()) {
+                throw authenticationError;
+            } else {
+                logger.error("Could not connect to JIRA", authenticationError);
+            }
         } catch(JIRAConfigurationError configurationError) {
+            jiraErrors.incrementAndGet();
+            if (failOnJiraErrors()) {
+                throw configurationError;
+            } else {
+                logger.error("Could not connect to JIRA", configurationError);
+            }
+        }
+        return Optional.absent();
+    }
+
+    private List<String> timedVersionsRequest(String projectKey) throws IOException, JSONException {
+        long traceStart = trace.now();
+        boolean failed = true;
+        int versionCount = 0;
+        try {
+            JSONArray versions = new JSONArray(restConnection.get(String.format(PROJECT_VERSIONS, projectKey),
+                                                                  ImmutableMap.<String, String>of()));
+            List<String> versionNames = Lists.newArrayList();
+            for (int i = 0; i < versions.length(); i++) {
+                versionNames.add(versions.getJSONObject(i).getString("name"));
+            }
+            versionCount = versionNames.size();
+            failed = false;
+            return versionNames;
+        } finally {
+            trace.recordRequest("Versions", projectKey, traceStart, trace.now(), versionCount, failed);
+        }
+    }
+
+    private int getBatchSize() {
+        return Math.max(1, environmentVariables.getPropertyAsInteger(JIRA_BATCH_SIZE.getName(),
+                                                                     ChildIssueLoader.DEFAULT_BATCH_SIZE));
+    }
 
+    /**
+     * Authentication and configuration errors are handled as for JQL queries, but outside the issue cache,
+     * so that the issue is looked up again once the problem is fixed rather than remembered as unknown.
+     */
+    @Override
+    public Optional<IssueSummary> findByKey(final String key) throws JSONException {
+        try {
+            return issueCache.getIssue(key, new Callable<Optional<IssueSummary>>() {
+                @Override
+                public Optional<IssueSummary> call() throws Exception {
+                    return loadByKey(key);
+                }
+            });
+        } catch(JIRAAuthenticationError authenticationError) {
+            jiraErrors.incrementAndGet();
+            if (failOnJiraErrors()) {
+                throw authenticationError;
+            } else {
+                logger.error("Could not connect to JIRA", authenticationError);
+            }
+        } catch(JIRAConfigurationError configurationError) {
+            jiraErrors.incrementAndGet();
+            if (failOnJiraErrors()) {
+                throw configurationError;
+            } else {
+                logger.error("Could not connect to JIRA", configurationError);
+            }
         }
         return Optional.absent();
     }
+
+    private Optional<IssueSummary> loadByKey(final String key) throws JSONException {
+        return requestGuard.call(new Callable<Optional<IssueSummary>>() {
+            @Override
+            public Optional<IssueSummary> call() throws Exception {
+                return timedKeyRequest(key);
+            }
+        });
+    }
+
+    private Optional<IssueSummary> timedKeyRequest(String key) throws JSONException {
+        long start = System.currentTimeMillis();
+        long traceStart = trace.now();
+        boolean failed = true;
+        int issueCount = 0;
+        try {
+            Optional<IssueSummary> issue = super.findByKey(key);
+            issueCount = issue.isPresent() ? 1 : 0;
+            failed = false;
+            return issue;
+        } catch(JSONException e) {
+            if (noSuchIssue(e)) {
+                failed = false;
+                return Optional.absent();
+            }
+            throw e;
+        } finally {
+            metrics.recordRequest(RequirementsProviderMetrics.RequestType.KEY,
+                                  System.currentTimeMillis() - start, issueCount, failed);
+            trace.recordRequest("Key", key, traceStart, trace.now(), issueCount, failed);
+        }
+    }
+
+    private boolean noSuchIssue(JSONException e) {
+        return e.getMessage() != null && e.getMessage().contains("error 400");
+    }
 }
@@ -0,0 +1,195 @@
+package net.thucydides.plugins.jira.requirements;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+import com.google.common.io.Files;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A timeline of where the time goes while the requirements are loaded and test outcomes are tagged:
+ * every JIRA request, with its query, the tree level and parent cards it was made for, its thread and
+ * the number of issues it returned, along with the time crawl tasks spend waiting for an executor thread.
+ * The trace is written in the Chrome trace-event format, which chrome://tracing, Perfetto and speedscope
+ * display as one row of spans per thread.
+ * A disabled trace records nothing, so the crawl pays nothing for it unless jira.trace.file is set.
+ */
+public class CrawlTrace {
+
+    private static final Logger logger = LoggerFactory.getLogger(CrawlTrace.class);
+
+    private static final Context NO_CONTEXT = new Context(-1, ImmutableList.<String>of());
+
+    private final boolean enabled;
+    private final long origin = System.nanoTime();
+    private final ConcurrentLinkedQueue<JSONObject> events = new ConcurrentLinkedQueue<JSONObject>();
+    private final Map<Long, String> threadNames = Maps.newConcurrentMap();
+    private final ThreadLocal<Context> context = new ThreadLocal<Context>() {
+        @Override
+        protected Context initialValue() {
+            return NO_CONTEXT;
+        }
+    };
+
+    private CrawlTrace(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public static CrawlTrace enabled() {
+        return new CrawlTrace(true);
+    }
+
+    public static CrawlTrace disabled() {
+        return new CrawlTrace(false);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * The current time, in the units the other methods expect.
+     */
+    public long now() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Attach a tree level and the parent cards being expanded to the requests this thread makes,
+     * until {@link #leaveLevel()} is called.
+     */
+    public void enterLevel(int level, List<String> parentKeys) {
+        if (enabled) {
+            context.set(new Context(level, parentKeys));
+        }
+    }
+
+    public void leaveLevel() {
+        if (enabled) {
+            context.remove();
+        }
+    }
+
+    public void recordRequest(String type, String query, long start, long end, int resultCount, boolean failed) {
+        if (enabled) {
+            Map<String, Object> args = Maps.newLinkedHashMap();
+            args.put("query", query);
+            args.putAll(context.get().asArgs());
+            args.put("results", resultCount);
+            args.put("failed", failed);
+            record(type + " " + query, "jira", start, end, args);
+        }
+    }
+
+    /**
+     * Record the time a crawl task spent queued before an executor thread picked it up.
+     * Call this from the task itself, with the time it was submitted.
+     */
+    public void recordWait(int level, List<String> parentKeys, long submitted) {
+        if (enabled) {
+            record("waiting for a crawler thread", "executor", submitted, now(),
+                   new Context(level, parentKeys).asArgs());
+        }
+    }
+
+    public void recordSpan(String name, long start, Map<String, ?> args) {
+        if (enabled) {
+            record(name, "provider", start, now(), args);
+        }
+    }
+
+    private void record(String name, String category, long start, long end, Map<String, ?> args) {
+        Thread thread = Thread.currentThread();
+        threadNames.put(thread.getId(), thread.getName());
+        try {
+            JSONObject event = new JSONObject();
+            event.put("name", name);
+            event.put("cat", category);
+            event.put("ph", "X");
+            event.put("ts", microsecondsSinceOrigin(start));
+            event.put("dur", TimeUnit.NANOSECONDS.toMicros(Math.max(0, end - start)));
+            event.put("pid", 1);
+            event.put("tid", thread.getId());
+            event.put("args", argsOf(args));
+            events.add(event);
+        } catch (JSONException e) {
+            logger.debug("Could not record trace event " + name, e);
+        }
+    }
+
+    private JSONObject argsOf(Map<String, ?> args) throws JSONException {
+        JSONObject json = new JSONObject();
+        for (Map.Entry<String, ?> arg : args.entrySet()) {
+            json.put(arg.getKey(), arg.getValue());
+        }
+        return json;
+    }
+
+    private long microsecondsSinceOrigin(long time) {
+        return TimeUnit.NANOSECONDS.toMicros(time - origin);
+    }
+
+    JSONObject toJSON() throws JSONException {
+        JSONArray traceEvents = new JSONArray();
+        for (Map.Entry<Long, String> thread : threadNames.entrySet()) {
+            JSONObject threadName = new JSONObject();
+            threadName.put("name", "thread_name");
+            threadName.put("ph", "M");
+            threadName.put("pid", 1);
+            threadName.put("tid", thread.getKey());
+            threadName.put("args", new JSONObject().put("name", thread.getValue()));
+            traceEvents.put(threadName);
+        }
+        for (JSONObject event : events) {
+            traceEvents.put(event);
+        }
+        JSONObject trace = new JSONObject();
+        trace.put("traceEvents", traceEvents);
+        trace.put("displayTimeUnit", "ms");
+        return trace;
+    }
+
+    public void writeTo(File traceFile) {
+        if (!enabled) {
+            return;
+        }
+        try {
+            Files.createParentDirs(traceFile);
+            Files.asCharSink(traceFile, Charsets.UTF_8).write(toJSON().toString());
+        } catch (IOException e) {
+            logger.warn("Could not write JIRA crawl trace to " + traceFile, e);
+        } catch (JSONException e) {
+            logger.warn("Could not write JIRA crawl trace to " + traceFile, e);
+        }
+    }
+
+    private static class Context {
+        private final int level;
+        private final List<String> parentKeys;
+
+        private Context(int level, List<String> parentKeys) {
+            this.level = level;
+            this.parentKeys = parentKeys;
+        }
+
+        Map<String, Object> asArgs() {
+            if (level < 0) {
+                return ImmutableMap.of();
+            }
+            return ImmutableMap.<String, Object>of("level", level, "parents", Joiner.on(",").join(parentKeys));
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package net.thucydides.plugins.jira.requirements;
+
+import com.google.common.base.Optional;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Creates the executor the requirements tree is crawled with.
+ * The crawler spends nearly all of its time waiting for JIRA, so besides a fixed pool of platform threads,
+ * each request can run on its own virtual thread, the number of requests in flight being limited by a semaphore
+ * rather than by the number of threads. Before Java 21, where there are no virtual threads, the 'virtual' mode
+ * falls back to a fixed pool of jira.max.concurrent.requests platform threads, rather than starting a thread
+ * for each request only to have it wait for a permit.
+ */
+public class CrawlerExecutors {
+
+    public enum ExecutionMode {
+        /**
+         * A fixed pool of jira.max.threads platform threads.
+         */
+        THREADS,
+        /**
+         * One virtual thread per request, with at most jira.max.concurrent.requests requests in flight.
+         */
+        VIRTUAL;
+
+        public static ExecutionMode fromName(String name) {
+            for (ExecutionMode mode : values()) {
+                if (mode.name().equalsIgnoreCase(name)) {
+                    return mode;
+                }
+            }
+            throw new IllegalArgumentException("Unknown JIRA execution mode: " + name
+                                               + " (expected 'threads' or 'virtual')");
+        }
+    }
+
+    public static final int DEFAULT_MAX_CONCURRENT_REQUESTS = 64;
+
+    private static final Logger logger = LoggerFactory.getLogger(CrawlerExecutors.class);
+
+    /**
+     * Idle pool threads stop after this delay, so that the pool of a provider that is never closed
+     * does not outlive the crawls it ran.
+     */
+    private static final long IDLE_THREAD_TIMEOUT_IN_SECONDS = 60;
+
+    private static final ThreadFactory DAEMON_THREADS = new ThreadFactoryBuilder().setDaemon(true)
+                                                                                  .setNameFormat("jira-requirements-%d")
+                                                                                  .build();
+
+    public static ListeningExecutorService newExecutor(ExecutionMode mode, int concurrency,
+                                                       RequirementsProviderMetrics metrics) {
+        if (mode == ExecutionMode.VIRTUAL) {
+            return newExecutor(mode, concurrency, metrics, virtualThreadPerTaskExecutor());
+        }
+        return newExecutor(mode, concurrency, metrics, Optional.<ExecutorService>absent());
+    }
+
+    /**
+     * @param virtualThreads an executor that starts a virtual thread per task, if this JVM has virtual threads
+     */
+    public static ListeningExecutorService newExecutor(ExecutionMode mode, int concurrency,
+                                                       RequirementsProviderMetrics metrics,
+                                                       Optional<ExecutorService> virtualThreads) {
+        if (mode == ExecutionMode.VIRTUAL && virtualThreads.isPresent()) {
+            Semaphore requestPermits = new Semaphore(Math.max(1, concurrency));
+            metrics.monitor(requestPermits);
+            return MoreExecutors.listeningDecorator(new BoundedExecutor(virtualThreads.get(), requestPermits));
+        }
+        if (mode == ExecutionMode.VIRTUAL) {
+            logger.info("Virtual threads are not available in this JVM: using a pool of " + Math.max(1, concurrency)
+                        + " threads instead");
+        }
+        int threads = Math.max(1, concurrency);
+        ThreadPoolExecutor threadPool = new ThreadPoolExecutor(threads, threads, IDLE_THREAD_TIMEOUT_IN_SECONDS,
+                                                               TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                                                               DAEMON_THREADS);
+        threadPool.allowCoreThreadTimeOut(true);
+        metrics.monitor(threadPool);
+        return MoreExecutors.listeningDecorator(threadPool);
+    }
+
+    private static Optional<ExecutorService> virtualThreadPerTaskExecutor() {
+        try {
+            return Optional.of((ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor")
+                                                                  .invoke(null));
+        } catch (Exception virtualThreadsNotSupported) {
+            return Optional.absent();
+        }
+    }
+
+    /**
+     * Runs each task on the underlying executor once a permit is available, so that tasks wait for a permit
+     * on their own (cheap) thread rather than in a queue.
+     */
+    private static class BoundedExecutor extends AbstractExecutorService {
+
+        private final ExecutorService executor;
+        private final Semaphore permits;
+
+        private BoundedExecutor(ExecutorService executor, Semaphore permits) {
+            this.executor = executor;
+            this.permits = permits;
+        }
+
+        @Override
+        public void execute(final Runnable task) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    permits.acquireUninterruptibly();
+                    try {
+                        task.run();
+                    } finally {
+                        permits.release();
+                    }
+                }
+            });
+        }
+
+        @Override
+        public void shutdown() {
+            executor.shutdown();
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            return executor.shutdownNow();
+        }
+
+        @Override
+        public boolean isShutdown() {
+            return executor.isShutdown();
+        }
+
+        @Override
+        public boolean isTerminated() {
+            return executor.isTerminated();
+        }
+
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+            return executor.awaitTermination(timeout, unit);
+        }
+    }
+}
@@ -0,0 +1,248 @@
+package net.thucydides.plugins.jira.requirements;
+
+import ch.lambdaj.function.convert.Converter;
+import com.google.common.base.Objects;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import net.thucydides.core.requirements.model.Requirement;
+import net.thucydides.plugins.jira.client.JerseyJiraClient;
+import net.thucydides.plugins.jira.domain.CustomFieldCast;
+import net.thucydides.plugins.jira.domain.IssueSummary;
+import org.json.JSONException;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Brings a previously loaded requirements tree up to date by only asking JIRA about the issues
+ * that have been updated since the last synchronization.
+ * Updated issues replace their old versions in the tree. The children of any requirement that was updated,
+ * that used to be the parent of an updated issue, or that an updated issue now refers to through its 'Epic Link',
+ * are reloaded, which takes care of stories that have been added, moved to another parent or unlinked.
+ * New subtrees are loaded in full. The root requirements are always reloaded with a single query.
+ * Issues that have been deleted outright leave no trace in JQL results, so they are only dropped when their parent
+ * is reloaded, or at the next full crawl.
+ * Updated issues are found with a relative date ("-65m"), as JIRA reads absolute dates in the time zone of the
+ * JIRA user, which need not be the local one.
+ */
+public class IncrementalRequirementsSync {
+
+    private static final long SAFETY_MARGIN = TimeUnit.MINUTES.toMillis(5);
+    private static final List<String> NO_KEYS = ImmutableList.of();
+
+    private final org.slf4j.Logger logger = LoggerFactory.getLogger(IncrementalRequirementsSync.class);
+
+    private final JerseyJiraClient jiraClient;
+    private final ChildIssueLoader childIssueLoader;
+    private final String projectKey;
+    private final String rootRequirementsJQL;
+    private final List<String> requirementsLinks;
+    private final Converter<IssueSummary, Requirement> requirementConverter;
+
+    public IncrementalRequirementsSync(JerseyJiraClient jiraClient,
+                                       ChildIssueLoader childIssueLoader,
+                                       String projectKey,
+                                       String rootRequirementsJQL,
+                                       List<String> requirementsLinks,
+                                       Converter<IssueSummary, Requirement> requirementConverter) {
+        this.jiraClient = jiraClient;
+        this.childIssueLoader = childIssueLoader;
+        this.projectKey = projectKey;
+        this.rootRequirementsJQL = rootRequirementsJQL;
+        this.requirementsLinks = ImmutableList.copyOf(requirementsLinks);
+        this.requirementConverter = requirementConverter;
+    }
+
+    public List<Requirement> refresh(List<Requirement> requirements, long lastSynchronized) throws JSONException {
+        return refresh(requirements, lastSynchronized, System.currentTimeMillis());
+    }
+
+    /**
+     * @param now the time the synchronization started, which the issues updated since the last one are counted back from
+     */
+    public List<Requirement> refresh(List<Requirement> requirements, long lastSynchronized, long now)
+            throws JSONException {
+        List<IssueSummary> updatedIssues = jiraClient.findByJQL(updatedSinceJQL(lastSynchronized, now));
+        logger.info("Synchronizing requirements: {} issues updated since last synchronization", updatedIssues.size());
+        if (updatedIssues.isEmpty()) {
+            return requirements;
+        }
+
+        PreviousTree previousTree = new PreviousTree(requirements);
+        Map<String, IssueSummary> updatedIssuesByKey = Maps.newHashMap();
+        for (IssueSummary updatedIssue : updatedIssues) {
+            updatedIssuesByKey.put(updatedIssue.getKey(), updatedIssue);
+        }
+        List<Set<String>> staleParentsByLevel = staleParentsFor(updatedIssues, previousTree);
+
+        Map<String, Requirement> requirementsByKey = Maps.newHashMap();
+        List<Map<String, List<String>>> childKeysByLevel = Lists.newArrayList();
+
+        List<String> rootKeys = Lists.newArrayList();
+        for (IssueSummary rootIssue : jiraClient.findByJQL(rootRequirementsJQL)) {
+            rootKeys.add(rootIssue.getKey());
+            requirementsByKey.put(rootIssue.getKey(), requirementConverter.convert(rootIssue));
+        }
+
+        List<String> keysAtCurrentLevel = rootKeys;
+        for (int level = 0; level < requirementsLinks.size() && !keysAtCurrentLevel.isEmpty(); level++) {
+            Map<String, List<String>> childKeys = Maps.newHashMap();
+            List<String> parentsToReload = Lists.newArrayList();
+            for (String key : keysAtCurrentLevel) {
+                if (staleParentsByLevel.get(level).contains(key) || !previousTree.containsAtLevel(key, level)) {
+                    parentsToReload.add(key);
+                } else {
+                    List<String> previousChildKeys = previousTree.childKeysOf(key, level);
+                    for (String childKey : previousChildKeys) {
+                        requirementsByKey.put(childKey, updatedIssuesByKey.containsKey(childKey)
+                                ? requirementConverter.convert(updatedIssuesByKey.get(childKey))
+                                : previousTree.requirementWithoutChildren(childKey));
+                    }
+                    childKeys.put(key, previousChildKeys);
+                }
+            }
+            Map<String, List<IssueSummary>> reloadedChildren
+                    = childIssueLoader.findChildrenOf(parentsToReload, requirementsLinks.get(level));
+            for (String parentKey : reloadedChildren.keySet()) {
+                List<String> reloadedChildKeys = Lists.newArrayList();
+                for (IssueSummary child : reloadedChildren.get(parentKey)) {
+                    reloadedChildKeys.add(child.getKey());
+                    requirementsByKey.put(child.getKey(), requirementConverter.convert(child));
+                }
+                childKeys.put(parentKey, reloadedChildKeys);
+            }
+            childKeysByLevel.add(childKeys);
+            keysAtCurrentLevel = Lists.newArrayList(Sets.newLinkedHashSet(allKeysIn(childKeys)));
+        }
+        return requirementsFrom(rootKeys, requirementsByKey, childKeysByLevel, 0, null);
+    }
+
+    private String updatedSinceJQL(long lastSynchronized, long now) {
+        long minutesSince = (Math.max(now - lastSynchronized, 0) + SAFETY_MARGIN + TimeUnit.MINUTES.toMillis(1) - 1)
+                            / TimeUnit.MINUTES.toMillis(1);
+        return "project = " + projectKey + " AND updated >= \"-" + minutesSince + "m\"";
+    }
+
+    private List<Set<String>> staleParentsFor(List<IssueSummary> updatedIssues, PreviousTree previousTree) {
+        List<Set<String>> staleParentsByLevel = Lists.newArrayList();
+        for (int level = 0; level < requirementsLinks.size(); level++) {
+            Set<String> staleParents = Sets.newHashSet();
+            for (IssueSummary updatedIssue : updatedIssues) {
+                staleParents.add(updatedIssue.getKey());
+                staleParents.addAll(previousTree.parentKeysOf(updatedIssue.getKey(), level));
+                if (requirementsLinks.get(level).equals(ChildIssueLoader.EPIC_LINK)) {
+                    staleParents.addAll(epicKeyOf(updatedIssue).asSet());
+                }
+            }
+            staleParentsByLevel.add(staleParents);
+        }
+        return staleParentsByLevel;
+    }
+
+    private Optional<String> epicKeyOf(IssueSummary issue) {
+        Optional<CustomFieldCast> epicLink = issue.customField(ChildIssueLoader.EPIC_LINK);
+        if (epicLink.isPresent()) {
+            return Optional.fromNullable(epicLink.get().asString());
+        }
+        return Optional.absent();
+    }
+
+    private List<Requirement> requirementsFrom(List<String> keys,
+                                               Map<String, Requirement> requirementsByKey,
+                                               List<Map<String, List<String>>> childKeysByLevel,
+                                               int level,
+                                               String parent) {
+        List<Requirement> levelRequirements = Lists.newArrayList();
+        for (String key : keys) {
+            Requirement requirement = requirementsByKey.get(key);
+            if (!Objects.equal(requirement.getParent(), parent)) {
+                requirement = requirement.withParent(parent);
+            }
+            if (level < childKeysByLevel.size() && childKeysByLevel.get(level).containsKey(key)) {
+                requirement = requirement.withChildren(
+                        requirementsFrom(childKeysByLevel.get(level).get(key), requirementsByKey, childKeysByLevel,
+                                         level + 1, requirement.getName()));
+            }
+            levelRequirements.add(requirement);
+        }
+        return levelRequirements;
+    }
+
+    private List<String> allKeysIn(Map<String, List<String>> keysByParent) {
+        List<String> keys = Lists.newArrayList();
+        for (List<String> childKeys : keysByParent.values()) {
+            keys.addAll(childKeys);
+        }
+        return keys;
+    }
+
+    /**
+     * The shape of the tree before synchronization: which cards appear at each level, and under which parents.
+     */
+    private static class PreviousTree {
+        private final Map<String, Requirement> requirementsByKey = Maps.newHashMap();
+        private final List<Set<String>> keysByLevel = Lists.newArrayList();
+        private final List<Map<String, List<String>>> childKeysByLevel = Lists.newArrayList();
+        private final List<Map<String, Set<String>>> parentKeysByLevel = Lists.newArrayList();
+
+        PreviousTree(List<Requirement> requirements) {
+            index(requirements, null, 0);
+        }
+
+        private void index(List<Requirement> requirements, String parentKey, int level) {
+            while (keysByLevel.size() <= level) {
+                keysByLevel.add(Sets.<String>newHashSet());
+                childKeysByLevel.add(Maps.<String, List<String>>newHashMap());
+                parentKeysByLevel.add(Maps.<String, Set<String>>newHashMap());
+            }
+            for (Requirement requirement : requirements) {
+                String key = requirement.getCardNumber();
+                keysByLevel.get(level).add(key);
+                if (!requirementsByKey.containsKey(key)) {
+                    requirementsByKey.put(key, requirement.withChildren(ImmutableList.<Requirement>of()));
+                }
+                if (parentKey != null) {
+                    if (!parentKeysByLevel.get(level - 1).containsKey(key)) {
+                        parentKeysByLevel.get(level - 1).put(key, Sets.<String>newHashSet());
+                    }
+                    parentKeysByLevel.get(level - 1).get(key).add(parentKey);
+                }
+                List<String> childKeys = Lists.newArrayList();
+                for (Requirement child : requirement.getChildren()) {
+                    childKeys.add(child.getCardNumber());
+                }
+                childKeysByLevel.get(level).put(key, childKeys);
+                index(requirement.getChildren(), key, level + 1);
+            }
+        }
+
+        boolean containsAtLevel(String key, int level) {
+            return level < keysByLevel.size() && keysByLevel.get(level).contains(key);
+        }
+
+        List<String> childKeysOf(String key, int level) {
+            if (level < childKeysByLevel.size() && childKeysByLevel.get(level).containsKey(key)) {
+                return childKeysByLevel.get(level).get(key);
+            }
+            return NO_KEYS;
+        }
+
+        Set<String> parentKeysOf(String key, int level) {
+            if (level < parentKeysByLevel.size() && parentKeysByLevel.get(level).containsKey(key)) {
+                return parentKeysByLevel.get(level).get(key);
+            }
+            return ImmutableSet.of();
+        }
+
+        Requirement requirementWithoutChildren(String key) {
+            return requirementsByKey.get(key);
+        }
+    }
+}
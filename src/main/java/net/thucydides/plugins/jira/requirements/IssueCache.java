@@ -0,0 +1,129 @@
+package net.thucydides.plugins.jira.requirements;
+
+import com.google.common.base.Optional;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import net.thucydides.plugins.jira.domain.IssueSummary;
+import org.json.JSONException;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A bounded, time-limited in-memory cache of JIRA issues and JQL query results.
+ * Unknown issues are cached too, so that repeated lookups of a bad key do not go back to the server.
+ * Every issue returned by a query is also cached individually, so that later lookups by key are free.
+ * Failed loads are never cached.
+ */
+public class IssueCache {
+
+    static int DEFAULT_MAXIMUM_SIZE = 10000;
+    static int DEFAULT_TTL_IN_MINUTES = 10;
+
+    private final Cache<String, Optional<IssueSummary>> issues;
+    private final Cache<String, List<IssueSummary>> queryResults;
+
+    public IssueCache(long maximumSize, long timeToLive, TimeUnit timeUnit) {
+        this.issues = CacheBuilder.newBuilder()
+                                  .maximumSize(maximumSize)
+                                  .expireAfterWrite(timeToLive, timeUnit)
+                                  .recordStats()
+                                  .build();
+        this.queryResults = CacheBuilder.newBuilder()
+                                        .maximumSize(maximumSize)
+                                        .expireAfterWrite(timeToLive, timeUnit)
+                                        .recordStats()
+                                        .build();
+    }
+
+    public Optional<IssueSummary> getIssue(String key, Callable<Optional<IssueSummary>> loader) throws JSONException {
+        try {
+            return issues.get(normalized(key), loader);
+        } catch (ExecutionException e) {
+            throw rethrown(e.getCause());
+        } catch (UncheckedExecutionException e) {
+            throw rethrown(e.getCause());
+        }
+    }
+
+    public List<IssueSummary> getQueryResults(String query, final Callable<List<IssueSummary>> loader) throws JSONException {
+        try {
+            return queryResults.get(query, new Callable<List<IssueSummary>>() {
+                @Override
+                public List<IssueSummary> call() throws Exception {
+                    List<IssueSummary> results = ImmutableList.copyOf(loader.call());
+                    addAll(results);
+                    return results;
+                }
+            });
+        } catch (ExecutionException e) {
+            throw rethrown(e.getCause());
+        } catch (UncheckedExecutionException e) {
+            throw rethrown(e.getCause());
+        }
+    }
+
+    /**
+     * The cached entries for any of the given keys, including keys that are known not to exist.
+     */
+    public Map<String, Optional<IssueSummary>> getCachedIssues(Collection<String> keys) {
+        Map<String, Optional<IssueSummary>> cachedIssues = Maps.newHashMap();
+        for (String key : keys) {
+            Optional<IssueSummary> cachedIssue = issues.getIfPresent(normalized(key));
+            if (cachedIssue != null) {
+                cachedIssues.put(key, cachedIssue);
+            }
+        }
+        return cachedIssues;
+    }
+
+    /**
+     * Every issue currently cached, whether it was loaded individually or as part of a query.
+     */
+    public List<IssueSummary> getAllCachedIssues() {
+        return ImmutableList.copyOf(Optional.presentInstances(issues.asMap().values()));
+    }
+
+    public void add(String key, Optional<IssueSummary> issue) {
+        issues.put(normalized(key), issue);
+    }
+
+    public void addAll(Collection<IssueSummary> loadedIssues) {
+        for (IssueSummary issue : loadedIssues) {
+            issues.put(normalized(issue.getKey()), Optional.of(issue));
+        }
+    }
+
+    public CacheStats getIssueStats() {
+        return issues.stats();
+    }
+
+    public CacheStats getQueryStats() {
+        return queryResults.stats();
+    }
+
+    private String normalized(String key) {
+        return key.toUpperCase();
+    }
+
+    private JSONException rethrown(Throwable cause) throws JSONException {
+        if (cause instanceof JSONException) {
+            throw (JSONException) cause;
+        }
+        if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+        }
+        if (cause instanceof Error) {
+            throw (Error) cause;
+        }
+        throw new IllegalStateException(cause);
+    }
+}
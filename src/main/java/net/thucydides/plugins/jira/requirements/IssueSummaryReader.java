@@ -0,0 +1,138 @@
+package net.thucydides.plugins.jira.requirements;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.LinkedHashMultimap;
+import com.google.common.collect.Maps;
+import com.google.common.collect.SetMultimap;
+import net.thucydides.plugins.jira.domain.IssueSummary;
+import net.thucydides.plugins.jira.domain.RenderedView;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.net.URI;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads the issues of a JIRA search that only asked for the fields the requirements are built from.
+ * Custom fields are requested by id but read by name, as the requirements configuration names them.
+ * When the search did not ask for the rendered fields, the raw description stands in for the rendered one,
+ * and custom fields have no rendered values.
+ * Issues are read with their issue links, so that the children of several parents found by a single query can be
+ * told apart.
+ */
+class IssueSummaryReader {
+
+    private static final List<String> ISSUE_FIELDS = ImmutableList.of("summary", "issuetype", "status", "labels",
+                                                                    "fixVersions", "description", "issuelinks");
+
+    private final Map<String, String> customFieldIdsByName;
+
+    IssueSummaryReader(Map<String, String> customFieldIdsByName) {
+        this.customFieldIdsByName = ImmutableMap.copyOf(customFieldIdsByName);
+    }
+
+    /**
+     * The fields to ask the search for: the ones every requirement needs, then the custom fields, by id.
+     */
+    List<String> fieldsToRequest() {
+        return ImmutableList.<String>builder().addAll(ISSUE_FIELDS).addAll(customFieldIdsByName.values()).build();
+    }
+
+    List<IssueSummary> issuesIn(JSONObject searchResults) throws JSONException {
+        JSONArray issues = searchResults.getJSONArray("issues");
+        List<IssueSummary> issueSummaries = Lists.newArrayListWithCapacity(issues.length());
+        for (int i = 0; i < issues.length(); i++) {
+            issueSummaries.add(issueFrom(issues.getJSONObject(i)));
+        }
+        return issueSummaries;
+    }
+
+    LinkedIssueSummary issueFrom(JSONObject issue) throws JSONException {
+        JSONObject fields = issue.getJSONObject("fields");
+        JSONObject renderedFields = issue.optJSONObject("renderedFields");
+
+        Map<String, Object> customFieldValues = Maps.newHashMap();
+        Map<String, Object> renderedFieldValues = Maps.newHashMap();
+        for (Map.Entry<String, String> customField : customFieldIdsByName.entrySet()) {
+            if (hasValue(fields, customField.getValue())) {
+                customFieldValues.put(customField.getKey(), fields.get(customField.getValue()));
+            }
+            if (hasValue(renderedFields, customField.getValue())) {
+                renderedFieldValues.put(customField.getKey(), renderedFields.get(customField.getValue()));
+            }
+        }
+        String description = stringIn(fields, "description");
+        String renderedDescription = hasValue(renderedFields, "description") ? renderedFields.getString("description")
+                                                                             : description;
+        String self = stringIn(issue, "self");
+        String id = stringIn(issue, "id");
+        return new LinkedIssueSummary((self == null) ? null : URI.create(self),
+                                      (id == null) ? null : Long.valueOf(id),
+                                      issue.getString("key"),
+                                      stringIn(fields, "summary"),
+                                      description,
+                                      new RenderedView(renderedDescription, renderedFieldValues),
+                                      nameIn(fields, "issuetype"),
+                                      nameIn(fields, "status"),
+                                      labelsIn(fields),
+                                      fixVersionsIn(fields),
+                                      customFieldValues,
+                                      linkingIssueKeysIn(fields));
+    }
+
+    /**
+     * A link shown on the inward side of this issue was made from the other issue, so the other issue sees it
+     * with the outward description, and the other way around.
+     */
+    private SetMultimap<String, String> linkingIssueKeysIn(JSONObject fields) throws JSONException {
+        SetMultimap<String, String> linkingIssueKeys = LinkedHashMultimap.create();
+        JSONArray issueLinks = fields.optJSONArray("issuelinks");
+        for (int i = 0; issueLinks != null && i < issueLinks.length(); i++) {
+            JSONObject issueLink = issueLinks.getJSONObject(i);
+            JSONObject linkType = issueLink.getJSONObject("type");
+            if (hasValue(issueLink, "inwardIssue")) {
+                linkingIssueKeys.put(linkType.getString("outward").toLowerCase(),
+                                     issueLink.getJSONObject("inwardIssue").getString("key"));
+            }
+            if (hasValue(issueLink, "outwardIssue")) {
+                linkingIssueKeys.put(linkType.getString("inward").toLowerCase(),
+                                     issueLink.getJSONObject("outwardIssue").getString("key"));
+            }
+        }
+        return linkingIssueKeys;
+    }
+
+    private boolean hasValue(JSONObject fields, String field) {
+        return fields != null && fields.has(field) && !fields.isNull(field);
+    }
+
+    private String stringIn(JSONObject fields, String field) throws JSONException {
+        return hasValue(fields, field) ? fields.getString(field) : null;
+    }
+
+    private String nameIn(JSONObject fields, String field) throws JSONException {
+        return hasValue(fields, field) ? stringIn(fields.getJSONObject(field), "name") : null;
+    }
+
+    private List<String> labelsIn(JSONObject fields) throws JSONException {
+        List<String> labels = Lists.newArrayList();
+        JSONArray labelArray = fields.optJSONArray("labels");
+        for (int i = 0; labelArray != null && i < labelArray.length(); i++) {
+            labels.add(labelArray.getString(i));
+        }
+        return labels;
+    }
+
+    private List<String> fixVersionsIn(JSONObject fields) throws JSONException {
+        List<String> fixVersions = Lists.newArrayList();
+        JSONArray versions = fields.optJSONArray("fixVersions");
+        for (int i = 0; versions != null && i < versions.length(); i++) {
+            fixVersions.add(versions.getJSONObject(i).getString("name"));
+        }
+        return fixVersions;
+    }
+}
@@ -2,7 +2,9 @@ package net.thucydides.plugins.jira.requirements;
 
 import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import net.thucydides.core.model.TestTag;
 import net.thucydides.core.requirements.model.Requirement;
 import net.thucydides.plugins.jira.client.JerseyJiraClient;
@@ -12,31 +14,64 @@ import org.json.JSONException;
 import org.slf4j.LoggerFactory;
 
 import java.util.List;
+import java.util.Map;
 
 public class IssueTagReader {
 
     private final org.slf4j.Logger logger = LoggerFactory.getLogger(IssueTagReader.class);
 
-    private final List<Requirement> flattenedRequirements;
+    private final RequirementsIndex requirementsIndex;
     private final JerseyJiraClient jiraClient;
-    private final String projectKey;
+    private final List<String> projectKeys;
+    private final Map<String, Optional<IssueSummary>> loadedIssues;
+    private Optional<VersionCatalogue> versionCatalogue = Optional.absent();
     private List<TestTag> tags = Lists.newArrayList();
 
-    public IssueTagReader(JerseyJiraClient jiraClient, List<Requirement> flattenedRequirements, String projectKey) {
-        this.flattenedRequirements = flattenedRequirements;
+    public IssueTagReader(JerseyJiraClient jiraClient, RequirementsIndex requirementsIndex, String projectKey) {
+        this(jiraClient, requirementsIndex, projectKey, ImmutableMap.<String, Optional<IssueSummary>>of());
+    }
+
+    /**
+     * Create a tag reader that uses issues that have already been loaded from JIRA (for example in a batch),
+     * and only goes back to the server for issues that are not in the preloaded map.
+     */
+    public IssueTagReader(JerseyJiraClient jiraClient, RequirementsIndex requirementsIndex, String projectKey,
+                          Map<String, Optional<IssueSummary>> preloadedIssues) {
+        this(jiraClient, requirementsIndex, ImmutableList.of(projectKey), preloadedIssues);
+    }
+
+    /**
+     * Create a tag reader for requirements loaded from several projects.
+     * Numeric issue keys (e.g. #123) refer to the first of these projects that has an issue with that number.
+     */
+    public IssueTagReader(JerseyJiraClient jiraClient, RequirementsIndex requirementsIndex, List<String> projectKeys,
+                          Map<String, Optional<IssueSummary>> preloadedIssues) {
+        this.requirementsIndex = requirementsIndex;
         this.jiraClient = jiraClient;
-        this.projectKey = projectKey;
+        this.projectKeys = ImmutableList.copyOf(projectKeys);
+        this.loadedIssues = Maps.newHashMap(preloadedIssues);
+    }
+
+    /**
+     * Read version tags from the given catalogue where it knows the issue, rather than from the issue itself.
+     */
+    public IssueTagReader usingVersionCatalogue(VersionCatalogue versionCatalogue) {
+        this.versionCatalogue = Optional.of(versionCatalogue);
+        return this;
     }
 
     public IssueTagReader addVersionTags(String issueKey) {
         String decodedIssueKey = decoded(issueKey);
-        try {
-            Optional<IssueSummary> issue = jiraClient.findByKey(issueKey);
-            if (issue.isPresent()) {
-                addVersionTags(issue.get().getFixVersions());
+        if (versionCatalogue.isPresent()) {
+            Optional<List<String>> versions = versionCatalogue.get().getVersionsOf(decodedIssueKey);
+            if (versions.isPresent()) {
+                addVersionTags(versions.get());
+                return this;
             }
-        } catch (JSONException e) {
-            logger.warn("Could not read versions for issue " + decodedIssueKey, e);
+        }
+        Optional<IssueSummary> issue = issueWithKey(decodedIssueKey);
+        if (issue.isPresent()) {
+            addVersionTags(issue.get().getFixVersions());
         }
         return this;
     }
@@ -58,72 +93,77 @@ public class IssueTagReader {
     }
 
     public IssueTagReader addIssueTags(String issueKey) {
-        String decodedIssueKey = decoded(issueKey);
-        Optional<IssueSummary> behaviourIssue = Optional.absent();
-        try {
-            behaviourIssue = jiraClient.findByKey(decodedIssueKey);
-        } catch (JSONException e) {
-            logger.warn("Could not read tags for issue " + decodedIssueKey, e);
-        }
+        Optional<IssueSummary> behaviourIssue = issueWithKey(decoded(issueKey));
         if (behaviourIssue.isPresent()) {
             tags.add(TestTag.withName(behaviourIssue.get().getSummary()).andType(behaviourIssue.get().getType()));
         }
         return this;
     }
 
+    private Optional<IssueSummary> issueWithKey(String decodedIssueKey) {
+        if (!loadedIssues.containsKey(decodedIssueKey)) {
+            Optional<IssueSummary> issue = Optional.absent();
+            try {
+                issue = jiraClient.findByKey(decodedIssueKey);
+            } catch (JSONException e) {
+                logger.warn("Could not read tags for issue " + decodedIssueKey, e);
+            }
+            loadedIssues.put(decodedIssueKey, issue);
+        }
+        return loadedIssues.get(decodedIssueKey);
+    }
+
     public List<TestTag> getTags() {
         return ImmutableList.copyOf(tags);
     }
 
     private List<Requirement> getAssociatedRequirementsOf(String issueKey) {
-        for (Requirement requirement : flattenedRequirements) {
-            if (requirement.getCardNumber().equalsIgnoreCase(issueKey)) {
-                List<Requirement> associatedRequirements = Lists.newArrayList(requirement);
-                associatedRequirements.addAll(getParentRequirementsOf(issueKey));
-                return ImmutableList.copyOf(associatedRequirements);
-            }
+        Optional<Requirement> requirement = requirementsIndex.getRequirementWithCardNumber(issueKey);
+        if (requirement.isPresent()) {
+            List<Requirement> associatedRequirements = Lists.newArrayList(requirement.get());
+            associatedRequirements.addAll(requirementsIndex.getAncestorsOf(issueKey));
+            return ImmutableList.copyOf(associatedRequirements);
         }
         return ImmutableList.of();
     }
 
-    private List<Requirement> getParentRequirementsOf(String issueKey) {
-        List<Requirement> parentRequirements = Lists.newArrayList();
-
-        Optional<Requirement> parentRequirement = getParentRequirementOf(issueKey);
-        if (parentRequirement.isPresent()) {
-            parentRequirements.add(parentRequirement.get());
-            parentRequirements.addAll(getParentRequirementsOf(parentRequirement.get().getCardNumber()));
+    private String decoded(String issueKey) {
+        List<String> candidateKeys = candidateKeys(issueKey, projectKeys);
+        if (candidateKeys.size() > 1) {
+            for (String candidateKey : candidateKeys) {
+                if (requirementsIndex.getRequirementWithCardNumber(candidateKey).isPresent()
+                        || isLoaded(candidateKey)) {
+                    return candidateKey;
+                }
+            }
         }
-
-        return parentRequirements;
+        return candidateKeys.get(0);
     }
 
-    private Optional<Requirement> getParentRequirementOf(String key) {
-        for (Requirement requirement : flattenedRequirements) {
-            if (containsRequirementWithId(key, requirement.getChildren())) {
-                return Optional.of(requirement);
-            }
-        }
-        return Optional.absent();
+    private boolean isLoaded(String issueKey) {
+        return loadedIssues.containsKey(issueKey) && loadedIssues.get(issueKey).isPresent();
     }
 
-    private boolean containsRequirementWithId(String key, List<Requirement> requirements) {
-        for (Requirement requirement : requirements) {
-            if (requirement.getCardNumber().equals(key)) {
-                return true;
-            }
-        }
-        return false;
+    static String decoded(String issueKey, String projectKey) {
+        return candidateKeys(issueKey, ImmutableList.of(projectKey)).get(0);
     }
 
-    private String decoded(String issueKey) {
+    /**
+     * The issue keys an issue reference might stand for: the key itself, or for a numeric reference,
+     * the issue with that number in each of the projects, in the order the projects are configured in.
+     */
+    static List<String> candidateKeys(String issueKey, List<String> projectKeys) {
         if (issueKey.startsWith("#")) {
             issueKey = issueKey.substring(1);
         }
-        if (StringUtils.isNumeric(issueKey)) {
-            issueKey = projectKey + "-" + issueKey;
+        if (!StringUtils.isNumeric(issueKey)) {
+            return ImmutableList.of(issueKey);
+        }
+        List<String> candidateKeys = Lists.newArrayList();
+        for (String projectKey : projectKeys) {
+            candidateKeys.add(projectKey + "-" + issueKey);
         }
-        return issueKey;
+        return candidateKeys;
     }
 
 }
\ No newline at end of file
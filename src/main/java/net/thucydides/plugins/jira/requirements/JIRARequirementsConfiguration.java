@@ -10,7 +10,183 @@ public enum JIRARequirementsConfiguration {
     JIRA_MAX_THREADS("jira.max.threads"),
 
     JIRA_ROOT_ISSUE_TYPE("jira.root.issue.type"),
-    JIRA_REQUIREMENT_LINKS("jira.requirement.links");
+    JIRA_REQUIREMENT_LINKS("jira.requirement.links"),
+
+    /**
+     * The maximum number of parent requirements whose children are loaded in a single JQL query.
+     */
+    JIRA_BATCH_SIZE("jira.batch.size"),
+
+    /**
+     * The maximum length of a batched JQL query.
+     */
+    JIRA_MAX_JQL_LENGTH("jira.max.jql.length"),
+
+    /**
+     * The maximum number of issues (and JQL query results) kept in the in-memory issue cache.
+     */
+    JIRA_ISSUE_CACHE_SIZE("jira.issue.cache.size"),
+
+    /**
+     * How long (in minutes) issues stay in the in-memory issue cache.
+     */
+    JIRA_ISSUE_CACHE_TTL("jira.issue.cache.ttl"),
+
+    /**
+     * If set, a JSON summary of the JIRA requests and requirement loads is written to this file
+     * after each load and when the JVM exits.
+     */
+    JIRA_METRICS_FILE("jira.metrics.file"),
+
+    /**
+     * The maximum number of requests per second sent to JIRA (0, for no limit, by default).
+     * Requests are paused whenever JIRA answers with a 429 (Too Many Requests), and a configured rate is reduced.
+     */
+    JIRA_REQUESTS_PER_SECOND("jira.requests.per.second"),
+
+    /**
+     * How many times a request that failed with a transient error (429, 5xx, timeout) is retried (3 by default).
+     */
+    JIRA_RETRY_ATTEMPTS("jira.retry.attempts"),
+
+    /**
+     * The delay in milliseconds (500 by default) before retrying a failed request, doubled for each further retry.
+     */
+    JIRA_RETRY_BACKOFF("jira.retry.backoff"),
+
+    /**
+     * After this many consecutive failed requests (5 by default), each counted once whatever its retries,
+     * JIRA is considered to be down, and no more requests are sent to it until the circuit breaker reset delay has passed.
+     */
+    JIRA_CIRCUIT_BREAKER_THRESHOLD("jira.circuit.breaker.threshold"),
+
+    /**
+     * How long, in seconds (10 by default), to wait for a connection to JIRA
+     * for the requests the provider sends itself rather than through the Jersey client.
+     */
+    JIRA_CONNECT_TIMEOUT("jira.connect.timeout"),
+
+    /**
+     * How long, in seconds (60 by default), to wait for JIRA to answer the requests the provider sends itself
+     * rather than through the Jersey client.
+     */
+    JIRA_READ_TIMEOUT("jira.read.timeout"),
+
+    /**
+     * How long, in seconds (30 by default), to wait after JIRA was considered to be down before sending it
+     * a single probe request. Requests flow again if JIRA answers it.
+     */
+    JIRA_CIRCUIT_BREAKER_RESET("jira.circuit.breaker.reset"),
+
+    /**
+     * How requirements are loaded: 'threads' (the default) uses a pool of jira.max.threads threads,
+     * 'virtual' runs each request on a virtual thread, with at most jira.max.concurrent.requests in flight.
+     * Before Java 21, 'virtual' uses a pool of jira.max.concurrent.requests threads instead.
+     */
+    JIRA_EXECUTION_MODE("jira.execution.mode"),
+
+    /**
+     * The maximum number of requests sent to JIRA at the same time in the 'virtual' execution mode (64 by default).
+     */
+    JIRA_MAX_CONCURRENT_REQUESTS("jira.max.concurrent.requests"),
+
+    /**
+     * Start loading the requirements from JIRA in the background as soon as the provider is created,
+     * rather than when they are first needed (false by default).
+     * Only the first provider created in a JVM for a given JIRA server, project and requirements structure
+     * prefetches: the providers that Thucydides creates afterwards share its load, rather than starting their own.
+     */
+    JIRA_PREFETCH("jira.requirements.prefetch"),
+
+    /**
+     * Only load the branches of the requirements tree that lead to the issues referenced by the tests
+     * when looking up test tags (false by default). getRequirementFor() only finds the requirements of the branches
+     * loaded so far, while getRequirements() still loads the whole tree.
+     */
+    JIRA_LAZY_LOADING("jira.requirements.lazy"),
+
+    /**
+     * Share the loaded requirements between all of the JVMs of a build (forked test processes, report generation),
+     * so that only the first one loads them from JIRA (false by default).
+     */
+    JIRA_SHARED_CACHE("jira.requirements.shared.cache"),
+
+    /**
+     * Where the shared requirements cache is stored (jira-requirements in the build directory by default).
+     * A relative directory is resolved against the build directory, given by the project.build.directory or basedir
+     * property; if neither is set, the cache is only shared when this directory is absolute.
+     */
+    JIRA_SHARED_CACHE_DIRECTORY("jira.requirements.shared.cache.dir"),
+
+    /**
+     * How long, in seconds, to wait for another process to load the shared requirements before loading them
+     * locally instead (300 by default).
+     */
+    JIRA_SHARED_CACHE_LOCK_TIMEOUT("jira.requirements.shared.cache.lock.timeout"),
+
+    /**
+     * How long, in minutes, requirements in the shared cache can be reused (60 by default).
+     */
+    JIRA_SHARED_CACHE_TTL("jira.requirements.shared.cache.ttl"),
+
+    /**
+     * Serve requirements and tags from this snapshot file, without calling JIRA at all.
+     */
+    JIRA_SNAPSHOT("jira.requirements.snapshot"),
+
+    /**
+     * Export the loaded requirements, and the issues used to tag test outcomes, to this snapshot file.
+     * The snapshot is written when the requirements have been loaded, and again when the provider is closed.
+     */
+    JIRA_SNAPSHOT_EXPORT("jira.requirements.snapshot.export"),
+
+    /**
+     * A comma-separated list of the JIRA projects to load requirements from, e.g. "SHOP,PAY".
+     * The root issue type and requirement links can be overridden for each project
+     * (e.g. jira.root.issue.type.PAY=capability). Defaults to the single project of the JIRA configuration.
+     */
+    JIRA_PROJECTS("jira.projects"),
+
+    /**
+     * Read version tags from a catalogue of the fix versions of the issues of each project, rather than from each
+     * referenced issue. A project is catalogued with two requests (its versions, then the issues that have a fix
+     * version), and again once the issue cache time-to-live has passed. Off by default.
+     */
+    JIRA_VERSION_CATALOGUE("jira.version.catalogue"),
+
+    /**
+     * Read the root requirements this many at a time, and start crawling below each page as soon as it arrives.
+     * When this is 0 (the default), all the root requirements are read before the crawl starts.
+     * If a page cannot be read, the load fails, or falls back on the cached requirements, if any.
+     */
+    JIRA_PAGE_SIZE("jira.page.size"),
+
+    /**
+     * If set, every JIRA request made while loading requirements and tagging test outcomes is recorded,
+     * and written to this file as a Chrome trace (viewable in chrome://tracing, Perfetto or speedscope)
+     * after each load and when the JVM exits.
+     */
+    JIRA_TRACE_FILE("jira.trace.file"),
+
+    /**
+     * How long (in minutes) a requirements tree cached on disk remains valid. Caching is disabled when this is 0.
+     */
+    JIRA_REQUIREMENTS_CACHE_TTL("jira.requirements.cache.ttl"),
+
+    /**
+     * The directory where cached requirements trees are stored.
+     */
+    JIRA_REQUIREMENTS_CACHE_DIRECTORY("jira.requirements.cache.dir"),
+
+    /**
+     * When an on-disk cached requirements tree expires, only load the issues updated since it was last synchronized.
+     */
+    JIRA_INCREMENTAL_SYNC("jira.requirements.incremental"),
+
+    /**
+     * How often (in hours) the requirements tree is reloaded in full, even with incremental synchronization.
+     */
+    JIRA_FULL_REFRESH_INTERVAL("jira.requirements.full.refresh.interval");
 
     private final String name;
 
@@ -1,22 +1,29 @@
 package net.thucydides.plugins.jira.requirements;
 
 import ch.lambdaj.function.convert.Converter;
+import com.google.common.base.Function;
+import com.google.common.base.Joiner;
 import com.google.common.base.Optional;
-import com.google.common.base.Splitter;
+import com.google.common.base.Strings;
+import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.ListeningExecutorService;
 import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import net.thucydides.core.guice.Injectors;
 import net.thucydides.core.model.TestOutcome;
 import net.thucydides.core.model.TestTag;
 import net.thucydides.core.requirements.RequirementsTagProvider;
 import net.thucydides.core.requirements.model.Requirement;
 import net.thucydides.core.util.EnvironmentVariables;
-import net.thucydides.plugins.jira.client.JerseyJiraClient;
 import net.thucydides.plugins.jira.domain.IssueSummary;
 import net.thucydides.plugins.jira.service.JIRAConfiguration;
 import net.thucydides.plugins.jira.service.SystemPropertiesJIRAConfiguration;
@@ -24,35 +31,77 @@ import org.apache.commons.lang3.StringUtils;
 import org.json.JSONException;
 import org.slf4j.LoggerFactory;
 
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
 import java.util.*;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.Executors;
-import java.util.concurrent.atomic.AtomicInteger;
-
-import static net.thucydides.plugins.jira.requirements.JIRARequirementsConfiguration.JIRA_CUSTOM_FIELD;
-import static net.thucydides.plugins.jira.requirements.JIRARequirementsConfiguration.JIRA_CUSTOM_NARRATIVE_FIELD;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static net.thucydides.plugins.jira.requirements.JIRARequirementsConfiguration.JIRA_BATCH_SIZE;
+import static net.thucydides.plugins.jira.requirements.JIRARequirementsConfiguration.JIRA_FULL_REFRESH_INTERVAL;
+import static net.thucydides.plugins.jira.requirements.JIRARequirementsConfiguration.JIRA_INCREMENTAL_SYNC;
+import static net.thucydides.plugins.jira.requirements.JIRARequirementsConfiguration.JIRA_ISSUE_CACHE_TTL;
+import static net.thucydides.plugins.jira.requirements.JIRARequirementsConfiguration.JIRA_MAX_JQL_LENGTH;
+import static net.thucydides.plugins.jira.requirements.JIRARequirementsConfiguration.JIRA_EXECUTION_MODE;
+import static net.thucydides.plugins.jira.requirements.JIRARequirementsConfiguration.JIRA_LAZY_LOADING;
+import static net.thucydides.plugins.jira.requirements.JIRARequirementsConfiguration.JIRA_MAX_CONCURRENT_REQUESTS;
 import static net.thucydides.plugins.jira.requirements.JIRARequirementsConfiguration.JIRA_MAX_THREADS;
+import static net.thucydides.plugins.jira.requirements.JIRARequirementsConfiguration.JIRA_METRICS_FILE;
+import static net.thucydides.plugins.jira.requirements.JIRARequirementsConfiguration.JIRA_PAGE_SIZE;
+import static net.thucydides.plugins.jira.requirements.JIRARequirementsConfiguration.JIRA_PREFETCH;
+import static net.thucydides.plugins.jira.requirements.JIRARequirementsConfiguration.JIRA_SNAPSHOT;
+import static net.thucydides.plugins.jira.requirements.JIRARequirementsConfiguration.JIRA_SNAPSHOT_EXPORT;
+import static net.thucydides.plugins.jira.requirements.JIRARequirementsConfiguration.JIRA_TRACE_FILE;
+import static net.thucydides.plugins.jira.requirements.JIRARequirementsConfiguration.JIRA_VERSION_CATALOGUE;
 
 
 /**
  * Integrate Thucydides reports with requirements, epics and stories in a JIRA server.
  */
-public class JIRARequirementsProvider implements RequirementsTagProvider {
+public class JIRARequirementsProvider implements RequirementsTagProvider, Closeable {
 
-    private List<Requirement> requirements = null;
-    private final JerseyJiraClient jiraClient;
+    private final AtomicReference<SettableFuture<RequirementsIndex>> requirements
+            = new AtomicReference<SettableFuture<RequirementsIndex>>();
+    private final ConfigurableJiraClient jiraClient;
+    private final String jiraUrl;
     private final String projectKey;
+    private final List<RequirementsProject> projects;
+    private final RequirementFieldMapping requirementFieldMapping;
     private final EnvironmentVariables environmentVariables;
-
-    private final String EPIC_LINK = "Epic Link";
+    private final RequirementsCache requirementsCache;
+    private final SharedRequirementsCache sharedRequirementsCache;
 
     private final org.slf4j.Logger logger = LoggerFactory.getLogger(JIRARequirementsProvider.class);
 
     private final  ListeningExecutorService executorService;
+    private final Optional<Runnable> reportWriter;
+    private final ExecutorService loaderExecutor = loaderExecutor();
+    private final ChildIssueLoader childIssueLoader;
+    private final LazyRequirementsTree lazyRequirementsTree;
+    private final Optional<SnapshotTagProvider> snapshot;
+    private final Optional<VersionCatalogue> versionCatalogue;
 
-    private final AtomicInteger queueSize = new AtomicInteger(0);
     static int DEFAULT_MAX_THREADS = 4;
+    static int DEFAULT_FULL_REFRESH_INTERVAL_IN_HOURS = 24;
+
+    /**
+     * Thucydides creates a new provider through a ServiceLoader wherever it needs one, so the requirements prefetched
+     * by the first provider created in a JVM for a given configuration are shared with the providers created after it.
+     */
+    private static final ConcurrentMap<String, SettableFuture<RequirementsIndex>> PREFETCHED_LOADS
+            = new ConcurrentHashMap<String, SettableFuture<RequirementsIndex>>();
+
+    private static final List<Requirement> NO_REQUIREMENTS = ImmutableList.of();
+    private static final RequirementsIndex NO_REQUIREMENTS_INDEX = new RequirementsIndex(NO_REQUIREMENTS);
 
     public JIRARequirementsProvider() {
         this(new SystemPropertiesJIRAConfiguration(Injectors.getInjector().getProvider(EnvironmentVariables.class).get() ),
@@ -66,46 +115,179 @@ public class JIRARequirementsProvider implements RequirementsTagProvider {
     private int getMaxJobs() {
         return environmentVariables.getPropertyAsInteger(JIRA_MAX_THREADS.getName(),DEFAULT_MAX_THREADS);
     }
+
+    private static Optional<SnapshotTagProvider> snapshotConfiguredIn(EnvironmentVariables environmentVariables) {
+        String snapshotPath = environmentVariables.getProperty(JIRA_SNAPSHOT.getName());
+        if (snapshotPath == null) {
+            return Optional.absent();
+        }
+        try {
+            return Optional.of(new SnapshotTagProvider(RequirementsSnapshot.readFrom(new File(snapshotPath))));
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Could not read the requirements snapshot " + snapshotPath, e);
+        } catch (JSONException e) {
+            throw new IllegalArgumentException("Invalid requirements snapshot " + snapshotPath, e);
+        }
+    }
+
+    /**
+     * Save the requirements tree, and the issues loaded so far, so that reports can later be produced
+     * from the snapshot (see jira.requirements.snapshot) without access to JIRA.
+     */
+    public void exportSnapshotTo(File snapshotFile) throws IOException, JSONException {
+        RequirementsSnapshot.of(getProjectKeys(), getRequirements(), jiraClient.getIssueCache().getAllCachedIssues())
+                            .writeTo(snapshotFile);
+    }
+
+    private void exportConfiguredSnapshot() {
+        String snapshotPath = environmentVariables.getProperty(JIRA_SNAPSHOT_EXPORT.getName());
+        if (snapshotPath == null || snapshot.isPresent()) {
+            return;
+        }
+        try {
+            exportSnapshotTo(new File(snapshotPath));
+        } catch (IOException e) {
+            logger.warn("Could not export the requirements snapshot to " + snapshotPath, e);
+        } catch (JSONException e) {
+            logger.warn("Could not export the requirements snapshot to " + snapshotPath, e);
+        }
+    }
+
+    private CrawlerExecutors.ExecutionMode getExecutionMode() {
+        return CrawlerExecutors.ExecutionMode.fromName(
+                environmentVariables.getProperty(JIRA_EXECUTION_MODE.getName(), CrawlerExecutors.ExecutionMode.THREADS.name()));
+    }
+
+    private int getConcurrency() {
+        if (getExecutionMode() == CrawlerExecutors.ExecutionMode.VIRTUAL) {
+            return environmentVariables.getPropertyAsInteger(JIRA_MAX_CONCURRENT_REQUESTS.getName(),
+                                                             CrawlerExecutors.DEFAULT_MAX_CONCURRENT_REQUESTS);
+        }
+        return getMaxJobs();
+    }
+
     public JIRARequirementsProvider(JIRAConfiguration jiraConfiguration, EnvironmentVariables environmentVariables) {
+        this(jiraConfiguration, environmentVariables, jiraClientFor(jiraConfiguration, environmentVariables));
+    }
+
+    /**
+     * A provider reading requirements through the given JIRA client, rather than one created from the configuration.
+     */
+    public JIRARequirementsProvider(JIRAConfiguration jiraConfiguration, EnvironmentVariables environmentVariables,
+                                    ConfigurableJiraClient jiraClient) {
         logConnectionDetailsFor(jiraConfiguration);
+        jiraUrl = StringUtils.removeEnd(Strings.nullToEmpty(jiraConfiguration.getJiraUrl()), "/");
         projectKey = jiraConfiguration.getProject();
         this.environmentVariables = environmentVariables;
-        jiraClient = new ConfigurableJiraClient(jiraConfiguration.getJiraUrl(),
-                jiraConfiguration.getJiraUser(),
-                jiraConfiguration.getJiraPassword(),
-                projectKey).usingCustomFields(customFieldsDefinedIn(environmentVariables));
-
-        executorService = MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(getMaxJobs()));
+        projects = RequirementsProject.configuredIn(environmentVariables, projectKey);
+        requirementFieldMapping = RequirementFieldMapping.configuredIn(environmentVariables);
+        this.jiraClient = jiraClient;
+
+        executorService = CrawlerExecutors.newExecutor(getExecutionMode(), getConcurrency(), jiraClient.getMetrics());
+        jiraClient.getMetrics().registerAsMBean(projectKey);
+        reportWriter = reportWriter();
+        childIssueLoader = new ChildIssueLoader(jiraClient,
+                environmentVariables.getPropertyAsInteger(JIRA_BATCH_SIZE.getName(), ChildIssueLoader.DEFAULT_BATCH_SIZE),
+                environmentVariables.getPropertyAsInteger(JIRA_MAX_JQL_LENGTH.getName(), ChildIssueLoader.DEFAULT_MAX_JQL_LENGTH));
+        requirementsCache = new RequirementsCache(environmentVariables, projectKey, cacheKeyElements());
+        sharedRequirementsCache = new SharedRequirementsCache(environmentVariables, projectKey, cacheKeyElements());
+        snapshot = snapshotConfiguredIn(environmentVariables);
+        versionCatalogue = versionCatalogueConfiguredIn(environmentVariables);
+        lazyRequirementsTree = new LazyRequirementsTree(jiraClient, childIssueLoader, projects, requirementConverter());
+        if (environmentVariables.getPropertyAsBoolean(JIRA_PREFETCH.getName(), false)) {
+            prefetchOrShare(projectKey + "|" + Joiner.on("|").join(cacheKeyElements()));
+        }
     }
 
-    private List<String> definedCustomFields() {
-        List<String> customFields = Lists.newArrayList();
-        int customFieldIndex = 1;
-        while (addCustomFieldIfDefined(environmentVariables, customFields, customFieldNumber(customFieldIndex++))) ;
-        return customFields;
+    /**
+     * The loader thread stops once it has been idle for a while, so that a provider that is never closed
+     * does not keep it once the requirements are loaded.
+     */
+    private static ExecutorService loaderExecutor() {
+        ThreadPoolExecutor loaderExecutor = new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactoryBuilder().setDaemon(true).setNameFormat("jira-requirements-loader-%d").build());
+        loaderExecutor.allowCoreThreadTimeOut(true);
+        return loaderExecutor;
+    }
+
+    /**
+     * Join the load prefetched by another provider for the same configuration, or else start one for the providers
+     * created after this one. A prefetched load that fails is forgotten, so that the next provider starts a new one.
+     */
+    private void prefetchOrShare(String configuration) {
+        if (!providerActivated() || snapshot.isPresent()) {
+            return;
+        }
+        while (true) {
+            SettableFuture<RequirementsIndex> prefetchedLoad = PREFETCHED_LOADS.get(configuration);
+            if (prefetchedLoad != null && !failed(prefetchedLoad)) {
+                requirements.set(prefetchedLoad);
+                return;
+            }
+            if (prefetchedLoad != null) {
+                PREFETCHED_LOADS.remove(configuration, prefetchedLoad);
+                continue;
+            }
+            SettableFuture<RequirementsIndex> requirementsLoad = SettableFuture.create();
+            if (PREFETCHED_LOADS.putIfAbsent(configuration, requirementsLoad) == null) {
+                requirements.set(requirementsLoad);
+                loaderExecutor.execute(loadInto(requirementsLoad));
+                return;
+            }
+        }
     }
 
-    private List<String> customFieldsDefinedIn(EnvironmentVariables environmentVariables) {
-        List<String> customFields = Lists.newArrayList();
-        addCustomFieldIfDefined(environmentVariables, customFields,
-                JIRARequirementsConfiguration.JIRA_CUSTOM_NARRATIVE_FIELD.getName());
-        customFields.addAll(definedCustomFields());
-        return customFields;
+    /**
+     * The JIRA server the requirements are read from, so that projects with the same key on different servers
+     * do not share a cache entry, and everything that affects the shape of the requirements tree.
+     */
+    private String[] cacheKeyElements() {
+        String customFields = Joiner.on(",").join(customFieldsToRead());
+        if (projects.size() == 1) {
+            return new String[] {jiraUrl, getRootIssueType(), Joiner.on(",").join(getRequirementsLinks()),
+                                 customFields};
+        }
+        return new String[] {jiraUrl, Joiner.on(";").join(projects), customFields};
     }
 
-    private String customFieldNumber(int customFieldIndex) {
-        return JIRA_CUSTOM_FIELD.getName() + "." + customFieldIndex;
+    private static ConfigurableJiraClient jiraClientFor(JIRAConfiguration jiraConfiguration,
+                                                        EnvironmentVariables environmentVariables) {
+        return new ConfigurableJiraClient(jiraConfiguration.getJiraUrl(),
+                jiraConfiguration.getJiraUser(),
+                jiraConfiguration.getJiraPassword(),
+                jiraConfiguration.getProject(),
+                customFieldsToRead(RequirementFieldMapping.configuredIn(environmentVariables),
+                                   RequirementsProject.configuredIn(environmentVariables, jiraConfiguration.getProject())),
+                environmentVariables);
+    }
+
+    private List<String> customFieldsToRead() {
+        return customFieldsToRead(requirementFieldMapping, projects);
+    }
+
+    /**
+     * The only custom fields the JIRA client needs to read: the narrative field, the configured custom fields,
+     * and the Epic Link field when the requirements tree follows it. Each field is only requested once.
+     */
+    private static List<String> customFieldsToRead(RequirementFieldMapping requirementFieldMapping,
+                                                   List<RequirementsProject> projects) {
+        List<String> customFields = Lists.newArrayList(requirementFieldMapping.getFieldsToRead());
+        for (RequirementsProject project : projects) {
+            if (project.getRequirementsLinks().contains(ChildIssueLoader.EPIC_LINK)) {
+                customFields.add(ChildIssueLoader.EPIC_LINK);
+            }
+        }
+        return ImmutableList.copyOf(Sets.newLinkedHashSet(customFields));
     }
 
-    private boolean addCustomFieldIfDefined(EnvironmentVariables environmentVariables,
-                                            List<String> customFields,
-                                            String customField) {
-        String customFieldName = environmentVariables.getProperty(customField);
-        if (StringUtils.isNotEmpty(customFieldName)) {
-            customFields.add(customFieldName);
-            return true;
+    private Optional<VersionCatalogue> versionCatalogueConfiguredIn(EnvironmentVariables environmentVariables) {
+        if (!environmentVariables.getPropertyAsBoolean(JIRA_VERSION_CATALOGUE.getName(), false)) {
+            return Optional.absent();
         }
-        return false;
+        int timeToLive = environmentVariables.getPropertyAsInteger(JIRA_ISSUE_CACHE_TTL.getName(),
+                                                                   IssueCache.DEFAULT_TTL_IN_MINUTES);
+        return Optional.of(new VersionCatalogue(jiraClient, getProjectKeys(), timeToLive, TimeUnit.MINUTES));
     }
 
     private void logConnectionDetailsFor(JIRAConfiguration jiraConfiguration) {
@@ -114,192 +296,497 @@ public class JIRARequirementsProvider implements RequirementsTagProvider {
         logger.debug("JIRA user: {0}", jiraConfiguration.getJiraUser());
     }
 
-    private String getProjectKey() {
-        return projectKey;
-    }
-
+    /**
+     * The requirements tree is loaded at most once: concurrent callers share the same in-flight load,
+     * and all of them see the same immutable result. A load that fails is forgotten before its callers are told,
+     * so the next call starts a new one.
+     */
     @Override
     public List<Requirement> getRequirements() {
-        requirements = persisted(requirements);
-        if ((requirements == null) && providerActivated()) {
-
-            List<IssueSummary> rootRequirementIssues;
-            logger.info("Loading root requirements: " + rootRequirementsJQL());
-            try {
-                rootRequirementIssues = jiraClient.findByJQL(rootRequirementsJQL());
-            } catch (JSONException e) {
-                logger.info("No root requirements found (JQL = " + rootRequirementsJQL(), e);
-                rootRequirementIssues = Lists.newArrayList();
+        return getRequirementsIndex().getRequirements();
+    }
+
+    /**
+     * The requirements tree, loaded in the background. Unlike {@link #getRequirements()}, this never blocks,
+     * so that loading requirements from JIRA can overlap with other work.
+     */
+    public ListenableFuture<List<Requirement>> getRequirementsAsync() {
+        return Futures.transform(requirementsIndexLoad(), new Function<RequirementsIndex, List<Requirement>>() {
+            @Override
+            public List<Requirement> apply(RequirementsIndex requirementsIndex) {
+                return requirementsIndex.getRequirements();
             }
-            logger.debug("Loading root requirements done: " + rootRequirementIssues.size());
+        }, MoreExecutors.sameThreadExecutor());
+    }
 
-            requirements = Collections.synchronizedList(new ArrayList<Requirement>());
+    /**
+     * Start loading the requirements in the background, if they are not already loaded or being loaded.
+     */
+    public void prefetch() {
+        requirementsIndexLoad();
+    }
 
-            for (final IssueSummary issueSummary : rootRequirementIssues) {
-                final ListenableFuture<IssueSummary> future = executorService.submit(new Callable<IssueSummary>() {
-                    @Override
-                    public IssueSummary call() throws Exception {
-                        return issueSummary;
-                    }
-                });
-                future.addListener(new Runnable() {
-                    @Override
-                    public void run() {
-                        try {
-                            queueSize.incrementAndGet();
-                            Requirement requirement = requirementFrom(future.get());
-                            List<Requirement> childRequirements = findChildrenFor(requirement, 0);
-                            requirements.add(requirement.withChildren(childRequirements));
-                        } catch (InterruptedException e) {
-                            e.printStackTrace();
-                        } catch (ExecutionException e) {
-                            e.printStackTrace();
-                        }
-                    }
-                }, MoreExecutors.sameThreadExecutor());
-                future.addListener(new Runnable() {
-                    @Override
-                    public void run() {
-                        queueSize.decrementAndGet();
-                    }
-                }, executorService);
+    private RequirementsIndex getRequirementsIndex() {
+        return waitFor(requirementsIndexLoad());
+    }
+
+    private ListenableFuture<RequirementsIndex> requirementsIndexLoad() {
+        if (!providerActivated()) {
+            return Futures.immediateFuture(NO_REQUIREMENTS_INDEX);
+        }
+        if (snapshot.isPresent()) {
+            return Futures.immediateFuture(snapshot.get().getRequirementsIndex());
+        }
+        while (true) {
+            SettableFuture<RequirementsIndex> currentLoad = requirements.get();
+            if (currentLoad != null && failed(currentLoad)) {
+                requirements.compareAndSet(currentLoad, null);
+                continue;
+            }
+            if (currentLoad != null) {
+                return currentLoad;
+            }
+            SettableFuture<RequirementsIndex> requirementsLoad = SettableFuture.create();
+            if (requirements.compareAndSet(null, requirementsLoad)) {
+                loaderExecutor.execute(loadInto(requirementsLoad));
+                return requirementsLoad;
+            }
+        }
+    }
 
+    private Runnable loadInto(final SettableFuture<RequirementsIndex> requirementsLoad) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                long traceStart = jiraClient.getTrace().now();
+                try {
+                    requirementsLoad.set(new RequirementsIndex(loadRequirements()));
+                    exportConfiguredSnapshot();
+                } catch (Throwable loadingError) {
+                    requirements.compareAndSet(requirementsLoad, null);
+                    requirementsLoad.setException(loadingError);
+                } finally {
+                    jiraClient.getTrace().recordSpan("load requirements", traceStart,
+                                                     ImmutableMap.of("projects", Joiner.on(",").join(getProjectKeys())));
+                    writeTrace();
+                }
             }
-            waitTillEmpty(queueSize);
-            requirements = addParentsTo(requirements);
-            persist(requirements);
+        };
+    }
 
+    /**
+     * A load shared with other providers fails for all of them, but only the provider that ran it forgets it
+     * before reporting the failure, so the others check for a failed load before using it again.
+     */
+    private static boolean failed(Future<RequirementsIndex> load) {
+        if (!load.isDone()) {
+            return false;
+        }
+        try {
+            load.get();
+            return false;
+        } catch (ExecutionException e) {
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
         }
-        return requirements;
     }
 
-    private List<Requirement> persisted(List<Requirement> requirements) {
-        if (requirements != null) {
-            return requirements;
+    private List<Requirement> loadRequirements() {
+        final long crawlStart = System.currentTimeMillis();
+        Optional<List<Requirement>> persistedRequirements = persisted();
+        if (persistedRequirements.isPresent()) {
+            return persistedRequirements.get();
         }
-        return null;
+        if (sharedRequirementsCache.isEnabled()) {
+            return sharedRequirementsCache.withExclusiveLock(new Callable<List<Requirement>>() {
+                @Override
+                public List<Requirement> call() {
+                    return loadThroughSharedCache(crawlStart);
+                }
+            }, new Callable<List<Requirement>>() {
+                @Override
+                public List<Requirement> call() {
+                    return loadFromJira(crawlStart);
+                }
+            });
+        }
+        return loadFromJira(crawlStart);
     }
 
-    private void persist(List<Requirement> requirements) {
+    /**
+     * Only the first of the processes sharing the cache loads the requirements from JIRA:
+     * the others wait for it to finish, and read what it stored.
+     */
+    private List<Requirement> loadThroughSharedCache(long crawlStart) {
+        Optional<List<Requirement>> sharedRequirements = sharedRequirementsCache.load();
+        if (sharedRequirements.isPresent()) {
+            return sharedRequirements.get();
+        }
+        int circuitBreaks = jiraClient.getCircuitBreaks();
+        int failedChildQueries = childIssueLoader.getFailedQueries();
+        List<Requirement> loadedRequirements = loadFromJira(crawlStart);
+        if (loadedCompletelySince(circuitBreaks, failedChildQueries)) {
+            sharedRequirementsCache.store(loadedRequirements);
+        }
+        return loadedRequirements;
+    }
+
+    private List<Requirement> loadFromJira(long crawlStart) {
+        Optional<List<Requirement>> synchronizedRequirements = synchronizedWithJira();
+        if (synchronizedRequirements.isPresent()) {
+            recordCrawl(crawlStart, synchronizedRequirements.get());
+            return synchronizedRequirements.get();
+        }
 
+        int circuitBreaks = jiraClient.getCircuitBreaks();
+        int failedChildQueries = childIssueLoader.getFailedQueries();
+        List<Requirement> loadedRequirements;
+        try {
+            loadedRequirements = requirementsTreesOfAllProjects();
+        } catch (JSONException pageError) {
+            return lastKnownRequirementsAfter(pageError);
+        }
+        recordCrawl(crawlStart, loadedRequirements);
+        if (!loadedCompletelySince(circuitBreaks, failedChildQueries)) {
+            return lastKnownRequirementsOr(loadedRequirements);
+        }
+        persist(loadedRequirements);
+        return loadedRequirements;
+    }
+
+    /**
+     * JIRA may have come back after a probe request, but the requests made while it was down are lost all the same.
+     */
+    private boolean jiraStayedAvailableSince(int circuitBreaks) {
+        return jiraClient.isJiraAvailable() && jiraClient.getCircuitBreaks() == circuitBreaks;
+    }
+
+    /**
+     * A child query that still failed after being retried leaves out the children of the parents it was about,
+     * even when JIRA stayed available.
+     */
+    private boolean loadedCompletelySince(int circuitBreaks, int failedChildQueries) {
+        return jiraStayedAvailableSince(circuitBreaks) && childIssueLoader.getFailedQueries() == failedChildQueries;
+    }
+
+    /**
+     * JIRA went down, or some child queries failed, during the load, so the requirements tree is probably missing
+     * whole subtrees: rather use the cached tree, however old it is, and never overwrite it with the incomplete one.
+     */
+    private List<Requirement> lastKnownRequirementsOr(List<Requirement> incompleteRequirements) {
+        Optional<RequirementsCache.CachedRequirements> cachedRequirements = requirementsCache.loadAnyAge();
+        if (cachedRequirements.isPresent()) {
+            logger.warn("Could not load all of the requirements from JIRA: using the requirements cached in "
+                        + requirementsCache.getCacheFile());
+            return cachedRequirements.get().getRequirements();
+        }
+        logger.warn("Could not load all of the requirements from JIRA: the requirements loaded may be incomplete");
+        return incompleteRequirements;
+    }
+
+    /**
+     * Some of the root requirements could not be read, so the tree would be missing whole subtrees:
+     * use the cached tree, however old it is, or else fail this load so that the next call tries again.
+     */
+    private List<Requirement> lastKnownRequirementsAfter(JSONException pageError) {
+        Optional<RequirementsCache.CachedRequirements> cachedRequirements = requirementsCache.loadAnyAge();
+        if (cachedRequirements.isPresent()) {
+            logger.warn("Could not read all of the root requirements: using the requirements cached in "
+                        + requirementsCache.getCacheFile(), pageError);
+            return cachedRequirements.get().getRequirements();
+        }
+        throw new IllegalStateException("Could not read all of the root requirements from JIRA", pageError);
     }
 
-    private boolean providerActivated() {
-        return environmentVariables.getPropertyAsBoolean("thucydides.providers.jira-requirements-provider", true);
+    private void recordCrawl(long crawlStart, List<Requirement> loadedRequirements) {
+        jiraClient.getMetrics().recordCrawl(System.currentTimeMillis() - crawlStart, loadedRequirements);
+        Optional<File> metricsFile = getMetricsFile();
+        if (metricsFile.isPresent()) {
+            jiraClient.getMetrics().writeSummaryTo(metricsFile.get());
+        }
     }
 
-    private List<Requirement> addParentsTo(List<Requirement> requirements) {
-        return addParentsTo(requirements, null);
+    private Optional<File> getMetricsFile() {
+        return Optional.fromNullable(environmentVariables.getProperty(JIRA_METRICS_FILE.getName())).transform(
+                new Function<String, File>() {
+                    @Override
+                    public File apply(String path) {
+                        return new File(path);
+                    }
+                });
     }
 
-    private final List<Requirement> NO_REQUIREMENTS = ImmutableList.of();
+    private Optional<File> getTraceFile() {
+        return Optional.fromNullable(environmentVariables.getProperty(JIRA_TRACE_FILE.getName())).transform(
+                new Function<String, File>() {
+                    @Override
+                    public File apply(String path) {
+                        return new File(path);
+                    }
+                });
+    }
 
-    private List<Requirement> addParentsTo(List<Requirement> requirements, String parent) {
-        List<Requirement> augmentedRequirements = Lists.newArrayList();
-        for(Requirement requirement : requirements) {
-            List<Requirement> children = requirement.hasChildren()
-                    ? addParentsTo(requirement.getChildren(),requirement.getName()) : NO_REQUIREMENTS;
-            augmentedRequirements.add(requirement.withParent(parent).withChildren(children));
+    private void writeTrace() {
+        Optional<File> traceFile = getTraceFile();
+        if (traceFile.isPresent()) {
+            jiraClient.getTrace().writeTo(traceFile.get());
         }
-        return augmentedRequirements;
     }
 
-    private Requirement requirementFrom(IssueSummary issue) {
-
-        Requirement baseRequirement = Requirement.named(issue.getSummary())
-                .withOptionalCardNumber(issue.getKey())
-                .withType(issue.getType())
-                .withNarrative(narativeTextFrom(issue))
-                .withReleaseVersions(issue.getFixVersions());
-
-        for (String fieldName : definedCustomFields()) {
-            if (issue.customField(fieldName).isPresent()) {
-                String value = issue.customField(fieldName).get().asString();
-                String renderedValue = issue.getRendered().customField(fieldName).get();
-                baseRequirement = baseRequirement.withCustomField(fieldName).setTo(value, renderedValue);
-            }
+    /**
+     * Writes the metrics summary and the crawl trace, if either is configured, when the provider is closed,
+     * or when the JVM exits if the provider is still in use then.
+     */
+    private Optional<Runnable> reportWriter() {
+        final Optional<File> metricsFile = getMetricsFile();
+        if (!metricsFile.isPresent() && !getTraceFile().isPresent()) {
+            return Optional.absent();
         }
-        return baseRequirement;
+        Runnable writer = new Runnable() {
+            @Override
+            public void run() {
+                if (metricsFile.isPresent()) {
+                    jiraClient.getMetrics().writeSummaryTo(metricsFile.get());
+                }
+                writeTrace();
+            }
+        };
+        ReportsAtExit.register(writer);
+        return Optional.of(writer);
     }
 
-    private String narativeTextFrom(IssueSummary issue) {
-        Optional<String> customFieldName = Optional.fromNullable(environmentVariables.getProperty(JIRA_CUSTOM_NARRATIVE_FIELD.getName()));
-        if (customFieldName.isPresent()) {
-            return customFieldNameFor(issue, customFieldName.get()).or(issue.getRendered().getDescription());
-        } else {
-            return issue.getRendered().getDescription();
+    /**
+     * Stop the threads used to load requirements from JIRA, and unregister the provider metrics.
+     * Requirements that have already been loaded remain available, but no more can be loaded.
+     */
+    @Override
+    public void close() {
+        if (requirements.get() != null && requirements.get().isDone()) {
+            exportConfiguredSnapshot();
+        }
+        loaderExecutor.shutdownNow();
+        executorService.shutdownNow();
+        jiraClient.getMetrics().unregisterMBean();
+        if (reportWriter.isPresent() && ReportsAtExit.unregister(reportWriter.get())) {
+            reportWriter.get().run();
         }
+    }
 
+    /**
+     * Metrics about the JIRA requests sent by this provider, also available through JMX.
+     */
+    public RequirementsProviderMetrics getMetrics() {
+        return jiraClient.getMetrics();
     }
 
-    private Optional<String> customFieldNameFor(IssueSummary issue, String customFieldName) {
-        if (issue.customField(customFieldName).isPresent()) {
-            return Optional.of(issue.customField(customFieldName).get().asString());
-        } else {
+    private Optional<List<Requirement>> persisted() {
+        return requirementsCache.load();
+    }
+
+    /**
+     * Update an expired cached requirements tree with the issues that have changed since it was last synchronized,
+     * provided incremental synchronization is enabled and the last full load is recent enough.
+     * If JIRA rejects any of the synchronization requests, the cached tree is used as it is, and the same changes
+     * are looked for again next time.
+     */
+    private Optional<List<Requirement>> synchronizedWithJira() {
+        if (!incrementalSyncEnabled()) {
+            return Optional.absent();
+        }
+        if (projects.size() > 1) {
+            logger.info("Incremental synchronization is only supported for a single project: reloading all requirements");
+            return Optional.absent();
+        }
+        Optional<RequirementsCache.CachedRequirements> previousRequirements = requirementsCache.loadAnyAge();
+        if (!previousRequirements.isPresent() || fullRefreshRequiredFor(previousRequirements.get())) {
             return Optional.absent();
         }
+        long synchronizationStart = System.currentTimeMillis();
+        int circuitBreaks = jiraClient.getCircuitBreaks();
+        int jiraErrors = jiraClient.getJiraErrors();
+        int failedChildQueries = childIssueLoader.getFailedQueries();
+        try {
+            List<Requirement> refreshedRequirements
+                    = new IncrementalRequirementsSync(jiraClient, childIssueLoader, projectKey, rootRequirementsJQL(),
+                                                      getRequirementsLinks(), requirementConverter())
+                            .refresh(previousRequirements.get().getRequirements(),
+                                     previousRequirements.get().getSyncedAt(), synchronizationStart);
+            if (jiraClient.getJiraErrors() != jiraErrors || childIssueLoader.getFailedQueries() != failedChildQueries) {
+                logger.warn("Could not synchronize requirements with JIRA: using the requirements cached in "
+                            + requirementsCache.getCacheFile());
+                return Optional.of(previousRequirements.get().getRequirements());
+            }
+            if (!jiraStayedAvailableSince(circuitBreaks)) {
+                return Optional.of(lastKnownRequirementsOr(refreshedRequirements));
+            }
+            requirementsCache.store(refreshedRequirements, synchronizationStart,
+                                    previousRequirements.get().getCrawledAt());
+            return Optional.of(refreshedRequirements);
+        } catch (JSONException e) {
+            logger.warn("Could not synchronize requirements with JIRA: reloading all requirements", e);
+            return Optional.absent();
+        }
+    }
+
+    private boolean incrementalSyncEnabled() {
+        return environmentVariables.getPropertyAsBoolean(JIRA_INCREMENTAL_SYNC.getName(), false);
     }
 
+    private boolean fullRefreshRequiredFor(RequirementsCache.CachedRequirements previousRequirements) {
+        long fullRefreshInterval = TimeUnit.HOURS.toMillis(
+                environmentVariables.getPropertyAsInteger(JIRA_FULL_REFRESH_INTERVAL.getName(),
+                                                          DEFAULT_FULL_REFRESH_INTERVAL_IN_HOURS));
+        return System.currentTimeMillis() - previousRequirements.getCrawledAt() > fullRefreshInterval;
+    }
+
+    private void persist(List<Requirement> requirements) {
+        requirementsCache.store(requirements);
+    }
+
+    private boolean providerActivated() {
+        return environmentVariables.getPropertyAsBoolean("thucydides.providers.jira-requirements-provider", true);
+    }
+
+    private Requirement requirementFrom(IssueSummary issue) {
+        return requirementFieldMapping.requirementFrom(issue);
+    }
+
+
+    /**
+     * Load the root requirements of every project, then crawl the trees of all of the projects at the same time,
+     * sharing the executor service (and therefore the limit on concurrent requests).
+     * The trees are merged in the order the projects are configured in.
+     *
+     * @throws JSONException if a page of root requirements could not be read
+     */
+    private List<Requirement> requirementsTreesOfAllProjects() throws JSONException {
+        List<ListenableFuture<List<Requirement>>> crawls = (getPageSize() > 0) ? pagedCrawlsOfAllProjects()
+                                                                               : crawlsOfAllProjects();
+        List<Requirement> requirements = Lists.newArrayList();
+        for (List<Requirement> projectRequirements : waitForCrawls(Futures.allAsList(crawls))) {
+            requirements.addAll(projectRequirements);
+        }
+        return requirements;
+    }
 
-    private List<Requirement> findChildrenFor(Requirement parent, final int level) {
-        List<IssueSummary> children = null;
+    private List<List<Requirement>> waitForCrawls(ListenableFuture<List<List<Requirement>>> crawls)
+            throws JSONException {
         try {
-            logger.info("Loading child requirements for: " + parent.getName());
-            children = jiraClient.findByJQL(childIssuesJQL(parent, level));
+            return crawls.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while loading requirements from JIRA", e);
+        } catch (ExecutionException e) {
+            Throwables.propagateIfPossible(e.getCause(), JSONException.class);
+            throw new IllegalStateException("Could not load requirements from JIRA", e.getCause());
+        }
+    }
 
-            logger.info("Loading child requirements for " + parent.getName() + " done: " + children.size());
-        } catch (JSONException e) {
-            logger.warn("No children found for requirement " + parent, e);
-            return NO_REQUIREMENTS;
+    private List<ListenableFuture<List<Requirement>>> crawlsOfAllProjects() {
+        List<ListenableFuture<List<IssueSummary>>> rootIssueLoads = Lists.newArrayList();
+        for (RequirementsProject project : projects) {
+            rootIssueLoads.add(executorService.submit(rootIssuesOf(project)));
         }
+        List<List<IssueSummary>> rootIssues = waitFor(Futures.allAsList(rootIssueLoads));
 
-        final List<Requirement> childRequirements = Collections.synchronizedList(new ArrayList<Requirement>());
-        for(IssueSummary childIssue : children) {
-            Requirement childRequirement = requirementFrom(childIssue);
-            if (moreRequirements(level)) {
-                List<Requirement> grandChildren = findChildrenFor(childRequirement, level + 1);
-                childRequirement = childRequirement.withChildren(grandChildren);
-            }
-            childRequirements.add(childRequirement);
+        List<ListenableFuture<List<Requirement>>> crawls = Lists.newArrayList();
+        for (int i = 0; i < projects.size(); i++) {
+            crawls.add(crawlerFor(projects.get(i)).crawl(rootIssues.get(i)));
         }
-        return childRequirements;
+        return crawls;
+    }
+
+    /**
+     * Read the root requirements of all of the projects a page at a time, the projects at the same time,
+     * and start crawling below each page as soon as it arrives, so that the crawl overlaps with the reading of the
+     * following pages. A project whose pages cannot all be read fails its crawl, rather than leaving out the
+     * requirements below the pages that were not read.
+     */
+    private List<ListenableFuture<List<Requirement>>> pagedCrawlsOfAllProjects() {
+        List<ListenableFuture<List<Requirement>>> crawls = Lists.newArrayList();
+        for (RequirementsProject project : projects) {
+            crawls.add(Futures.dereference(executorService.submit(pagedCrawlOf(project))));
+        }
+        return crawls;
     }
 
-    private void waitTillEmpty(AtomicInteger counter) {
-        while (counter.get() > 0) {
-            try {
-                Thread.sleep(50);
-            } catch (InterruptedException e) {
+    private Callable<ListenableFuture<List<Requirement>>> pagedCrawlOf(final RequirementsProject project) {
+        return new Callable<ListenableFuture<List<Requirement>>>() {
+            @Override
+            public ListenableFuture<List<Requirement>> call() throws JSONException {
+                String rootRequirementsJQL = project.getRootRequirementsJQL() + " order by key";
+                logger.info("Loading root requirements " + getPageSize() + " at a time: " + rootRequirementsJQL);
+                return crawlerFor(project).crawl(jiraClient.findPagesByJQL(rootRequirementsJQL, getPageSize()));
             }
-        }
+        };
     }
 
-    private String childIssuesJQL(Requirement parent, int level) {
-        String linkType = getRequirementsLinks().get(level);
-        if (linkType.equals(EPIC_LINK)) {
-            return "'" + getRequirementsLinks().get(level) + "' = " + parent.getCardNumber();
-        } else {
-            return "issue in linkedIssues(" + parent.getCardNumber() + ",\"" + linkType + "\")";
-        }
+    private RequirementsTreeCrawler crawlerFor(RequirementsProject project) {
+        return new RequirementsTreeCrawler(childIssueLoader, executorService, project.getRequirementsLinks(),
+                                           requirementConverter(), jiraClient.getTrace());
     }
 
-    private boolean moreRequirements(int level) {
-        return level < getRequirementsLinks().size() - 1;
+    private int getPageSize() {
+        return environmentVariables.getPropertyAsInteger(JIRA_PAGE_SIZE.getName(), 0);
+    }
+
+    private Callable<List<IssueSummary>> rootIssuesOf(final RequirementsProject project) {
+        return new Callable<List<IssueSummary>>() {
+            @Override
+            public List<IssueSummary> call() {
+                String rootRequirementsJQL = project.getRootRequirementsJQL();
+                logger.info("Loading root requirements: " + rootRequirementsJQL);
+                try {
+                    List<IssueSummary> rootRequirementIssues = jiraClient.findByJQL(rootRequirementsJQL);
+                    logger.debug("Loading root requirements done: " + rootRequirementIssues.size());
+                    return rootRequirementIssues;
+                } catch (JSONException e) {
+                    logger.info("No root requirements found (JQL = " + rootRequirementsJQL + ")", e);
+                    return Lists.newArrayList();
+                }
+            }
+        };
+    }
+
+    private Converter<IssueSummary, Requirement> requirementConverter() {
+        return new Converter<IssueSummary, Requirement>() {
+            @Override
+            public Requirement convert(IssueSummary issue) {
+                return requirementFrom(issue);
+            }
+        };
+    }
+
+    private <T> T waitFor(Future<T> result) {
+        try {
+            return result.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while loading requirements from JIRA", e);
+        } catch (ExecutionException e) {
+            Throwables.propagateIfPossible(e.getCause());
+            throw new IllegalStateException("Could not load requirements from JIRA", e.getCause());
+        }
     }
 
     //////////////////////////////////////
 
     private String rootRequirementsJQL() {
-        return "issuetype = " + getRootIssueType() + " and project=" + getProjectKey();
+        return projects.get(0).getRootRequirementsJQL();
     }
 
     private String getRootIssueType() {
-        return environmentVariables.getProperty(JIRARequirementsConfiguration.JIRA_ROOT_ISSUE_TYPE, "epic");
+        return projects.get(0).getRootIssueType();
     }
 
     @Override
     public Optional<Requirement> getParentRequirementOf(TestOutcome testOutcome) {
         logger.debug("Find parent requirement in JIRA for " + testOutcome.getTitle());
+        if (snapshot.isPresent()) {
+            return snapshot.get().getParentRequirementOf(testOutcome);
+        }
         List<String> issueKeys = testOutcome.getIssueKeys();
         if (!issueKeys.isEmpty() && providerActivated()) {
             try {
@@ -326,53 +813,121 @@ public class JIRARequirementsProvider implements RequirementsTagProvider {
         return e.getMessage().contains("error 400");
     }
 
+    /**
+     * When loading lazily, only the requirements of the branches loaded so far are found: every requirement tag
+     * comes from one of these branches, and other tags (such as version tags) would otherwise load the whole tree.
+     */
     @Override
     public Optional<Requirement> getRequirementFor(TestTag testTag) {
-        for (Requirement requirement : getFlattenedRequirements()) {
-            if (requirement.getType().equals(testTag.getType()) && requirement.getName().equals(testTag.getName())) {
-                return Optional.of(requirement);
-            }
+        if (lazyLoading() && !snapshot.isPresent()) {
+            return lazyRequirementsTree.getIndex().getRequirementWithTypeAndName(testTag.getType(), testTag.getName());
         }
-        return Optional.absent();
+        return getRequirementsIndex().getRequirementWithTypeAndName(testTag.getType(), testTag.getName());
+    }
+
+    private boolean lazyLoading() {
+        return environmentVariables.getPropertyAsBoolean(JIRA_LAZY_LOADING.getName(), false);
     }
 
     @Override
     public Set<TestTag> getTagsFor(TestOutcome testOutcome) {
-        List<String> issues = testOutcome.getIssueKeys();
-        Set<TestTag> tags = Sets.newHashSet();
-        for (String issue : issues) {
-            tags.addAll(tagsFromIssue(issue));
+        return getTagsFor(ImmutableList.of(testOutcome)).get(testOutcome);
+    }
+
+    /**
+     * Find the tags for a number of test outcomes at once.
+     * Each distinct issue referenced by the outcomes is loaded from JIRA only once, in batches,
+     * so the cost depends on the number of distinct issues rather than the number of outcomes.
+     */
+    public Map<TestOutcome, Set<TestTag>> getTagsFor(Collection<TestOutcome> testOutcomes) {
+        Map<TestOutcome, Set<TestTag>> tagsByOutcome = Maps.newLinkedHashMap();
+        if (!providerActivated()) {
+            for (TestOutcome testOutcome : testOutcomes) {
+                tagsByOutcome.put(testOutcome, ImmutableSet.<TestTag>of());
+            }
+            return tagsByOutcome;
+        }
+        if (snapshot.isPresent()) {
+            for (TestOutcome testOutcome : testOutcomes) {
+                tagsByOutcome.put(testOutcome, snapshot.get().getTagsFor(testOutcome));
+            }
+            return tagsByOutcome;
+        }
+
+        long traceStart = jiraClient.getTrace().now();
+        try {
+            return tagsFromJira(testOutcomes, tagsByOutcome);
+        } finally {
+            jiraClient.getTrace().recordSpan("tag test outcomes", traceStart,
+                                             ImmutableMap.of("outcomes", testOutcomes.size()));
         }
-        return ImmutableSet.copyOf(tags);
     }
 
-    private Collection<? extends TestTag> tagsFromIssue(String issueKey) {
-        if (providerActivated()) {
-            IssueTagReader tagReader = new IssueTagReader(jiraClient, getFlattenedRequirements(), projectKey);
-            return tagReader.addIssueTags(issueKey)
-                    .addRequirementTags(issueKey)
-                    .addVersionTags(issueKey).getTags();
-        } else {
-            return ImmutableList.of();
+    private Map<TestOutcome, Set<TestTag>> tagsFromJira(Collection<TestOutcome> testOutcomes,
+                                                        Map<TestOutcome, Set<TestTag>> tagsByOutcome) {
+        Map<String, Optional<IssueSummary>> issues = issuesReferencedBy(testOutcomes);
+        if (versionCatalogue.isPresent()) {
+            versionCatalogue.get().include(ImmutableList.copyOf(Optional.presentInstances(issues.values())));
         }
+        RequirementsIndex requirementsIndex = lazyLoading() ? lazyRequirementsTree.indexCovering(issues)
+                                                            : getRequirementsIndex();
+        Map<String, List<TestTag>> tagsByIssue = Maps.newHashMap();
+        for (TestOutcome testOutcome : testOutcomes) {
+            Set<TestTag> tags = Sets.newHashSet();
+            for (String issueKey : testOutcome.getIssueKeys()) {
+                if (!tagsByIssue.containsKey(issueKey)) {
+                    tagsByIssue.put(issueKey, tagsFromIssue(issueKey, requirementsIndex, issues));
+                }
+                tags.addAll(tagsByIssue.get(issueKey));
+            }
+            tagsByOutcome.put(testOutcome, ImmutableSet.copyOf(tags));
+        }
+        return tagsByOutcome;
     }
 
-    private List<Requirement> getFlattenedRequirements() {
-        return getFlattenedRequirements(getRequirements());
+    private Map<String, Optional<IssueSummary>> issuesReferencedBy(Collection<TestOutcome> testOutcomes) {
+        Set<String> issueKeys = Sets.newHashSet();
+        for (TestOutcome testOutcome : testOutcomes) {
+            for (String issueKey : testOutcome.getIssueKeys()) {
+                issueKeys.addAll(IssueTagReader.candidateKeys(issueKey, getProjectKeys()));
+            }
+        }
+        Map<String, IssueSummary> loadedIssues = jiraClient.findByKeys(issueKeys);
+        Map<String, Optional<IssueSummary>> issues = Maps.newHashMap();
+        for (String issueKey : issueKeys) {
+            issues.put(issueKey, Optional.fromNullable(loadedIssues.get(issueKey)));
+        }
+        return issues;
     }
 
-    private List<Requirement> getFlattenedRequirements(List<Requirement> someRequirements) {
-        List<Requirement> flattenedRequirements = Lists.newArrayList();
-        for (Requirement requirement : someRequirements) {
-            flattenedRequirements.add(requirement);
-            flattenedRequirements.addAll(getFlattenedRequirements(requirement.getChildren()));
+    private List<TestTag> tagsFromIssue(String issueKey,
+                                        RequirementsIndex requirementsIndex,
+                                        Map<String, Optional<IssueSummary>> issues) {
+        IssueTagReader tagReader = new IssueTagReader(jiraClient, requirementsIndex, getProjectKeys(), issues);
+        if (versionCatalogue.isPresent()) {
+            tagReader.usingVersionCatalogue(versionCatalogue.get());
         }
-        return flattenedRequirements;
+        return tagReader.addIssueTags(issueKey)
+                .addRequirementTags(issueKey)
+                .addVersionTags(issueKey).getTags();
     }
 
+    /**
+     * The links followed through the requirements tree of the first (and usually only) project.
+     */
     public List<String> getRequirementsLinks() {
-        String requirementLinks = environmentVariables.getProperty(JIRARequirementsConfiguration.JIRA_REQUIREMENT_LINKS.getName(),
-                                                                   "Epic Link");
-        return Splitter.on(",").trimResults().omitEmptyStrings().splitToList(requirementLinks);
+        return projects.get(0).getRequirementsLinks();
+    }
+
+    public List<RequirementsProject> getProjects() {
+        return projects;
+    }
+
+    private List<String> getProjectKeys() {
+        List<String> projectKeys = Lists.newArrayList();
+        for (RequirementsProject project : projects) {
+            projectKeys.add(project.getKey());
+        }
+        return projectKeys;
     }
 }
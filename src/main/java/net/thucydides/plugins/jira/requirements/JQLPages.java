@@ -0,0 +1,65 @@
+package net.thucydides.plugins.jira.requirements;
+
+import com.google.common.collect.ImmutableList;
+import net.thucydides.plugins.jira.domain.IssueSummary;
+import org.json.JSONException;
+
+import java.util.List;
+
+/**
+ * The results of a JQL query, read one page at a time.
+ * Each page is a single search request for the fields that requirements are built from, and the issues it returns
+ * are added to the issue cache, so they are not loaded again by key.
+ * A page can be processed while the next one is being read, and no more than one page of search results
+ * is held at a time.
+ */
+public class JQLPages {
+
+    private final ConfigurableJiraClient jiraClient;
+    private final String query;
+    private final int pageSize;
+
+    private int startAt = 0;
+    private int total = -1;
+
+    JQLPages(ConfigurableJiraClient jiraClient, String query, int pageSize) {
+        this.jiraClient = jiraClient;
+        this.query = query;
+        this.pageSize = Math.max(1, pageSize);
+    }
+
+    public boolean hasNext() {
+        return total < 0 || startAt < total;
+    }
+
+    /**
+     * The issues of the next page, in the order the query returns them.
+     */
+    public List<IssueSummary> next() throws JSONException {
+        IssuePage page = jiraClient.searchPage(query, startAt, pageSize);
+        total = page.getIssues().isEmpty() ? startAt : page.getTotal();
+        startAt += page.getIssues().size();
+        return page.getIssues();
+    }
+
+    /**
+     * The issues on one page of search results, along with the total number of results.
+     */
+    static class IssuePage {
+        private final List<IssueSummary> issues;
+        private final int total;
+
+        IssuePage(List<IssueSummary> issues, int total) {
+            this.issues = ImmutableList.copyOf(issues);
+            this.total = total;
+        }
+
+        List<IssueSummary> getIssues() {
+            return issues;
+        }
+
+        int getTotal() {
+            return total;
+        }
+    }
+}
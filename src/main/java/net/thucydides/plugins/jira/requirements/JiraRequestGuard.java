@@ -0,0 +1,291 @@
+package net.thucydides.plugins.jira.requirements;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.RateLimiter;
+import net.thucydides.plugins.jira.client.JIRAAuthenticationError;
+import net.thucydides.plugins.jira.client.JIRAConfigurationError;
+import org.json.JSONException;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Protects JIRA, and the build, from each other.
+ * Requests are not throttled unless a maximum rate is configured; once JIRA answers with a 429 (Too Many Requests),
+ * they are paused for the time JIRA asks for, and a configured rate is halved and then recovered gradually.
+ * Transient failures (429, 5xx responses, timeouts and connection errors) are retried with a jittered exponential
+ * backoff. When too many consecutive calls have failed even after their retries, JIRA is considered to be down,
+ * and the following requests fail immediately with a {@link JiraUnavailableException}. Once the circuit breaker
+ * reset delay has passed, a single request is let through as a probe: if JIRA answers it, requests flow again,
+ * and if not, the circuit stays open for another reset delay.
+ */
+public class JiraRequestGuard {
+
+    public static final double DEFAULT_REQUESTS_PER_SECOND = 0;
+    public static final int DEFAULT_RETRY_ATTEMPTS = 3;
+    public static final long DEFAULT_RETRY_BACKOFF_IN_MILLIS = 500;
+    public static final int DEFAULT_CIRCUIT_BREAKER_THRESHOLD = 5;
+    public static final long DEFAULT_CIRCUIT_BREAKER_RESET_IN_MILLIS = 30000;
+
+    private static final double MINIMUM_REQUESTS_PER_SECOND = 0.5;
+    private static final double RATE_RECOVERY_FACTOR = 1.25;
+    private static final int SUCCESSES_BEFORE_RATE_RECOVERY = 20;
+    private static final long MAXIMUM_BACKOFF_IN_MILLIS = 30000;
+
+    private static final Pattern HTTP_ERROR = Pattern.compile("error (\\d{3})");
+    private static final Pattern RETRY_AFTER = Pattern.compile("Retry-After:?\\s*(\\d+)", Pattern.CASE_INSENSITIVE);
+
+    private final org.slf4j.Logger logger = LoggerFactory.getLogger(JiraRequestGuard.class);
+
+    private final Optional<RateLimiter> rateLimiter;
+    private final double maximumRequestsPerSecond;
+    private final int retryAttempts;
+    private final long retryBackoffInMillis;
+    private final int circuitBreakerThreshold;
+    private final long circuitBreakerResetInMillis;
+    private final RequirementsProviderMetrics metrics;
+    private final Random random = new Random();
+
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+    private final AtomicInteger successesSinceThrottled = new AtomicInteger();
+    private final AtomicInteger circuitBreaks = new AtomicInteger();
+    private final AtomicBoolean circuitOpen = new AtomicBoolean();
+    private final AtomicBoolean probeInFlight = new AtomicBoolean();
+    private volatile long pausedUntil;
+    private volatile long circuitOpenedAt;
+
+    /**
+     * @param requestsPerSecond       the highest request rate; zero or less means requests are not throttled
+     * @param retryAttempts           how many times a transiently failing request is retried
+     * @param retryBackoffInMillis    the delay before the first retry, doubled for each of the following ones
+     * @param circuitBreakerThreshold how many consecutive failed calls mean that JIRA is down
+     */
+    public JiraRequestGuard(double requestsPerSecond, int retryAttempts, long retryBackoffInMillis,
+                            int circuitBreakerThreshold, RequirementsProviderMetrics metrics) {
+        this(requestsPerSecond, retryAttempts, retryBackoffInMillis, circuitBreakerThreshold,
+             DEFAULT_CIRCUIT_BREAKER_RESET_IN_MILLIS, metrics);
+    }
+
+    /**
+     * @param circuitBreakerResetInMillis how long to wait after JIRA went down before probing it with a request
+     */
+    public JiraRequestGuard(double requestsPerSecond, int retryAttempts, long retryBackoffInMillis,
+                            int circuitBreakerThreshold, long circuitBreakerResetInMillis,
+                            RequirementsProviderMetrics metrics) {
+        this.rateLimiter = (requestsPerSecond > 0) ? Optional.of(RateLimiter.create(requestsPerSecond))
+                                                   : Optional.<RateLimiter>absent();
+        this.maximumRequestsPerSecond = requestsPerSecond;
+        this.retryAttempts = Math.max(0, retryAttempts);
+        this.retryBackoffInMillis = Math.max(0, retryBackoffInMillis);
+        this.circuitBreakerThreshold = Math.max(1, circuitBreakerThreshold);
+        this.circuitBreakerResetInMillis = Math.max(0, circuitBreakerResetInMillis);
+        this.metrics = metrics;
+    }
+
+    /**
+     * Send a request, retrying it if it fails with a transient error.
+     * A call only counts as a failure for the circuit breaker once all of its retries have failed,
+     * and a probe sent while the circuit is open is not retried at all.
+     */
+    public <T> T call(Callable<T> request) throws JSONException {
+        boolean probe = checkCircuit();
+        int attempt = 0;
+        while (true) {
+            waitForPermit();
+            try {
+                T result = request.call();
+                recordAnswer(probe);
+                recoverRate();
+                return result;
+            } catch (Exception failure) {
+                if (!isTransient(failure)) {
+                    recordAnswer(probe);
+                    throw rethrown(failure);
+                }
+                long retryDelay = backoffFor(attempt, failure);
+                if (isThrottled(failure)) {
+                    slowDown(retryDelay);
+                }
+                if (probe || attempt >= retryAttempts || (circuitOpen.get() && !isThrottled(failure))) {
+                    if (isThrottled(failure)) {
+                        recordAnswer(probe);
+                    } else {
+                        recordFailure(probe);
+                    }
+                    throw rethrown(failure);
+                }
+                attempt++;
+                metrics.recordRetry();
+                logger.debug("JIRA request failed (" + failure.getMessage() + "): retrying in " + retryDelay + " ms");
+                sleep(retryDelay);
+            }
+        }
+    }
+
+    /**
+     * False from the time enough consecutive calls have failed for JIRA to be considered down,
+     * until a probe request gets an answer from it again.
+     */
+    public boolean isJiraAvailable() {
+        return !circuitOpen.get();
+    }
+
+    /**
+     * How many times JIRA has been considered to be down, so that callers can tell whether it went down
+     * during a load even if it has come back since.
+     */
+    public int getCircuitBreaks() {
+        return circuitBreaks.get();
+    }
+
+    public double getRequestsPerSecond() {
+        return rateLimiter.isPresent() ? rateLimiter.get().getRate() : 0;
+    }
+
+    /**
+     * @return true if this request is the probe that decides whether the open circuit can be closed again
+     */
+    private boolean checkCircuit() throws JiraUnavailableException {
+        if (!circuitOpen.get()) {
+            return false;
+        }
+        if (System.currentTimeMillis() - circuitOpenedAt >= circuitBreakerResetInMillis
+                && probeInFlight.compareAndSet(false, true)) {
+            logger.info("Checking whether JIRA is available again");
+            return true;
+        }
+        throw new JiraUnavailableException("JIRA is unavailable: " + circuitBreakerThreshold
+                                           + " consecutive requests have failed");
+    }
+
+    private void waitForPermit() throws JSONException {
+        long pause = pausedUntil - System.currentTimeMillis();
+        if (pause > 0) {
+            sleep(pause);
+        }
+        if (rateLimiter.isPresent()) {
+            rateLimiter.get().acquire();
+        }
+    }
+
+    /**
+     * JIRA answered, even if it was to reject the request, so it is up.
+     */
+    private void recordAnswer(boolean probe) {
+        consecutiveFailures.set(0);
+        if (probe) {
+            circuitOpen.set(false);
+            probeInFlight.set(false);
+            metrics.recordCircuitClosed();
+            logger.info("JIRA is available again");
+        }
+    }
+
+    private void recoverRate() {
+        if (rateLimiter.isPresent() && successesSinceThrottled.incrementAndGet() % SUCCESSES_BEFORE_RATE_RECOVERY == 0) {
+            RateLimiter limiter = rateLimiter.get();
+            if (limiter.getRate() < maximumRequestsPerSecond) {
+                limiter.setRate(Math.min(maximumRequestsPerSecond, limiter.getRate() * RATE_RECOVERY_FACTOR));
+            }
+        }
+    }
+
+    private void recordFailure(boolean probe) {
+        if (probe) {
+            circuitOpenedAt = System.currentTimeMillis();
+            probeInFlight.set(false);
+            logger.warn("JIRA is still unavailable: checking again in " + circuitBreakerResetInMillis + " ms");
+        } else if (consecutiveFailures.incrementAndGet() >= circuitBreakerThreshold
+                   && circuitOpen.compareAndSet(false, true)) {
+            circuitOpenedAt = System.currentTimeMillis();
+            circuitBreaks.incrementAndGet();
+            metrics.recordCircuitOpened();
+            logger.error("JIRA appears to be down after " + circuitBreakerThreshold
+                         + " consecutive failed requests: no more requests will be sent to it for "
+                         + circuitBreakerResetInMillis + " ms");
+        }
+    }
+
+    private void slowDown(long pauseInMillis) {
+        metrics.recordThrottled();
+        successesSinceThrottled.set(0);
+        pausedUntil = Math.max(pausedUntil, System.currentTimeMillis() + pauseInMillis);
+        if (rateLimiter.isPresent()) {
+            RateLimiter limiter = rateLimiter.get();
+            limiter.setRate(Math.max(MINIMUM_REQUESTS_PER_SECOND, limiter.getRate() / 2));
+            logger.info("JIRA is throttling requests: slowing down to " + limiter.getRate() + " requests per second");
+        }
+    }
+
+    private long backoffFor(int attempt, Exception failure) {
+        Optional<Long> retryAfter = retryAfterIn(failure);
+        if (retryAfter.isPresent()) {
+            return retryAfter.get();
+        }
+        long backoff = Math.min(MAXIMUM_BACKOFF_IN_MILLIS, retryBackoffInMillis << Math.min(attempt, 16));
+        return backoff / 2 + (long) (random.nextDouble() * (backoff / 2 + 1));
+    }
+
+    private Optional<Long> retryAfterIn(Exception failure) {
+        if (failure.getMessage() != null) {
+            Matcher retryAfter = RETRY_AFTER.matcher(failure.getMessage());
+            if (retryAfter.find()) {
+                return Optional.of(Math.min(MAXIMUM_BACKOFF_IN_MILLIS, Long.parseLong(retryAfter.group(1)) * 1000));
+            }
+        }
+        return Optional.absent();
+    }
+
+    static boolean isTransient(Exception failure) {
+        if (failure instanceof JIRAAuthenticationError || failure instanceof JIRAConfigurationError
+                || failure instanceof JiraUnavailableException) {
+            return false;
+        }
+        Optional<Integer> status = httpStatusOf(failure);
+        if (status.isPresent()) {
+            return status.get() == 429 || status.get() >= 500;
+        }
+        for (Throwable cause : Throwables.getCausalChain(failure)) {
+            if (cause instanceof IOException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    static boolean isThrottled(Exception failure) {
+        Optional<Integer> status = httpStatusOf(failure);
+        return status.isPresent() && status.get() == 429;
+    }
+
+    private static Optional<Integer> httpStatusOf(Exception failure) {
+        if (failure instanceof JSONException && failure.getMessage() != null) {
+            Matcher httpError = HTTP_ERROR.matcher(failure.getMessage());
+            if (httpError.find()) {
+                return Optional.of(Integer.parseInt(httpError.group(1)));
+            }
+        }
+        return Optional.absent();
+    }
+
+    private void sleep(long millis) throws JSONException {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new JSONException("Interrupted while waiting to call JIRA");
+        }
+    }
+
+    private JSONException rethrown(Exception failure) throws JSONException {
+        Throwables.propagateIfInstanceOf(failure, JSONException.class);
+        throw Throwables.propagate(failure);
+    }
+}
@@ -0,0 +1,100 @@
+package net.thucydides.plugins.jira.requirements;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.BaseEncoding;
+import com.google.common.io.CharStreams;
+import net.thucydides.plugins.jira.client.JIRAAuthenticationError;
+import net.thucydides.plugins.jira.client.JIRAConfigurationError;
+import org.apache.commons.lang3.StringUtils;
+import org.json.JSONException;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.util.Map;
+
+/**
+ * A plain HTTP connection to the JIRA REST API, for the requests that the Jersey client cannot tailor to the provider,
+ * such as searches that only return the fields the requirements are built from.
+ * Requests that take longer than the connect or read timeout fail with an IOException, which the
+ * {@link JiraRequestGuard} retries like any other transient failure.
+ * Like the default Jersey connector, the connection is opened by HttpURLConnection, so it goes through the proxy
+ * (http.proxyHost, https.proxyHost, http.nonProxyHosts) and trusts the certificates (javax.net.ssl.trustStore)
+ * configured for the JVM. Proxy or SSL settings configured on a Jersey client instance do not apply to it.
+ */
+public class JiraRestConnection {
+
+    public static final int DEFAULT_CONNECT_TIMEOUT_IN_SECONDS = 10;
+    public static final int DEFAULT_READ_TIMEOUT_IN_SECONDS = 60;
+
+    private final String url;
+    private final String authorization;
+    private final int connectTimeoutInMillis;
+    private final int readTimeoutInMillis;
+
+    public JiraRestConnection(String url, String username, String password,
+                              int connectTimeoutInMillis, int readTimeoutInMillis) {
+        this.url = StringUtils.removeEnd(url, "/");
+        this.authorization = "Basic " + BaseEncoding.base64().encode((username + ":" + password).getBytes(Charsets.UTF_8));
+        this.connectTimeoutInMillis = connectTimeoutInMillis;
+        this.readTimeoutInMillis = readTimeoutInMillis;
+    }
+
+    /**
+     * @param path       a path below the JIRA URL, such as /rest/api/2/search
+     * @param parameters the query parameters, in the order they should be sent
+     * @return the body of the response
+     * @throws JSONException if JIRA answers with an error, whose status is given in the message ("error 503")
+     * @throws JIRAAuthenticationError if JIRA does not accept the credentials (401)
+     * @throws JIRAConfigurationError if the user may not use the API (403), or there is no JIRA at the URL (404)
+     */
+    public String get(String path, Map<String, String> parameters) throws IOException, JSONException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url + path + queryStringOf(parameters))
+                                                                   .openConnection();
+        try {
+            connection.setConnectTimeout(connectTimeoutInMillis);
+            connection.setReadTimeout(readTimeoutInMillis);
+            connection.setRequestProperty("Accept", "application/json");
+            connection.setRequestProperty("Authorization", authorization);
+            int status = connection.getResponseCode();
+            if (status == HttpURLConnection.HTTP_UNAUTHORIZED) {
+                throw new JIRAAuthenticationError("Authentication error (401) for JIRA request " + path);
+            }
+            if (status == HttpURLConnection.HTTP_FORBIDDEN || status == HttpURLConnection.HTTP_NOT_FOUND) {
+                throw new JIRAConfigurationError("JIRA request " + path + " failed with error " + status
+                                                 + ": check the JIRA URL and the permissions of the JIRA user");
+            }
+            if (status >= 400) {
+                throw new JSONException("JIRA request " + path + " failed with error " + status
+                                        + retryAfterIn(connection));
+            }
+            Reader response = new InputStreamReader(connection.getInputStream(), Charsets.UTF_8);
+            try {
+                return CharStreams.toString(response);
+            } finally {
+                response.close();
+            }
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    private String retryAfterIn(HttpURLConnection connection) {
+        String retryAfter = connection.getHeaderField("Retry-After");
+        return (retryAfter == null) ? "" : " (Retry-After: " + retryAfter + ")";
+    }
+
+    private String queryStringOf(Map<String, String> parameters) throws IOException {
+        StringBuilder queryString = new StringBuilder();
+        for (Map.Entry<String, String> parameter : parameters.entrySet()) {
+            queryString.append(queryString.length() == 0 ? "?" : "&")
+                       .append(parameter.getKey())
+                       .append("=")
+                       .append(URLEncoder.encode(parameter.getValue(), "UTF-8"));
+        }
+        return queryString.toString();
+    }
+}
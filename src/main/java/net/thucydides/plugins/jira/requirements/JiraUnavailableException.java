@@ -0,0 +1,13 @@
+package net.thucydides.plugins.jira.requirements;
+
+import org.json.JSONException;
+
+/**
+ * Thrown instead of calling JIRA once too many consecutive requests have failed:
+ * JIRA is considered to be down for the rest of the run.
+ */
+public class JiraUnavailableException extends JSONException {
+    public JiraUnavailableException(String message) {
+        super(message);
+    }
+}
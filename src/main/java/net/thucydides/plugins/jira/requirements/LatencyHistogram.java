@@ -0,0 +1,69 @@
+package net.thucydides.plugins.jira.requirements;
+
+import com.google.common.collect.Maps;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free latency histogram with power-of-two millisecond buckets (1ms, 2ms, 4ms ... 32s and over).
+ */
+class LatencyHistogram {
+
+    private static final int BUCKETS = 17;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong totalMillis = new AtomicLong();
+    private final AtomicLong maxMillis = new AtomicLong();
+
+    void record(long millis) {
+        buckets.incrementAndGet(bucketFor(millis));
+        count.incrementAndGet();
+        totalMillis.addAndGet(millis);
+        long currentMax = maxMillis.get();
+        while (millis > currentMax && !maxMillis.compareAndSet(currentMax, millis)) {
+            currentMax = maxMillis.get();
+        }
+    }
+
+    private int bucketFor(long millis) {
+        int bucket = 0;
+        while (bucket < BUCKETS - 1 && millis > (1L << bucket)) {
+            bucket++;
+        }
+        return bucket;
+    }
+
+    long getCount() {
+        return count.get();
+    }
+
+    double getMeanMillis() {
+        long requests = count.get();
+        return (requests == 0) ? 0.0 : (double) totalMillis.get() / requests;
+    }
+
+    long getMaxMillis() {
+        return maxMillis.get();
+    }
+
+    /**
+     * The number of requests in each non-empty bucket, keyed on the bucket's upper bound ("<=8ms", or ">32768ms").
+     */
+    Map<String, Long> getBuckets() {
+        Map<String, Long> histogram = Maps.newLinkedHashMap();
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            long requests = buckets.get(bucket);
+            if (requests > 0) {
+                histogram.put(bucketLabel(bucket), requests);
+            }
+        }
+        return histogram;
+    }
+
+    private String bucketLabel(int bucket) {
+        return (bucket == BUCKETS - 1) ? ">" + (1L << (bucket - 1)) + "ms" : "<=" + (1L << bucket) + "ms";
+    }
+}
@@ -0,0 +1,306 @@
+package net.thucydides.plugins.jira.requirements;
+
+import ch.lambdaj.function.convert.Converter;
+import com.google.common.base.Optional;
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.LinkedHashMultimap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.SetMultimap;
+import com.google.common.collect.Sets;
+import net.thucydides.core.requirements.model.Requirement;
+import net.thucydides.plugins.jira.domain.CustomFieldCast;
+import net.thucydides.plugins.jira.domain.IssueSummary;
+import org.json.JSONException;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+/**
+ * The part of the requirements tree that leads to the issues the tests actually reference.
+ * Rather than crawling down from every root requirement, each referenced issue is resolved upwards:
+ * its possible parents (its epic, or the issues it is linked to) are looked up, and a parent is only
+ * accepted if the issue is one of its children at that level of the tree.
+ * The children of each parent are loaded at most once, and each issue is resolved at most once.
+ * When several projects are configured, an issue is resolved against the tree of each project in turn.
+ * Issues and parents are resolved through memoised futures, without holding a lock, so that threads tagging different
+ * test outcomes query JIRA at the same time, and a thread that needs an issue another thread is resolving waits
+ * for that one result only.
+ */
+public class LazyRequirementsTree {
+
+    private final org.slf4j.Logger logger = LoggerFactory.getLogger(LazyRequirementsTree.class);
+
+    private final ConfigurableJiraClient jiraClient;
+    private final ChildIssueLoader childIssueLoader;
+    private final List<RequirementsProject> projects;
+    private final Converter<IssueSummary, Requirement> requirementConverter;
+
+    private final ConcurrentMap<String, Future<List<IssueSummary>>> childrenByParentAndLink
+            = new ConcurrentHashMap<String, Future<List<IssueSummary>>>();
+    private final ConcurrentMap<String, Future<Optional<List<IssueSummary>>>> pathsByIssueKey
+            = new ConcurrentHashMap<String, Future<Optional<List<IssueSummary>>>>();
+    private volatile IndexedPaths indexedPaths
+            = new IndexedPaths(new RequirementsIndex(ImmutableList.<Requirement>of()), ImmutableSet.<String>of());
+
+    public LazyRequirementsTree(ConfigurableJiraClient jiraClient,
+                                ChildIssueLoader childIssueLoader,
+                                String projectKey,
+                                String rootIssueType,
+                                List<String> requirementsLinks,
+                                Converter<IssueSummary, Requirement> requirementConverter) {
+        this(jiraClient, childIssueLoader,
+             ImmutableList.of(new RequirementsProject(projectKey, rootIssueType, requirementsLinks)),
+             requirementConverter);
+    }
+
+    public LazyRequirementsTree(ConfigurableJiraClient jiraClient,
+                                ChildIssueLoader childIssueLoader,
+                                List<RequirementsProject> projects,
+                                Converter<IssueSummary, Requirement> requirementConverter) {
+        this.jiraClient = jiraClient;
+        this.childIssueLoader = childIssueLoader;
+        this.projects = ImmutableList.copyOf(projects);
+        this.requirementConverter = requirementConverter;
+    }
+
+    /**
+     * An index of the requirements leading to the given issues, along with all the other branches loaded so far.
+     */
+    public RequirementsIndex indexCovering(Map<String, Optional<IssueSummary>> issues) {
+        Set<String> issueKeysWithPaths = Sets.newHashSet();
+        for (Map.Entry<String, Optional<IssueSummary>> issue : issues.entrySet()) {
+            String issueKey = issue.getKey().toUpperCase();
+            try {
+                if (resolved(pathsByIssueKey, issueKey, pathResolution(issue.getValue())).isPresent()) {
+                    issueKeysWithPaths.add(issueKey);
+                }
+            } catch (RuntimeException e) {
+                logger.warn("Could not find the requirements of " + issueKey + ": it will be looked up again", e);
+            }
+        }
+        return indexWithPathsTo(issueKeysWithPaths);
+    }
+
+    /**
+     * The requirements loaded so far.
+     */
+    public RequirementsIndex getIndex() {
+        return indexedPaths.getIndex();
+    }
+
+    /**
+     * Only rebuilding the index takes a lock, and it never calls JIRA: every path it uses is already resolved.
+     */
+    private RequirementsIndex indexWithPathsTo(Set<String> issueKeys) {
+        IndexedPaths currentPaths = indexedPaths;
+        if (currentPaths.covers(issueKeys)) {
+            return currentPaths.getIndex();
+        }
+        synchronized (this) {
+            if (!indexedPaths.covers(issueKeys)) {
+                Map<String, List<IssueSummary>> resolvedPaths = resolvedPaths();
+                indexedPaths = new IndexedPaths(new RequirementsIndex(requirementsAlong(resolvedPaths.values())),
+                                                resolvedPaths.keySet());
+            }
+            return indexedPaths.getIndex();
+        }
+    }
+
+    private Map<String, List<IssueSummary>> resolvedPaths() {
+        Map<String, List<IssueSummary>> resolvedPaths = Maps.newLinkedHashMap();
+        for (Map.Entry<String, Future<Optional<List<IssueSummary>>>> path : pathsByIssueKey.entrySet()) {
+            if (path.getValue().isDone()) {
+                Optional<List<IssueSummary>> resolvedPath = waitFor(path.getValue());
+                if (resolvedPath.isPresent()) {
+                    resolvedPaths.put(path.getKey(), resolvedPath.get());
+                }
+            }
+        }
+        return resolvedPaths;
+    }
+
+    private Callable<Optional<List<IssueSummary>>> pathResolution(final Optional<IssueSummary> issue) {
+        return new Callable<Optional<List<IssueSummary>>>() {
+            @Override
+            public Optional<List<IssueSummary>> call() throws JSONException {
+                return issue.isPresent() ? pathTo(issue.get()) : Optional.<List<IssueSummary>>absent();
+            }
+        };
+    }
+
+    /**
+     * The memoised result for the given key, computed on this thread if no other thread has started computing it.
+     * A computation that fails is forgotten, so that the next caller tries again.
+     */
+    private <T> T resolved(ConcurrentMap<String, Future<T>> results, String key, Callable<T> computation) {
+        FutureTask<T> newResult = new FutureTask<T>(computation);
+        Future<T> result = results.putIfAbsent(key, newResult);
+        if (result == null) {
+            result = newResult;
+            newResult.run();
+        }
+        try {
+            return waitFor(result);
+        } catch (RuntimeException e) {
+            results.remove(key, result);
+            throw e;
+        }
+    }
+
+    private <T> T waitFor(Future<T> result) {
+        try {
+            return result.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while resolving requirements", e);
+        } catch (ExecutionException e) {
+            throw Throwables.propagate(e.getCause());
+        }
+    }
+
+    private Optional<List<IssueSummary>> pathTo(IssueSummary issue) throws JSONException {
+        for (RequirementsProject project : projects) {
+            for (int depth = 0; depth <= project.getRequirementsLinks().size(); depth++) {
+                Optional<List<IssueSummary>> path = pathTo(issue, depth, project);
+                if (path.isPresent()) {
+                    return path;
+                }
+            }
+        }
+        logger.debug("Issue " + issue.getKey() + " is not part of the requirements tree");
+        return Optional.absent();
+    }
+
+    private Optional<List<IssueSummary>> pathTo(IssueSummary issue, int depth, RequirementsProject project)
+            throws JSONException {
+        if (depth == 0) {
+            return isRootRequirement(issue, project) ? Optional.<List<IssueSummary>>of(ImmutableList.of(issue))
+                                                     : Optional.<List<IssueSummary>>absent();
+        }
+        String linkType = project.getRequirementsLinks().get(depth - 1);
+        for (IssueSummary parent : possibleParentsOf(issue, linkType)) {
+            if (isChildOf(issue, parent, linkType)) {
+                Optional<List<IssueSummary>> pathToParent = pathTo(parent, depth - 1, project);
+                if (pathToParent.isPresent()) {
+                    List<IssueSummary> path = Lists.newArrayList(pathToParent.get());
+                    path.add(issue);
+                    return Optional.<List<IssueSummary>>of(path);
+                }
+            }
+        }
+        return Optional.absent();
+    }
+
+    private boolean isRootRequirement(IssueSummary issue, RequirementsProject project) {
+        return project.getRootIssueType().equalsIgnoreCase(issue.getType()) && project.owns(issue.getKey());
+    }
+
+    /**
+     * An issue read with its issue links says which issues it is linked from through the given link type,
+     * so they can be loaded by key; otherwise JIRA is asked for the issues linked to it with that link type.
+     * A failed lookup fails the resolution of the issue, rather than being taken to mean that it has no parents.
+     */
+    private List<IssueSummary> possibleParentsOf(IssueSummary issue, String linkType) throws JSONException {
+        if (linkType.equals(ChildIssueLoader.EPIC_LINK)) {
+            Optional<CustomFieldCast> epicLink = issue.customField(ChildIssueLoader.EPIC_LINK);
+            if (!epicLink.isPresent()) {
+                return ImmutableList.of();
+            }
+            Optional<IssueSummary> epic = jiraClient.findByKey(epicLink.get().asString());
+            return epic.isPresent() ? ImmutableList.of(epic.get()) : ImmutableList.<IssueSummary>of();
+        }
+        if (issue instanceof LinkedIssueSummary) {
+            Set<String> parentKeys = ((LinkedIssueSummary) issue).getIssuesLinkedAs(linkType);
+            return parentKeys.isEmpty() ? ImmutableList.<IssueSummary>of()
+                                        : ImmutableList.copyOf(jiraClient.findByKeys(parentKeys).values());
+        }
+        return jiraClient.findByJQL(ChildIssueLoader.childIssuesJQL(ImmutableList.of(issue.getKey()), linkType));
+    }
+
+    private boolean isChildOf(IssueSummary issue, IssueSummary parent, String linkType) {
+        for (IssueSummary child : childrenOf(parent.getKey(), linkType)) {
+            if (child.getKey().equalsIgnoreCase(issue.getKey())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private List<IssueSummary> childrenOf(final String parentKey, final String linkType) {
+        return resolved(childrenByParentAndLink, parentKey.toUpperCase() + "|" + linkType,
+                        new Callable<List<IssueSummary>>() {
+                            @Override
+                            public List<IssueSummary> call() throws JSONException {
+                                return ImmutableList.copyOf(childIssueLoader.findChildrenOf(parentKey, linkType));
+                            }
+                        });
+    }
+
+    private List<Requirement> requirementsAlong(Collection<List<IssueSummary>> paths) {
+        Map<String, IssueSummary> issuesByKey = Maps.newHashMap();
+        SetMultimap<String, String> childKeys = LinkedHashMultimap.create();
+        List<String> rootKeys = Lists.newArrayList();
+        for (List<IssueSummary> path : paths) {
+            String parentKey = null;
+            for (IssueSummary issue : path) {
+                String key = issue.getKey().toUpperCase();
+                issuesByKey.put(key, issue);
+                if (parentKey == null) {
+                    if (!rootKeys.contains(key)) {
+                        rootKeys.add(key);
+                    }
+                } else {
+                    childKeys.put(parentKey, key);
+                }
+                parentKey = key;
+            }
+        }
+        return requirementsWithKeys(rootKeys, null, issuesByKey, childKeys);
+    }
+
+    private List<Requirement> requirementsWithKeys(Collection<String> keys, String parent,
+                                                   Map<String, IssueSummary> issuesByKey,
+                                                   SetMultimap<String, String> childKeys) {
+        List<Requirement> requirements = Lists.newArrayList();
+        for (String key : keys) {
+            Requirement requirement = requirementConverter.convert(issuesByKey.get(key));
+            List<Requirement> children = requirementsWithKeys(childKeys.get(key), requirement.getName(),
+                                                              issuesByKey, childKeys);
+            requirements.add(requirement.withParent(parent).withChildren(children));
+        }
+        return requirements;
+    }
+
+    /**
+     * An index, along with the issues whose paths it was built from.
+     */
+    private static class IndexedPaths {
+        private final RequirementsIndex index;
+        private final Set<String> issueKeys;
+
+        IndexedPaths(RequirementsIndex index, Set<String> issueKeys) {
+            this.index = index;
+            this.issueKeys = ImmutableSet.copyOf(issueKeys);
+        }
+
+        RequirementsIndex getIndex() {
+            return index;
+        }
+
+        boolean covers(Set<String> issueKeys) {
+            return this.issueKeys.containsAll(issueKeys);
+        }
+    }
+}
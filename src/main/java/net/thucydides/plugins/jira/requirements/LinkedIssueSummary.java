@@ -0,0 +1,39 @@
+package net.thucydides.plugins.jira.requirements;
+
+import com.google.common.collect.ImmutableSetMultimap;
+import com.google.common.collect.SetMultimap;
+import net.thucydides.plugins.jira.domain.IssueSummary;
+import net.thucydides.plugins.jira.domain.RenderedView;
+
+import java.net.URI;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An issue read along with its issue links, so that the issues it was found through can be told apart
+ * without asking JIRA about each of them in turn.
+ */
+public class LinkedIssueSummary extends IssueSummary {
+
+    private final SetMultimap<String, String> linkingIssueKeys;
+
+    /**
+     * @param linkingIssueKeys the keys of the issues linked to this one, by the description of the link seen from
+     *                         their side, in lower case ("relates to", "is blocked by")
+     */
+    public LinkedIssueSummary(URI self, Long id, String key, String summary, String description,
+                              RenderedView renderedView, String type, String status, List<String> labels,
+                              List<String> fixVersions, Map<String, Object> customFields,
+                              SetMultimap<String, String> linkingIssueKeys) {
+        super(self, id, key, summary, description, renderedView, type, status, labels, fixVersions, customFields);
+        this.linkingIssueKeys = ImmutableSetMultimap.copyOf(linkingIssueKeys);
+    }
+
+    /**
+     * The keys of the issues that would return this one in a linkedIssues(key, linkType) query.
+     */
+    public Set<String> getIssuesLinkedAs(String linkType) {
+        return linkingIssueKeys.get(linkType.toLowerCase());
+    }
+}
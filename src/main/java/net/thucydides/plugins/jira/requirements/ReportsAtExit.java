@@ -0,0 +1,67 @@
+package net.thucydides.plugins.jira.requirements;
+
+import com.google.common.collect.ImmutableList;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Writes the metrics and trace reports of the providers that are still alive when the JVM exits,
+ * from a single shutdown hook for the whole JVM.
+ * Providers are created by a ServiceLoader, which never closes them, so their report writers are only held
+ * weakly: a provider that is no longer used is garbage collected along with its writer.
+ */
+class ReportsAtExit {
+
+    private static final Logger logger = LoggerFactory.getLogger(ReportsAtExit.class);
+
+    private static final Set<Runnable> REPORT_WRITERS
+            = Collections.synchronizedSet(Collections.newSetFromMap(new WeakHashMap<Runnable, Boolean>()));
+    private static final AtomicBoolean HOOK_ADDED = new AtomicBoolean();
+
+    /**
+     * The caller must hold on to the writer for as long as its reports should be written at exit.
+     */
+    static void register(Runnable reportWriter) {
+        if (HOOK_ADDED.compareAndSet(false, true)) {
+            Runtime.getRuntime().addShutdownHook(new Thread("jira-requirements-reports") {
+                @Override
+                public void run() {
+                    writeAll();
+                }
+            });
+        }
+        REPORT_WRITERS.add(reportWriter);
+    }
+
+    /**
+     * @return false if the writer was not registered, or has already been run by the shutdown hook
+     */
+    static boolean unregister(Runnable reportWriter) {
+        return REPORT_WRITERS.remove(reportWriter);
+    }
+
+    static int registeredWriters() {
+        return REPORT_WRITERS.size();
+    }
+
+    static void writeAll() {
+        List<Runnable> reportWriters;
+        synchronized (REPORT_WRITERS) {
+            reportWriters = ImmutableList.copyOf(REPORT_WRITERS);
+            REPORT_WRITERS.clear();
+        }
+        for (Runnable reportWriter : reportWriters) {
+            try {
+                reportWriter.run();
+            } catch (RuntimeException e) {
+                logger.warn("Could not write the JIRA requirements reports", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package net.thucydides.plugins.jira.requirements;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import net.thucydides.core.requirements.model.Requirement;
+import net.thucydides.core.util.EnvironmentVariables;
+import net.thucydides.plugins.jira.domain.CustomFieldCast;
+import net.thucydides.plugins.jira.domain.IssueSummary;
+import org.apache.commons.lang3.StringUtils;
+
+import java.util.List;
+
+import static net.thucydides.plugins.jira.requirements.JIRARequirementsConfiguration.JIRA_CUSTOM_FIELD;
+import static net.thucydides.plugins.jira.requirements.JIRARequirementsConfiguration.JIRA_CUSTOM_NARRATIVE_FIELD;
+
+/**
+ * How the fields of a JIRA issue are mapped onto a requirement: the custom field that holds the narrative, if any,
+ * and the custom fields (jira.custom.field.1, jira.custom.field.2, ...) copied onto the requirement.
+ * The configuration is read once, when the mapping is created, so converting an issue reads no properties
+ * and looks up each field only once.
+ */
+public class RequirementFieldMapping {
+
+    private final Optional<String> narrativeField;
+    private final List<String> customFields;
+
+    public RequirementFieldMapping(Optional<String> narrativeField, List<String> customFields) {
+        this.narrativeField = narrativeField;
+        List<String> internedCustomFields = Lists.newArrayList();
+        for (String customField : customFields) {
+            internedCustomFields.add(RequirementValues.interned(customField));
+        }
+        this.customFields = ImmutableList.copyOf(internedCustomFields);
+    }
+
+    public static RequirementFieldMapping configuredIn(EnvironmentVariables environmentVariables) {
+        String narrativeField = environmentVariables.getProperty(JIRA_CUSTOM_NARRATIVE_FIELD.getName());
+        List<String> customFields = Lists.newArrayList();
+        int customFieldIndex = 1;
+        String customField = environmentVariables.getProperty(JIRA_CUSTOM_FIELD.getName() + "." + customFieldIndex);
+        while (StringUtils.isNotEmpty(customField)) {
+            customFields.add(customField);
+            customFieldIndex++;
+            customField = environmentVariables.getProperty(JIRA_CUSTOM_FIELD.getName() + "." + customFieldIndex);
+        }
+        return new RequirementFieldMapping(StringUtils.isNotEmpty(narrativeField) ? Optional.of(narrativeField)
+                                                                                  : Optional.<String>absent(),
+                                           customFields);
+    }
+
+    public Optional<String> getNarrativeField() {
+        return narrativeField;
+    }
+
+    public List<String> getCustomFields() {
+        return customFields;
+    }
+
+    /**
+     * The custom fields the JIRA client needs to read for this mapping, narrative field first.
+     */
+    public List<String> getFieldsToRead() {
+        List<String> fieldsToRead = Lists.newArrayList(narrativeField.asSet());
+        fieldsToRead.addAll(customFields);
+        return fieldsToRead;
+    }
+
+    public Requirement requirementFrom(IssueSummary issue) {
+        Requirement requirement = Requirement.named(issue.getSummary())
+                .withOptionalCardNumber(issue.getKey())
+                .withType(RequirementValues.interned(issue.getType()))
+                .withNarrative(narrativeOf(issue))
+                .withReleaseVersions(RequirementValues.interned(issue.getFixVersions()));
+
+        for (String fieldName : customFields) {
+            Optional<String> value = customFieldValue(issue, fieldName);
+            if (value.isPresent()) {
+                String renderedValue = issue.getRendered().customField(fieldName).or(value.get());
+                requirement = requirement.withCustomField(fieldName).setTo(value.get(), renderedValue);
+            }
+        }
+        return requirement;
+    }
+
+    private String narrativeOf(IssueSummary issue) {
+        if (narrativeField.isPresent()) {
+            Optional<String> narrative = customFieldValue(issue, narrativeField.get());
+            if (narrative.isPresent()) {
+                return narrative.get();
+            }
+        }
+        return issue.getRendered().getDescription();
+    }
+
+    private Optional<String> customFieldValue(IssueSummary issue, String fieldName) {
+        Optional<CustomFieldCast> field = issue.customField(fieldName);
+        if (field.isPresent()) {
+            return Optional.fromNullable(field.get().asString());
+        }
+        return Optional.absent();
+    }
+}
@@ -0,0 +1,117 @@
+package net.thucydides.plugins.jira.requirements;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import net.thucydides.core.requirements.model.CustomFieldValue;
+import net.thucydides.core.requirements.model.Requirement;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.List;
+
+/**
+ * Converts a requirements tree to and from a compact JSON representation, so that it can be stored outside the JVM.
+ */
+public class RequirementSerializer {
+
+    private static final String NAME = "name";
+    private static final String CARD_NUMBER = "card";
+    private static final String TYPE = "type";
+    private static final String PARENT = "parent";
+    private static final String NARRATIVE = "narrative";
+    private static final String RELEASE_VERSIONS = "versions";
+    private static final String CUSTOM_FIELDS = "fields";
+    private static final String TEXT = "text";
+    private static final String RENDERED_TEXT = "rendered";
+    private static final String CHILDREN = "children";
+
+    public JSONArray toJSON(List<Requirement> requirements) throws JSONException {
+        JSONArray serializedRequirements = new JSONArray();
+        for (Requirement requirement : requirements) {
+            serializedRequirements.put(toJSON(requirement));
+        }
+        return serializedRequirements;
+    }
+
+    public List<Requirement> fromJSON(JSONArray serializedRequirements) throws JSONException {
+        return fromJSON(serializedRequirements, Optional.<String>absent());
+    }
+
+    /**
+     * Children are given the name of the requirement they were read under as their parent,
+     * rather than a copy of the same name read from each of them.
+     */
+    private List<Requirement> fromJSON(JSONArray serializedRequirements, Optional<String> parent) throws JSONException {
+        ImmutableList.Builder<Requirement> requirements = ImmutableList.builder();
+        for (int i = 0; i < serializedRequirements.length(); i++) {
+            requirements.add(fromJSON(serializedRequirements.getJSONObject(i), parent));
+        }
+        return requirements.build();
+    }
+
+    private JSONObject toJSON(Requirement requirement) throws JSONException {
+        JSONObject serializedRequirement = new JSONObject();
+        serializedRequirement.put(NAME, requirement.getName());
+        serializedRequirement.put(CARD_NUMBER, requirement.getCardNumber());
+        serializedRequirement.put(TYPE, requirement.getType());
+        serializedRequirement.put(PARENT, requirement.getParent());
+        if (requirement.getNarrative() != null) {
+            serializedRequirement.put(NARRATIVE, requirement.getNarrative().getText());
+        }
+        serializedRequirement.put(RELEASE_VERSIONS, new JSONArray(requirement.getReleaseVersions()));
+
+        JSONArray customFields = new JSONArray();
+        for (String fieldName : requirement.getCustomFields()) {
+            Optional<CustomFieldValue> fieldValue = requirement.getCustomField(fieldName);
+            if (fieldValue.isPresent()) {
+                JSONObject customField = new JSONObject();
+                customField.put(NAME, fieldName);
+                customField.put(TEXT, fieldValue.get().getText());
+                customField.put(RENDERED_TEXT, fieldValue.get().getRenderedText());
+                customFields.put(customField);
+            }
+        }
+        serializedRequirement.put(CUSTOM_FIELDS, customFields);
+        serializedRequirement.put(CHILDREN, toJSON(requirement.getChildren()));
+        return serializedRequirement;
+    }
+
+    private Requirement fromJSON(JSONObject serializedRequirement, Optional<String> parent) throws JSONException {
+        Requirement requirement = Requirement.named(serializedRequirement.getString(NAME))
+                .withOptionalCardNumber(serializedRequirement.optString(CARD_NUMBER, null))
+                .withType(RequirementValues.interned(serializedRequirement.optString(TYPE, null)))
+                .withNarrative(serializedRequirement.optString(NARRATIVE, ""))
+                .withReleaseVersions(RequirementValues.interned(
+                        stringsIn(serializedRequirement.optJSONArray(RELEASE_VERSIONS))));
+
+        JSONArray customFields = serializedRequirement.optJSONArray(CUSTOM_FIELDS);
+        if (customFields != null) {
+            for (int i = 0; i < customFields.length(); i++) {
+                JSONObject customField = customFields.getJSONObject(i);
+                requirement = requirement.withCustomField(RequirementValues.interned(customField.getString(NAME)))
+                                         .setTo(customField.optString(TEXT, null),
+                                                customField.optString(RENDERED_TEXT, null));
+            }
+        }
+
+        requirement = requirement.withParent(parent.or(Optional.fromNullable(serializedRequirement.optString(PARENT, null)))
+                                                   .orNull());
+        JSONArray children = serializedRequirement.optJSONArray(CHILDREN);
+        if (children == null || children.length() == 0) {
+            return requirement;
+        }
+        return requirement.withChildren(fromJSON(children, Optional.of(requirement.getName())));
+    }
+
+    private List<String> stringsIn(JSONArray values) throws JSONException {
+        List<String> strings = Lists.newArrayList();
+        if (values != null) {
+            for (int i = 0; i < values.length(); i++) {
+                strings.add(values.getString(i));
+            }
+        }
+        return strings;
+    }
+}
@@ -0,0 +1,37 @@
+package net.thucydides.plugins.jira.requirements;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+
+import java.util.List;
+
+/**
+ * Canonical instances of the values that thousands of requirements have in common: issue types,
+ * custom field names and lists of release versions. Each value parsed from JIRA or from a cache is a new object,
+ * so without interning, a large tree holds as many copies of "Story" or ["Release 1"] as it has requirements.
+ * The interners hold their values weakly, so values no longer used by any tree can still be collected.
+ */
+final class RequirementValues {
+
+    private static final Interner<String> STRINGS = Interners.newWeakInterner();
+    private static final Interner<List<String>> STRING_LISTS = Interners.newWeakInterner();
+
+    private RequirementValues() {
+    }
+
+    static String interned(String value) {
+        return (value == null) ? null : STRINGS.intern(value);
+    }
+
+    static List<String> interned(List<String> values) {
+        if (values == null) {
+            return null;
+        }
+        ImmutableList.Builder<String> internedValues = ImmutableList.builder();
+        for (String value : values) {
+            internedValues.add(interned(value));
+        }
+        return STRING_LISTS.intern(internedValues.build());
+    }
+}
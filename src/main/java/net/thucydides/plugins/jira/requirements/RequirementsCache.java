@@ -0,0 +1,182 @@
+package net.thucydides.plugins.jira.requirements;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Joiner;
+import com.google.common.base.Optional;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+import net.thucydides.core.requirements.model.Requirement;
+import net.thucydides.core.util.EnvironmentVariables;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static net.thucydides.plugins.jira.requirements.JIRARequirementsConfiguration.JIRA_REQUIREMENTS_CACHE_DIRECTORY;
+import static net.thucydides.plugins.jira.requirements.JIRARequirementsConfiguration.JIRA_REQUIREMENTS_CACHE_TTL;
+
+/**
+ * Stores a loaded requirements tree on disk so that later builds can reuse it until it expires.
+ * The cache file is keyed on the JIRA server and on everything that affects the shape of the tree: the project key,
+ * the root issue type, the requirement links and the custom fields being read.
+ */
+public class RequirementsCache {
+
+    private static final int FORMAT_VERSION = 1;
+    private static final String VERSION = "version";
+    private static final String SAVED_AT = "savedAt";
+    private static final String CRAWLED_AT = "crawledAt";
+    private static final String REQUIREMENTS = "requirements";
+
+    private static final String DEFAULT_CACHE_DIRECTORY = System.getProperty("user.home") + "/.thucydides/jira-requirements";
+    static int DEFAULT_TTL_IN_MINUTES = 0;
+
+    private final org.slf4j.Logger logger = LoggerFactory.getLogger(RequirementsCache.class);
+
+    private final File cacheFile;
+    private final long timeToLive;
+    private final RequirementSerializer serializer = new RequirementSerializer();
+
+    public RequirementsCache(EnvironmentVariables environmentVariables, String projectKey, String... cacheKeyElements) {
+        this(new File(environmentVariables.getProperty(JIRA_REQUIREMENTS_CACHE_DIRECTORY.getName(), DEFAULT_CACHE_DIRECTORY)),
+             environmentVariables.getPropertyAsInteger(JIRA_REQUIREMENTS_CACHE_TTL.getName(), DEFAULT_TTL_IN_MINUTES),
+             projectKey, cacheKeyElements);
+    }
+
+    public RequirementsCache(File cacheDirectory, int timeToLiveInMinutes, String projectKey, String... cacheKeyElements) {
+        this.timeToLive = TimeUnit.MINUTES.toMillis(timeToLiveInMinutes);
+        this.cacheFile = new File(cacheDirectory, projectKey + "-" + hashOf(projectKey, cacheKeyElements) + ".json");
+    }
+
+    private String hashOf(String projectKey, String... cacheKeyElements) {
+        String cacheKey = projectKey + "|" + Joiner.on("|").useForNull("").join(cacheKeyElements);
+        return Hashing.sha1().hashString(cacheKey, Charsets.UTF_8).toString();
+    }
+
+    public boolean isEnabled() {
+        return timeToLive > 0;
+    }
+
+    public File getCacheFile() {
+        return cacheFile;
+    }
+
+    /**
+     * The cached requirements, provided they have not expired.
+     */
+    public Optional<List<Requirement>> load() {
+        Optional<CachedRequirements> cachedRequirements = loadAnyAge();
+        if (!cachedRequirements.isPresent()) {
+            return Optional.absent();
+        }
+        if (expired(cachedRequirements.get().getSyncedAt())) {
+            logger.debug("Cached requirements in {} have expired", cacheFile);
+            return Optional.absent();
+        }
+        logger.info("Loading requirements from cache: " + cacheFile);
+        return Optional.of(cachedRequirements.get().getRequirements());
+    }
+
+    /**
+     * The cached requirements, even if they have expired, along with the time they were last synchronized with JIRA.
+     */
+    public Optional<CachedRequirements> loadAnyAge() {
+        if (!isEnabled() || !cacheFile.exists()) {
+            return Optional.absent();
+        }
+        try {
+            JSONObject cachedRequirements = new JSONObject(Files.asCharSource(cacheFile, Charsets.UTF_8).read());
+            if (cachedRequirements.optInt(VERSION, 0) != FORMAT_VERSION) {
+                return Optional.absent();
+            }
+            long syncedAt = cachedRequirements.optLong(SAVED_AT, 0);
+            return Optional.of(new CachedRequirements(serializer.fromJSON(cachedRequirements.getJSONArray(REQUIREMENTS)),
+                                                      syncedAt,
+                                                      cachedRequirements.optLong(CRAWLED_AT, syncedAt)));
+        } catch (IOException e) {
+            logger.warn("Could not read cached requirements from " + cacheFile, e);
+        } catch (JSONException e) {
+            logger.warn("Ignoring corrupted requirements cache " + cacheFile, e);
+        }
+        return Optional.absent();
+    }
+
+    private boolean expired(long savedAt) {
+        return System.currentTimeMillis() - savedAt > timeToLive;
+    }
+
+    /**
+     * Store a requirements tree that has just been loaded from JIRA in full.
+     */
+    public void store(List<Requirement> requirements) {
+        long now = System.currentTimeMillis();
+        store(requirements, now, now);
+    }
+
+    /**
+     * Store a requirements tree that was synchronized with JIRA at a given time,
+     * and last loaded in full at another.
+     */
+    public void store(List<Requirement> requirements, long syncedAt, long crawledAt) {
+        if (!isEnabled()) {
+            return;
+        }
+        try {
+            JSONObject cachedRequirements = new JSONObject();
+            cachedRequirements.put(VERSION, FORMAT_VERSION);
+            cachedRequirements.put(SAVED_AT, syncedAt);
+            cachedRequirements.put(CRAWLED_AT, crawledAt);
+            cachedRequirements.put(REQUIREMENTS, serializer.toJSON(requirements));
+            writeAtomically(cachedRequirements.toString());
+        } catch (IOException e) {
+            logger.warn("Could not write requirements cache " + cacheFile, e);
+        } catch (JSONException e) {
+            logger.warn("Could not serialize requirements to " + cacheFile, e);
+        }
+    }
+
+    /**
+     * Each writer writes to a temporary file of its own in the cache directory, then renames it to the cache file,
+     * so that processes storing the same requirements at the same time never write to the same file.
+     */
+    private void writeAtomically(String contents) throws IOException {
+        Files.createParentDirs(cacheFile);
+        File temporaryFile = File.createTempFile(cacheFile.getName(), ".tmp", cacheFile.getParentFile());
+        try {
+            Files.asCharSink(temporaryFile, Charsets.UTF_8).write(contents);
+            if (!temporaryFile.renameTo(cacheFile)) {
+                Files.copy(temporaryFile, cacheFile);
+            }
+        } finally {
+            temporaryFile.delete();
+        }
+    }
+
+    public static class CachedRequirements {
+        private final List<Requirement> requirements;
+        private final long syncedAt;
+        private final long crawledAt;
+
+        CachedRequirements(List<Requirement> requirements, long syncedAt, long crawledAt) {
+            this.requirements = requirements;
+            this.syncedAt = syncedAt;
+            this.crawledAt = crawledAt;
+        }
+
+        public List<Requirement> getRequirements() {
+            return requirements;
+        }
+
+        public long getSyncedAt() {
+            return syncedAt;
+        }
+
+        public long getCrawledAt() {
+            return crawledAt;
+        }
+    }
+}
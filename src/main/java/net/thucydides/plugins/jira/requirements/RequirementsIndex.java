@@ -0,0 +1,114 @@
+package net.thucydides.plugins.jira.requirements;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import net.thucydides.core.requirements.model.Requirement;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Immutable lookup tables built once for a loaded requirements tree, so that requirements can be found
+ * by card number, by type and name, or by child card number without scanning the whole tree.
+ * Where several requirements share a key, the first one in depth-first order wins, as it would for a linear scan.
+ * The tables are built in a single pass and handed out as read-only views, without further copies,
+ * so the flattened list and the lookup tables only ever exist once per loaded tree.
+ */
+public class RequirementsIndex {
+
+    private final List<Requirement> requirements;
+    private final List<Requirement> flattenedRequirements;
+    private final Map<String, Requirement> requirementsByCardNumber;
+    private final Map<String, Requirement> requirementsByTypeAndName;
+    private final Map<String, Requirement> parentsByCardNumber;
+
+    public RequirementsIndex(List<Requirement> requirements) {
+        this.requirements = ImmutableList.copyOf(requirements);
+
+        ImmutableList.Builder<Requirement> flattened = ImmutableList.builder();
+        Map<String, Requirement> byCardNumber = Maps.newHashMap();
+        Map<String, Requirement> byTypeAndName = Maps.newHashMap();
+        Map<String, Requirement> parents = Maps.newHashMap();
+        index(requirements, null, flattened, byCardNumber, byTypeAndName, parents);
+
+        this.flattenedRequirements = flattened.build();
+        this.requirementsByCardNumber = Collections.unmodifiableMap(byCardNumber);
+        this.requirementsByTypeAndName = Collections.unmodifiableMap(byTypeAndName);
+        this.parentsByCardNumber = Collections.unmodifiableMap(parents);
+    }
+
+    private void index(List<Requirement> someRequirements,
+                       Requirement parent,
+                       ImmutableList.Builder<Requirement> flattened,
+                       Map<String, Requirement> byCardNumber,
+                       Map<String, Requirement> byTypeAndName,
+                       Map<String, Requirement> parents) {
+        for (Requirement requirement : someRequirements) {
+            flattened.add(requirement);
+            putIfAbsent(byTypeAndName, typeAndName(requirement.getType(), requirement.getName()), requirement);
+            if (requirement.getCardNumber() != null) {
+                putIfAbsent(byCardNumber, normalized(requirement.getCardNumber()), requirement);
+                if (parent != null) {
+                    putIfAbsent(parents, normalized(requirement.getCardNumber()), parent);
+                }
+            }
+            index(requirement.getChildren(), requirement, flattened, byCardNumber, byTypeAndName, parents);
+        }
+    }
+
+    private void putIfAbsent(Map<String, Requirement> index, String key, Requirement requirement) {
+        if (!index.containsKey(key)) {
+            index.put(key, requirement);
+        }
+    }
+
+    private String normalized(String cardNumber) {
+        return cardNumber.toUpperCase();
+    }
+
+    private String typeAndName(String type, String name) {
+        return type + "\u0000" + name;
+    }
+
+    public List<Requirement> getRequirements() {
+        return requirements;
+    }
+
+    /**
+     * Every requirement in the tree, in depth-first order. The same list is returned on every call.
+     */
+    public List<Requirement> getFlattenedRequirements() {
+        return flattenedRequirements;
+    }
+
+    public Optional<Requirement> getRequirementWithCardNumber(String cardNumber) {
+        return Optional.fromNullable(requirementsByCardNumber.get(normalized(cardNumber)));
+    }
+
+    public Optional<Requirement> getRequirementWithTypeAndName(String type, String name) {
+        return Optional.fromNullable(requirementsByTypeAndName.get(typeAndName(type, name)));
+    }
+
+    public Optional<Requirement> getParentOf(String cardNumber) {
+        return Optional.fromNullable(parentsByCardNumber.get(normalized(cardNumber)));
+    }
+
+    /**
+     * The requirements above the given card, starting with its immediate parent.
+     */
+    public List<Requirement> getAncestorsOf(String cardNumber) {
+        List<Requirement> ancestors = Lists.newArrayList();
+        Set<String> visited = Sets.newHashSet(normalized(cardNumber));
+        Optional<Requirement> parent = getParentOf(cardNumber);
+        while (parent.isPresent() && visited.add(normalized(parent.get().getCardNumber()))) {
+            ancestors.add(parent.get());
+            parent = getParentOf(parent.get().getCardNumber());
+        }
+        return ancestors;
+    }
+}
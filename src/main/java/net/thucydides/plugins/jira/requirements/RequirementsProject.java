@@ -0,0 +1,90 @@
+package net.thucydides.plugins.jira.requirements;
+
+import com.google.common.base.Joiner;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import net.thucydides.core.util.EnvironmentVariables;
+
+import java.util.List;
+
+import static net.thucydides.plugins.jira.requirements.JIRARequirementsConfiguration.JIRA_PROJECTS;
+import static net.thucydides.plugins.jira.requirements.JIRARequirementsConfiguration.JIRA_REQUIREMENT_LINKS;
+import static net.thucydides.plugins.jira.requirements.JIRARequirementsConfiguration.JIRA_ROOT_ISSUE_TYPE;
+
+/**
+ * A JIRA project whose requirements are loaded, along with the shape of its requirements tree:
+ * the type of its root requirements, and the links followed from one level of the tree to the next.
+ * Both can be configured for each project (e.g. jira.root.issue.type.SHOP), and default to the global settings.
+ */
+public class RequirementsProject {
+
+    public static final String DEFAULT_ROOT_ISSUE_TYPE = "epic";
+    public static final String DEFAULT_REQUIREMENT_LINKS = ChildIssueLoader.EPIC_LINK;
+
+    private final String key;
+    private final String rootIssueType;
+    private final List<String> requirementsLinks;
+
+    public RequirementsProject(String key, String rootIssueType, List<String> requirementsLinks) {
+        this.key = key;
+        this.rootIssueType = rootIssueType;
+        this.requirementsLinks = ImmutableList.copyOf(requirementsLinks);
+    }
+
+    /**
+     * The projects listed in jira.projects, or else the single project of the JIRA configuration.
+     */
+    public static List<RequirementsProject> configuredIn(EnvironmentVariables environmentVariables,
+                                                         String defaultProjectKey) {
+        List<String> projectKeys = Splitter.on(",").trimResults().omitEmptyStrings()
+                                           .splitToList(environmentVariables.getProperty(JIRA_PROJECTS.getName(), ""));
+        if (projectKeys.isEmpty()) {
+            projectKeys = ImmutableList.of(defaultProjectKey);
+        }
+        List<RequirementsProject> projects = Lists.newArrayList();
+        for (String projectKey : projectKeys) {
+            projects.add(new RequirementsProject(projectKey,
+                                                 rootIssueTypeFor(projectKey, environmentVariables),
+                                                 requirementsLinksFor(projectKey, environmentVariables)));
+        }
+        return ImmutableList.copyOf(projects);
+    }
+
+    private static String rootIssueTypeFor(String projectKey, EnvironmentVariables environmentVariables) {
+        String defaultRootIssueType = environmentVariables.getProperty(JIRA_ROOT_ISSUE_TYPE.getName(),
+                                                                       DEFAULT_ROOT_ISSUE_TYPE);
+        return environmentVariables.getProperty(JIRA_ROOT_ISSUE_TYPE.getName() + "." + projectKey, defaultRootIssueType);
+    }
+
+    private static List<String> requirementsLinksFor(String projectKey, EnvironmentVariables environmentVariables) {
+        String defaultLinks = environmentVariables.getProperty(JIRA_REQUIREMENT_LINKS.getName(), DEFAULT_REQUIREMENT_LINKS);
+        String links = environmentVariables.getProperty(JIRA_REQUIREMENT_LINKS.getName() + "." + projectKey, defaultLinks);
+        return Splitter.on(",").trimResults().omitEmptyStrings().splitToList(links);
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public String getRootIssueType() {
+        return rootIssueType;
+    }
+
+    public List<String> getRequirementsLinks() {
+        return requirementsLinks;
+    }
+
+    public String getRootRequirementsJQL() {
+        return "issuetype = " + rootIssueType + " and project=" + key;
+    }
+
+    public boolean owns(String issueKey) {
+        return issueKey.toUpperCase().startsWith(key.toUpperCase() + "-");
+    }
+
+    @Override
+    public String toString() {
+        return key + ":" + rootIssueType + ":" + Joiner.on(",").join(requirementsLinks);
+    }
+}
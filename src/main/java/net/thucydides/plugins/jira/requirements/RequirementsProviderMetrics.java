@@ -0,0 +1,325 @@
+package net.thucydides.plugins.jira.requirements;
+
+import com.google.common.base.Charsets;
+import com.google.common.cache.CacheStats;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.io.Files;
+import net.thucydides.core.requirements.model.Requirement;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.slf4j.LoggerFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Records what the requirements provider asks of JIRA and how long it takes.
+ * The metrics can be published through JMX, and written as a JSON summary file.
+ */
+public class RequirementsProviderMetrics implements RequirementsProviderMetricsMXBean {
+
+    public enum RequestType { JQL, KEY }
+
+    private static final String OBJECT_NAME = "net.thucydides.plugins.jira:type=RequirementsProvider,project=%s";
+    private static final Map<ObjectName, RequirementsProviderMetrics> PUBLISHED_METRICS = Maps.newHashMap();
+
+    private final org.slf4j.Logger logger = LoggerFactory.getLogger(RequirementsProviderMetrics.class);
+
+    private final AtomicLong jqlRequests = new AtomicLong();
+    private final AtomicLong keyRequests = new AtomicLong();
+    private final AtomicLong failedRequests = new AtomicLong();
+    private final AtomicLong issuesReceived = new AtomicLong();
+    private final AtomicLong retries = new AtomicLong();
+    private final AtomicLong throttledResponses = new AtomicLong();
+    private volatile boolean circuitOpen;
+    private final LatencyHistogram jqlLatency = new LatencyHistogram();
+    private final LatencyHistogram keyLatency = new LatencyHistogram();
+    private final AtomicInteger peakQueueDepth = new AtomicInteger();
+    private final AtomicLong lastCrawlTime = new AtomicLong();
+    private final AtomicLong totalCrawlTime = new AtomicLong();
+
+    private volatile List<Integer> requirementsPerLevel = ImmutableList.of();
+    private volatile IssueCache issueCache;
+    private volatile ThreadPoolExecutor executor;
+    private volatile Semaphore requestPermits;
+    private volatile ObjectName registeredName;
+
+    public void recordRequest(RequestType requestType, long durationInMillis, int issueCount, boolean failed) {
+        if (requestType == RequestType.JQL) {
+            jqlRequests.incrementAndGet();
+            jqlLatency.record(durationInMillis);
+        } else {
+            keyRequests.incrementAndGet();
+            keyLatency.record(durationInMillis);
+        }
+        issuesReceived.addAndGet(issueCount);
+        if (failed) {
+            failedRequests.incrementAndGet();
+        }
+        recordQueueDepth();
+    }
+
+    public void recordRetry() {
+        retries.incrementAndGet();
+    }
+
+    public void recordThrottled() {
+        throttledResponses.incrementAndGet();
+    }
+
+    public void recordCircuitOpened() {
+        circuitOpen = true;
+    }
+
+    public void recordCircuitClosed() {
+        circuitOpen = false;
+    }
+
+    private void recordQueueDepth() {
+        int queueDepth = getExecutorQueueDepth();
+        int currentPeak = peakQueueDepth.get();
+        while (queueDepth > currentPeak && !peakQueueDepth.compareAndSet(currentPeak, queueDepth)) {
+            currentPeak = peakQueueDepth.get();
+        }
+    }
+
+    public void recordCrawl(long durationInMillis, List<Requirement> requirements) {
+        lastCrawlTime.set(durationInMillis);
+        totalCrawlTime.addAndGet(durationInMillis);
+        List<Integer> levelSizes = Lists.newArrayList();
+        countRequirementsPerLevel(requirements, 0, levelSizes);
+        requirementsPerLevel = ImmutableList.copyOf(levelSizes);
+    }
+
+    private void countRequirementsPerLevel(List<Requirement> requirements, int level, List<Integer> levelSizes) {
+        if (requirements.isEmpty()) {
+            return;
+        }
+        if (levelSizes.size() <= level) {
+            levelSizes.add(0);
+        }
+        levelSizes.set(level, levelSizes.get(level) + requirements.size());
+        for (Requirement requirement : requirements) {
+            countRequirementsPerLevel(requirement.getChildren(), level + 1, levelSizes);
+        }
+    }
+
+    public void monitor(IssueCache issueCache) {
+        this.issueCache = issueCache;
+    }
+
+    public void monitor(ThreadPoolExecutor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Tasks waiting for one of these permits are counted in the executor queue depth.
+     */
+    public void monitor(Semaphore requestPermits) {
+        this.requestPermits = requestPermits;
+    }
+
+    /**
+     * Publish these metrics through JMX, under the name of the project. A JVM publishes a single MBean per project:
+     * the metrics of a new provider replace those of the previous one, which the ServiceLoader that created it
+     * may never close, so that the MBean server does not keep every provider ever created alive.
+     */
+    public void registerAsMBean(String projectKey) {
+        try {
+            ObjectName name = new ObjectName(String.format(OBJECT_NAME, ObjectName.quote(projectKey)));
+            synchronized (PUBLISHED_METRICS) {
+                MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+                if (mBeanServer.isRegistered(name)) {
+                    mBeanServer.unregisterMBean(name);
+                }
+                mBeanServer.registerMBean(this, name);
+                PUBLISHED_METRICS.put(name, this);
+            }
+            registeredName = name;
+        } catch (JMException e) {
+            logger.debug("Could not register the JIRA requirements provider metrics with JMX", e);
+        }
+    }
+
+    /**
+     * Stop publishing these metrics, unless they have already been replaced by those of another provider.
+     */
+    public void unregisterMBean() {
+        if (registeredName != null) {
+            synchronized (PUBLISHED_METRICS) {
+                if (PUBLISHED_METRICS.get(registeredName) == this) {
+                    try {
+                        ManagementFactory.getPlatformMBeanServer().unregisterMBean(registeredName);
+                    } catch (JMException e) {
+                        logger.debug("Could not unregister the JIRA requirements provider metrics from JMX", e);
+                    }
+                    PUBLISHED_METRICS.remove(registeredName);
+                }
+            }
+            registeredName = null;
+        }
+    }
+
+    @Override
+    public long getJqlRequestCount() {
+        return jqlRequests.get();
+    }
+
+    @Override
+    public long getKeyRequestCount() {
+        return keyRequests.get();
+    }
+
+    @Override
+    public long getFailedRequestCount() {
+        return failedRequests.get();
+    }
+
+    @Override
+    public long getIssuesReceived() {
+        return issuesReceived.get();
+    }
+
+    @Override
+    public double getMeanJqlLatencyMillis() {
+        return jqlLatency.getMeanMillis();
+    }
+
+    @Override
+    public double getMeanKeyLatencyMillis() {
+        return keyLatency.getMeanMillis();
+    }
+
+    @Override
+    public long getMaxJqlLatencyMillis() {
+        return jqlLatency.getMaxMillis();
+    }
+
+    @Override
+    public long getMaxKeyLatencyMillis() {
+        return keyLatency.getMaxMillis();
+    }
+
+    @Override
+    public Map<String, Long> getJqlLatencyHistogram() {
+        return jqlLatency.getBuckets();
+    }
+
+    @Override
+    public Map<String, Long> getKeyLatencyHistogram() {
+        return keyLatency.getBuckets();
+    }
+
+    @Override
+    public double getIssueCacheHitRate() {
+        return (issueCache == null) ? 0.0 : hitRateOf(issueCache.getIssueStats());
+    }
+
+    @Override
+    public double getQueryCacheHitRate() {
+        return (issueCache == null) ? 0.0 : hitRateOf(issueCache.getQueryStats());
+    }
+
+    private double hitRateOf(CacheStats stats) {
+        return (stats.requestCount() == 0) ? 0.0 : stats.hitRate();
+    }
+
+    @Override
+    public int getExecutorQueueDepth() {
+        int queuedTasks = (executor == null) ? 0 : executor.getQueue().size();
+        int waitingTasks = (requestPermits == null) ? 0 : requestPermits.getQueueLength();
+        return queuedTasks + waitingTasks;
+    }
+
+    @Override
+    public int getPeakExecutorQueueDepth() {
+        return peakQueueDepth.get();
+    }
+
+    @Override
+    public List<Integer> getRequirementsPerLevel() {
+        return requirementsPerLevel;
+    }
+
+    @Override
+    public long getRetryCount() {
+        return retries.get();
+    }
+
+    @Override
+    public long getThrottledResponseCount() {
+        return throttledResponses.get();
+    }
+
+    @Override
+    public boolean isCircuitOpen() {
+        return circuitOpen;
+    }
+
+    @Override
+    public long getLastCrawlTimeMillis() {
+        return lastCrawlTime.get();
+    }
+
+    @Override
+    public long getTotalCrawlTimeMillis() {
+        return totalCrawlTime.get();
+    }
+
+    public JSONObject toJSON() throws JSONException {
+        JSONObject summary = new JSONObject();
+        summary.put("jqlRequests", getJqlRequestCount());
+        summary.put("keyRequests", getKeyRequestCount());
+        summary.put("failedRequests", getFailedRequestCount());
+        summary.put("issuesReceived", getIssuesReceived());
+        summary.put("retries", getRetryCount());
+        summary.put("throttledResponses", getThrottledResponseCount());
+        summary.put("circuitOpen", isCircuitOpen());
+        summary.put("jqlLatency", latencySummaryOf(jqlLatency));
+        summary.put("keyLatency", latencySummaryOf(keyLatency));
+        summary.put("issueCacheHitRate", getIssueCacheHitRate());
+        summary.put("queryCacheHitRate", getQueryCacheHitRate());
+        summary.put("peakExecutorQueueDepth", getPeakExecutorQueueDepth());
+        summary.put("requirementsPerLevel", new JSONArray(getRequirementsPerLevel()));
+        summary.put("lastCrawlTimeMillis", getLastCrawlTimeMillis());
+        summary.put("totalCrawlTimeMillis", getTotalCrawlTimeMillis());
+        return summary;
+    }
+
+    private JSONObject latencySummaryOf(LatencyHistogram histogram) throws JSONException {
+        JSONObject latency = new JSONObject();
+        latency.put("count", histogram.getCount());
+        latency.put("meanMillis", histogram.getMeanMillis());
+        latency.put("maxMillis", histogram.getMaxMillis());
+        JSONObject buckets = new JSONObject();
+        for (Map.Entry<String, Long> bucket : histogram.getBuckets().entrySet()) {
+            buckets.put(bucket.getKey(), bucket.getValue().longValue());
+        }
+        latency.put("histogram", buckets);
+        return latency;
+    }
+
+    public void writeSummaryTo(File summaryFile) {
+        try {
+            Files.createParentDirs(summaryFile);
+            Files.asCharSink(summaryFile, Charsets.UTF_8).write(toJSON().toString(2));
+        } catch (IOException e) {
+            logger.warn("Could not write JIRA requirements metrics to " + summaryFile, e);
+        } catch (JSONException e) {
+            logger.warn("Could not write JIRA requirements metrics to " + summaryFile, e);
+        }
+    }
+}
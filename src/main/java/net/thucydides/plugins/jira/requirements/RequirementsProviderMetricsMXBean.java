@@ -0,0 +1,51 @@
+package net.thucydides.plugins.jira.requirements;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * JMX view of the requests the requirements provider sends to JIRA, and of the requirements trees it loads.
+ * Latency histograms map the upper bound of each bucket, in milliseconds, to the number of requests in that bucket.
+ */
+public interface RequirementsProviderMetricsMXBean {
+
+    long getJqlRequestCount();
+
+    long getKeyRequestCount();
+
+    long getFailedRequestCount();
+
+    long getIssuesReceived();
+
+    long getRetryCount();
+
+    long getThrottledResponseCount();
+
+    boolean isCircuitOpen();
+
+    double getMeanJqlLatencyMillis();
+
+    double getMeanKeyLatencyMillis();
+
+    long getMaxJqlLatencyMillis();
+
+    long getMaxKeyLatencyMillis();
+
+    Map<String, Long> getJqlLatencyHistogram();
+
+    Map<String, Long> getKeyLatencyHistogram();
+
+    double getIssueCacheHitRate();
+
+    double getQueryCacheHitRate();
+
+    int getExecutorQueueDepth();
+
+    int getPeakExecutorQueueDepth();
+
+    List<Integer> getRequirementsPerLevel();
+
+    long getLastCrawlTimeMillis();
+
+    long getTotalCrawlTimeMillis();
+}
@@ -0,0 +1,200 @@
+package net.thucydides.plugins.jira.requirements;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.io.Files;
+import net.thucydides.core.requirements.model.Requirement;
+import net.thucydides.plugins.jira.domain.IssueSummary;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A frozen copy of a requirements tree, along with what is needed to tag test outcomes with the issues they reference
+ * (summary, type and fix versions), so that reports can be produced without access to JIRA.
+ */
+public class RequirementsSnapshot {
+
+    private static final int FORMAT_VERSION = 1;
+    private static final String VERSION = "version";
+    private static final String EXPORTED_AT = "exportedAt";
+    private static final String PROJECT = "project";
+    private static final String PROJECTS = "projects";
+    private static final String REQUIREMENTS = "requirements";
+    private static final String ISSUES = "issues";
+    private static final String KEY = "key";
+    private static final String SUMMARY = "summary";
+    private static final String TYPE = "type";
+    private static final String FIX_VERSIONS = "fixVersions";
+
+    private final List<String> projectKeys;
+    private final long exportedAt;
+    private final List<Requirement> requirements;
+    private final Map<String, SnapshotIssue> issues;
+
+    RequirementsSnapshot(List<String> projectKeys, long exportedAt, List<Requirement> requirements,
+                         Map<String, SnapshotIssue> issues) {
+        this.projectKeys = ImmutableList.copyOf(projectKeys);
+        this.exportedAt = exportedAt;
+        this.requirements = ImmutableList.copyOf(requirements);
+        this.issues = ImmutableMap.copyOf(issues);
+    }
+
+    /**
+     * A snapshot of the given requirements, and of the issues loaded along with them.
+     * Every requirement in the tree is also recorded as an issue.
+     */
+    public static RequirementsSnapshot of(String projectKey, List<Requirement> requirements,
+                                          Collection<IssueSummary> loadedIssues) {
+        return of(ImmutableList.of(projectKey), requirements, loadedIssues);
+    }
+
+    /**
+     * A snapshot of requirements loaded from several projects. Numeric issue keys are resolved against the first project
+     * that has an issue with that number.
+     */
+    public static RequirementsSnapshot of(List<String> projectKeys, List<Requirement> requirements,
+                                          Collection<IssueSummary> loadedIssues) {
+        Map<String, SnapshotIssue> issues = Maps.newHashMap();
+        for (Requirement requirement : new RequirementsIndex(requirements).getFlattenedRequirements()) {
+            if (requirement.getCardNumber() != null) {
+                issues.put(requirement.getCardNumber().toUpperCase(),
+                           new SnapshotIssue(requirement.getCardNumber(), requirement.getName(), requirement.getType(),
+                                             requirement.getReleaseVersions()));
+            }
+        }
+        for (IssueSummary issue : loadedIssues) {
+            issues.put(issue.getKey().toUpperCase(),
+                       new SnapshotIssue(issue.getKey(), issue.getSummary(), issue.getType(), issue.getFixVersions()));
+        }
+        return new RequirementsSnapshot(projectKeys, System.currentTimeMillis(), requirements, issues);
+    }
+
+    public static RequirementsSnapshot readFrom(File snapshotFile) throws IOException, JSONException {
+        JSONObject snapshot = new JSONObject(Files.asCharSource(snapshotFile, Charsets.UTF_8).read());
+        if (snapshot.optInt(VERSION, 0) != FORMAT_VERSION) {
+            throw new JSONException("Unsupported requirements snapshot format in " + snapshotFile);
+        }
+        Map<String, SnapshotIssue> issues = Maps.newHashMap();
+        JSONArray serializedIssues = snapshot.getJSONArray(ISSUES);
+        for (int i = 0; i < serializedIssues.length(); i++) {
+            SnapshotIssue issue = SnapshotIssue.fromJSON(serializedIssues.getJSONObject(i));
+            issues.put(issue.getKey().toUpperCase(), issue);
+        }
+        return new RequirementsSnapshot(projectKeysIn(snapshot),
+                                        snapshot.optLong(EXPORTED_AT, 0),
+                                        new RequirementSerializer().fromJSON(snapshot.getJSONArray(REQUIREMENTS)),
+                                        issues);
+    }
+
+    private static List<String> projectKeysIn(JSONObject snapshot) throws JSONException {
+        JSONArray serializedProjectKeys = snapshot.optJSONArray(PROJECTS);
+        if (serializedProjectKeys == null) {
+            return ImmutableList.of(snapshot.getString(PROJECT));
+        }
+        List<String> projectKeys = Lists.newArrayList();
+        for (int i = 0; i < serializedProjectKeys.length(); i++) {
+            projectKeys.add(serializedProjectKeys.getString(i));
+        }
+        return projectKeys;
+    }
+
+    public void writeTo(File snapshotFile) throws IOException, JSONException {
+        JSONObject snapshot = new JSONObject();
+        snapshot.put(VERSION, FORMAT_VERSION);
+        snapshot.put(PROJECT, getProjectKey());
+        snapshot.put(PROJECTS, new JSONArray(projectKeys));
+        snapshot.put(EXPORTED_AT, exportedAt);
+        snapshot.put(REQUIREMENTS, new RequirementSerializer().toJSON(requirements));
+        JSONArray serializedIssues = new JSONArray();
+        for (SnapshotIssue issue : issues.values()) {
+            serializedIssues.put(issue.toJSON());
+        }
+        snapshot.put(ISSUES, serializedIssues);
+        Files.createParentDirs(snapshotFile);
+        Files.asCharSink(snapshotFile, Charsets.UTF_8).write(snapshot.toString());
+    }
+
+    public String getProjectKey() {
+        return projectKeys.get(0);
+    }
+
+    public List<String> getProjectKeys() {
+        return projectKeys;
+    }
+
+    public long getExportedAt() {
+        return exportedAt;
+    }
+
+    public List<Requirement> getRequirements() {
+        return requirements;
+    }
+
+    public Map<String, SnapshotIssue> getIssues() {
+        return issues;
+    }
+
+    /**
+     * The parts of a JIRA issue used to tag the test outcomes that reference it.
+     */
+    public static class SnapshotIssue {
+        private final String key;
+        private final String summary;
+        private final String type;
+        private final List<String> fixVersions;
+
+        SnapshotIssue(String key, String summary, String type, List<String> fixVersions) {
+            this.key = key;
+            this.summary = summary;
+            this.type = type;
+            this.fixVersions = (fixVersions == null) ? ImmutableList.<String>of() : ImmutableList.copyOf(fixVersions);
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        public String getSummary() {
+            return summary;
+        }
+
+        public String getType() {
+            return type;
+        }
+
+        public List<String> getFixVersions() {
+            return fixVersions;
+        }
+
+        private JSONObject toJSON() throws JSONException {
+            JSONObject issue = new JSONObject();
+            issue.put(KEY, key);
+            issue.put(SUMMARY, summary);
+            issue.put(TYPE, type);
+            issue.put(FIX_VERSIONS, new JSONArray(fixVersions));
+            return issue;
+        }
+
+        private static SnapshotIssue fromJSON(JSONObject issue) throws JSONException {
+            List<String> fixVersions = Lists.newArrayList();
+            JSONArray serializedVersions = issue.optJSONArray(FIX_VERSIONS);
+            if (serializedVersions != null) {
+                for (int i = 0; i < serializedVersions.length(); i++) {
+                    fixVersions.add(serializedVersions.getString(i));
+                }
+            }
+            return new SnapshotIssue(issue.getString(KEY), issue.optString(SUMMARY, null), issue.optString(TYPE, null),
+                                     fixVersions);
+        }
+    }
+}
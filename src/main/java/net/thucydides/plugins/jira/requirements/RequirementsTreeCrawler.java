@@ -0,0 +1,345 @@
+package net.thucydides.plugins.jira.requirements;
+
+import ch.lambdaj.function.convert.Converter;
+import com.google.common.base.Function;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.AsyncFunction;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import net.thucydides.core.requirements.model.Requirement;
+import net.thucydides.plugins.jira.domain.IssueSummary;
+import org.json.JSONException;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Crawls the requirements tree below a set of root issues.
+ * Each batch of parents is loaded as a separate task, and the children of a batch are dispatched as soon as they
+ * arrive, so every level of the tree is loaded concurrently, within the limits of the executor service.
+ * No task ever waits for another one: the tree is assembled by composing futures as the batches complete.
+ */
+public class RequirementsTreeCrawler {
+
+    private static final List<Requirement> NO_REQUIREMENTS = ImmutableList.of();
+    private static final Map<String, String> NO_PARENTS = ImmutableMap.of();
+
+    private final ChildIssueLoader childIssueLoader;
+    private final ListeningExecutorService executorService;
+    private final List<String> requirementsLinks;
+    private final Converter<IssueSummary, Requirement> requirementConverter;
+    private final CrawlTrace trace;
+
+    public RequirementsTreeCrawler(ChildIssueLoader childIssueLoader,
+                                   ListeningExecutorService executorService,
+                                   List<String> requirementsLinks,
+                                   Converter<IssueSummary, Requirement> requirementConverter) {
+        this(childIssueLoader, executorService, requirementsLinks, requirementConverter, CrawlTrace.disabled());
+    }
+
+    /**
+     * A crawler that records, in the given trace, how long each batch waits for an executor thread,
+     * and the tree level and parent cards of the JIRA requests each batch makes.
+     */
+    public RequirementsTreeCrawler(ChildIssueLoader childIssueLoader,
+                                   ListeningExecutorService executorService,
+                                   List<String> requirementsLinks,
+                                   Converter<IssueSummary, Requirement> requirementConverter,
+                                   CrawlTrace trace) {
+        this.childIssueLoader = childIssueLoader;
+        this.executorService = executorService;
+        this.requirementsLinks = ImmutableList.copyOf(requirementsLinks);
+        this.requirementConverter = requirementConverter;
+        this.trace = trace;
+    }
+
+    /**
+     * Load the requirements tree below the given root issues.
+     * An issue that is reached through several parents at the same level of the tree is only expanded once,
+     * and the resulting requirement is shared by all of these parents. An issue is never listed below itself:
+     * links back to one of its ancestors (on the path through which it was first reached) are ignored.
+     * Each requirement is created with its parent already set (the parent through which it was first reached),
+     * so the tree never needs to be copied once it has been assembled.
+     */
+    public ListenableFuture<List<Requirement>> crawl(List<IssueSummary> rootIssues) {
+        return crawl(rootIssues, new ConcurrentHashMap<String, SettableFuture<Requirement>>());
+    }
+
+    /**
+     * Load the requirements tree below root issues that are read a page at a time.
+     * The tree below each page is crawled as soon as the page arrives, while the next page is being read.
+     * Issues shared by several pages are still only expanded once.
+     */
+    public ListenableFuture<List<Requirement>> crawl(JQLPages rootIssuePages) throws JSONException {
+        ConcurrentMap<String, SettableFuture<Requirement>> expansions
+                = new ConcurrentHashMap<String, SettableFuture<Requirement>>();
+        List<ListenableFuture<List<Requirement>>> pages = Lists.newArrayList();
+        while (rootIssuePages.hasNext()) {
+            pages.add(crawl(rootIssuePages.next(), expansions));
+        }
+        return Futures.transform(Futures.allAsList(pages), new Function<List<List<Requirement>>, List<Requirement>>() {
+            @Override
+            public List<Requirement> apply(List<List<Requirement>> pageRequirements) {
+                List<Requirement> requirements = Lists.newArrayList();
+                for (List<Requirement> page : pageRequirements) {
+                    requirements.addAll(page);
+                }
+                return requirements;
+            }
+        }, MoreExecutors.sameThreadExecutor());
+    }
+
+    private ListenableFuture<List<Requirement>> crawl(List<IssueSummary> rootIssues,
+                                                      ConcurrentMap<String, SettableFuture<Requirement>> expansions) {
+        Map<String, Set<String>> noAncestors = Maps.newHashMap();
+        for (IssueSummary rootIssue : rootIssues) {
+            noAncestors.put(rootIssue.getKey(), ImmutableSet.<String>of());
+        }
+        return requirementsFor(rootIssues, 0, noAncestors, NO_PARENTS, expansions);
+    }
+
+    private ListenableFuture<List<Requirement>> requirementsFor(List<IssueSummary> issues,
+                                                                int level,
+                                                                Map<String, Set<String>> ancestorsByKey,
+                                                                Map<String, String> parentNamesByKey,
+                                                                ConcurrentMap<String, SettableFuture<Requirement>> expansions) {
+        if (issues.isEmpty()) {
+            return Futures.immediateFuture(NO_REQUIREMENTS);
+        }
+        List<ListenableFuture<Requirement>> requirements = Lists.newArrayList();
+        List<IssueSummary> issuesToExpand = Lists.newArrayList();
+        for (IssueSummary issue : issuesByKey(issues).values()) {
+            SettableFuture<Requirement> expansion = SettableFuture.create();
+            SettableFuture<Requirement> existingExpansion = expansions.putIfAbsent(expansionKey(issue, level), expansion);
+            if (existingExpansion == null) {
+                issuesToExpand.add(issue);
+                requirements.add(expansion);
+            } else {
+                requirements.add(existingExpansion);
+            }
+        }
+        if (level >= requirementsLinks.size()) {
+            for (IssueSummary issue : issuesToExpand) {
+                expansions.get(expansionKey(issue, level)).set(requirementFor(issue, parentNamesByKey));
+            }
+        } else {
+            for (List<IssueSummary> batch : batchesOf(issuesToExpand, level)) {
+                expand(batch, level, ancestorsByKey, parentNamesByKey, expansions);
+            }
+        }
+        return Futures.allAsList(requirements);
+    }
+
+    private String expansionKey(IssueSummary issue, int level) {
+        return level + ":" + issue.getKey();
+    }
+
+    private Requirement requirementFor(IssueSummary issue, Map<String, String> parentNamesByKey) {
+        Requirement requirement = requirementConverter.convert(issue);
+        String parentName = parentNamesByKey.get(issue.getKey());
+        return (parentName == null) ? requirement : requirement.withParent(parentName);
+    }
+
+    private void expand(List<IssueSummary> batch, int level, Map<String, Set<String>> ancestorsByKey,
+                        Map<String, String> parentNamesByKey,
+                        final ConcurrentMap<String, SettableFuture<Requirement>> expansions) {
+        final List<SettableFuture<Requirement>> batchExpansions = Lists.newArrayList();
+        for (IssueSummary issue : batch) {
+            batchExpansions.add(expansions.get(expansionKey(issue, level)));
+        }
+        Futures.addCallback(requirementsForBatch(batch, level, ancestorsByKey, parentNamesByKey, expansions),
+                            new FutureCallback<List<Requirement>>() {
+            @Override
+            public void onSuccess(List<Requirement> requirements) {
+                for (int i = 0; i < requirements.size(); i++) {
+                    batchExpansions.get(i).set(requirements.get(i));
+                }
+            }
+
+            @Override
+            public void onFailure(Throwable failure) {
+                for (SettableFuture<Requirement> expansion : batchExpansions) {
+                    expansion.setException(failure);
+                }
+            }
+        }, MoreExecutors.sameThreadExecutor());
+    }
+
+    private List<List<IssueSummary>> batchesOf(List<IssueSummary> issues, int level) {
+        Map<String, IssueSummary> issuesByKey = issuesByKey(issues);
+        List<List<IssueSummary>> batches = Lists.newArrayList();
+        for (List<String> batchKeys : childIssueLoader.batchesOf(issuesByKey.keySet(), requirementsLinks.get(level))) {
+            List<IssueSummary> batch = Lists.newArrayList();
+            for (String key : batchKeys) {
+                batch.add(issuesByKey.get(key));
+            }
+            batches.add(batch);
+        }
+        return batches;
+    }
+
+    private ListenableFuture<List<Requirement>> requirementsForBatch(final List<IssueSummary> parentIssues,
+                                                                     final int level,
+                                                                     final Map<String, Set<String>> ancestorsByKey,
+                                                                     final Map<String, String> parentNamesByKey,
+                                                                     final ConcurrentMap<String, SettableFuture<Requirement>> expansions) {
+        final List<String> parentKeys = keysOf(parentIssues);
+        final long submitted = trace.now();
+        ListenableFuture<Map<String, List<IssueSummary>>> childIssues
+                = executorService.submit(new Callable<Map<String, List<IssueSummary>>>() {
+            @Override
+            public Map<String, List<IssueSummary>> call() throws Exception {
+                trace.recordWait(level, parentKeys, submitted);
+                trace.enterLevel(level, parentKeys);
+                try {
+                    return childIssueLoader.findChildrenOf(parentKeys, requirementsLinks.get(level));
+                } finally {
+                    trace.leaveLevel();
+                }
+            }
+        });
+        return Futures.transform(childIssues, new AsyncFunction<Map<String, List<IssueSummary>>, List<Requirement>>() {
+            @Override
+            public ListenableFuture<List<Requirement>> apply(Map<String, List<IssueSummary>> loadedChildIssues) {
+                final Map<String, List<IssueSummary>> childIssuesByParent
+                        = withoutCycles(loadedChildIssues, ancestorsByKey);
+                Map<String, Set<String>> childAncestorsByKey = ancestorsOfChildren(childIssuesByParent, ancestorsByKey);
+                final List<Requirement> parentRequirements = Lists.newArrayList();
+                for (IssueSummary parentIssue : parentIssues) {
+                    parentRequirements.add(requirementFor(parentIssue, parentNamesByKey));
+                }
+                Map<String, String> childParentNames = parentNamesOfChildren(parentRequirements, childIssuesByParent);
+                List<IssueSummary> allChildIssues = Lists.newArrayList(issuesByKey(allIssuesIn(childIssuesByParent)).values());
+                return Futures.transform(requirementsFor(allChildIssues, level + 1, childAncestorsByKey, childParentNames,
+                                                         expansions),
+                                         new Function<List<Requirement>, List<Requirement>>() {
+                                             @Override
+                                             public List<Requirement> apply(List<Requirement> childRequirements) {
+                                                 return assemble(parentRequirements, childIssuesByParent,
+                                                                 childRequirements);
+                                             }
+                                         }, MoreExecutors.sameThreadExecutor());
+            }
+        }, MoreExecutors.sameThreadExecutor());
+    }
+
+    /**
+     * Leave out the children that are the parent itself, or one of its ancestors.
+     */
+    private Map<String, List<IssueSummary>> withoutCycles(Map<String, List<IssueSummary>> childIssuesByParent,
+                                                          Map<String, Set<String>> ancestorsByKey) {
+        Map<String, List<IssueSummary>> acyclicChildIssues = Maps.newHashMap();
+        for (Map.Entry<String, List<IssueSummary>> parentChildren : childIssuesByParent.entrySet()) {
+            String parentKey = parentChildren.getKey();
+            Set<String> ancestors = ancestorsOf(parentKey, ancestorsByKey);
+            List<IssueSummary> children = Lists.newArrayList();
+            for (IssueSummary child : parentChildren.getValue()) {
+                if (!child.getKey().equals(parentKey) && !ancestors.contains(child.getKey())) {
+                    children.add(child);
+                }
+            }
+            acyclicChildIssues.put(parentKey, children);
+        }
+        return acyclicChildIssues;
+    }
+
+    private Map<String, Set<String>> ancestorsOfChildren(Map<String, List<IssueSummary>> childIssuesByParent,
+                                                         Map<String, Set<String>> ancestorsByKey) {
+        Map<String, Set<String>> childAncestorsByKey = Maps.newHashMap();
+        for (Map.Entry<String, List<IssueSummary>> parentChildren : childIssuesByParent.entrySet()) {
+            Set<String> childAncestors = ImmutableSet.<String>builder()
+                                                     .addAll(ancestorsOf(parentChildren.getKey(), ancestorsByKey))
+                                                     .add(parentChildren.getKey())
+                                                     .build();
+            for (IssueSummary child : parentChildren.getValue()) {
+                if (!childAncestorsByKey.containsKey(child.getKey())) {
+                    childAncestorsByKey.put(child.getKey(), childAncestors);
+                }
+            }
+        }
+        return childAncestorsByKey;
+    }
+
+    /**
+     * The name of the parent each child issue is first reached through, in the order the parents were loaded.
+     */
+    private Map<String, String> parentNamesOfChildren(List<Requirement> parentRequirements,
+                                                      Map<String, List<IssueSummary>> childIssuesByParent) {
+        Map<String, String> parentNamesByKey = Maps.newHashMap();
+        for (Requirement parentRequirement : parentRequirements) {
+            List<IssueSummary> childIssues = childIssuesByParent.get(parentRequirement.getCardNumber());
+            if (childIssues != null) {
+                for (IssueSummary child : childIssues) {
+                    if (!parentNamesByKey.containsKey(child.getKey())) {
+                        parentNamesByKey.put(child.getKey(), parentRequirement.getName());
+                    }
+                }
+            }
+        }
+        return parentNamesByKey;
+    }
+
+    private Set<String> ancestorsOf(String key, Map<String, Set<String>> ancestorsByKey) {
+        return ancestorsByKey.containsKey(key) ? ancestorsByKey.get(key) : ImmutableSet.<String>of();
+    }
+
+    private List<Requirement> assemble(List<Requirement> parentRequirements,
+                                       Map<String, List<IssueSummary>> childIssuesByParent,
+                                       List<Requirement> childRequirements) {
+        Map<String, Requirement> childRequirementsByKey = Maps.newHashMap();
+        for (Requirement childRequirement : childRequirements) {
+            childRequirementsByKey.put(childRequirement.getCardNumber(), childRequirement);
+        }
+        List<Requirement> assembledRequirements = Lists.newArrayList();
+        for (Requirement parentRequirement : parentRequirements) {
+            List<IssueSummary> childIssues = childIssuesByParent.get(parentRequirement.getCardNumber());
+            if (childIssues != null && !childIssues.isEmpty()) {
+                List<Requirement> children = Lists.newArrayListWithCapacity(childIssues.size());
+                for (IssueSummary childIssue : childIssues) {
+                    children.add(childRequirementsByKey.get(childIssue.getKey()));
+                }
+                parentRequirement = parentRequirement.withChildren(children);
+            }
+            assembledRequirements.add(parentRequirement);
+        }
+        return assembledRequirements;
+    }
+
+    private Map<String, IssueSummary> issuesByKey(Iterable<IssueSummary> issues) {
+        Map<String, IssueSummary> issuesByKey = Maps.newLinkedHashMap();
+        for (IssueSummary issue : issues) {
+            if (!issuesByKey.containsKey(issue.getKey())) {
+                issuesByKey.put(issue.getKey(), issue);
+            }
+        }
+        return issuesByKey;
+    }
+
+    private List<IssueSummary> allIssuesIn(Map<String, List<IssueSummary>> issuesByParent) {
+        List<IssueSummary> issues = Lists.newArrayList();
+        for (List<IssueSummary> childIssues : issuesByParent.values()) {
+            issues.addAll(childIssues);
+        }
+        return issues;
+    }
+
+    private List<String> keysOf(List<IssueSummary> issues) {
+        List<String> keys = Lists.newArrayList();
+        for (IssueSummary issue : issues) {
+            keys.add(issue.getKey());
+        }
+        return keys;
+    }
+}
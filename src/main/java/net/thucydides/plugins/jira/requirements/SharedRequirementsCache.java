@@ -0,0 +1,225 @@
+package net.thucydides.plugins.jira.requirements;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Throwables;
+import com.google.common.io.Files;
+import net.thucydides.core.requirements.model.Requirement;
+import net.thucydides.core.util.EnvironmentVariables;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static net.thucydides.plugins.jira.requirements.JIRARequirementsConfiguration.JIRA_SHARED_CACHE;
+import static net.thucydides.plugins.jira.requirements.JIRARequirementsConfiguration.JIRA_SHARED_CACHE_DIRECTORY;
+import static net.thucydides.plugins.jira.requirements.JIRARequirementsConfiguration.JIRA_SHARED_CACHE_LOCK_TIMEOUT;
+import static net.thucydides.plugins.jira.requirements.JIRARequirementsConfiguration.JIRA_SHARED_CACHE_TTL;
+
+/**
+ * A requirements cache in the build directory, shared by all of the JVMs taking part in a build
+ * (forked test processes, the report aggregation step, and so on).
+ * Processes take turns through an exclusive file lock: the first one to get the lock loads the requirements
+ * from JIRA and stores them, and the others wait for it and then read the stored requirements.
+ * A process that waits longer than the lock timeout stops waiting and loads the requirements by itself.
+ * The cache directory is resolved against the build directory, which forked processes all agree on whatever their
+ * working directory; when the build directory is not known, the cache is only shared if its directory is absolute.
+ */
+public class SharedRequirementsCache {
+
+    private static final String DEFAULT_CACHE_DIRECTORY = "jira-requirements";
+    static int DEFAULT_TTL_IN_MINUTES = 60;
+    static int DEFAULT_LOCK_TIMEOUT_IN_SECONDS = 300;
+
+    private static final long LOCK_RETRY_INTERVAL_IN_MILLIS = 100;
+
+    /**
+     * File locks are held by the whole JVM, so threads of the same JVM also need to take turns.
+     */
+    private static final ConcurrentMap<String, ReentrantLock> LOCKS_IN_THIS_JVM
+            = new ConcurrentHashMap<String, ReentrantLock>();
+
+    private final org.slf4j.Logger logger = LoggerFactory.getLogger(SharedRequirementsCache.class);
+
+    private final boolean enabled;
+    private final RequirementsCache cache;
+    private final File lockFile;
+    private final long lockTimeoutInMillis;
+
+    public SharedRequirementsCache(EnvironmentVariables environmentVariables, String projectKey, String... cacheKeyElements) {
+        Optional<File> cacheDirectory = cacheDirectoryConfiguredIn(environmentVariables);
+        this.enabled = environmentVariables.getPropertyAsBoolean(JIRA_SHARED_CACHE.getName(), false)
+                       && cacheDirectory.isPresent();
+        this.cache = new RequirementsCache(
+                cacheDirectory.or(new File(DEFAULT_CACHE_DIRECTORY)),
+                environmentVariables.getPropertyAsInteger(JIRA_SHARED_CACHE_TTL.getName(), DEFAULT_TTL_IN_MINUTES),
+                projectKey, cacheKeyElements);
+        this.lockFile = new File(cache.getCacheFile().getPath() + ".lock");
+        this.lockTimeoutInMillis = TimeUnit.SECONDS.toMillis(
+                environmentVariables.getPropertyAsInteger(JIRA_SHARED_CACHE_LOCK_TIMEOUT.getName(),
+                                                          DEFAULT_LOCK_TIMEOUT_IN_SECONDS));
+    }
+
+    private Optional<File> cacheDirectoryConfiguredIn(EnvironmentVariables environmentVariables) {
+        File cacheDirectory = new File(environmentVariables.getProperty(JIRA_SHARED_CACHE_DIRECTORY.getName(),
+                                                                        DEFAULT_CACHE_DIRECTORY));
+        if (cacheDirectory.isAbsolute()) {
+            return Optional.of(cacheDirectory);
+        }
+        Optional<File> buildDirectory = buildDirectoryIn(environmentVariables);
+        if (buildDirectory.isPresent()) {
+            return Optional.of(new File(buildDirectory.get(), cacheDirectory.getPath()));
+        }
+        if (environmentVariables.getPropertyAsBoolean(JIRA_SHARED_CACHE.getName(), false)) {
+            logger.warn("The build directory is not known, so the requirements cache is not shared: set "
+                        + JIRA_SHARED_CACHE_DIRECTORY.getName() + " to an absolute path to share it");
+        }
+        return Optional.absent();
+    }
+
+    /**
+     * Maven passes basedir to forked test processes, and either property can be set for the other build tools.
+     */
+    private Optional<File> buildDirectoryIn(EnvironmentVariables environmentVariables) {
+        String buildDirectory = environmentVariables.getProperty("project.build.directory");
+        if (buildDirectory != null) {
+            return Optional.of(new File(buildDirectory));
+        }
+        String baseDirectory = environmentVariables.getProperty("basedir");
+        if (baseDirectory != null) {
+            return Optional.of(new File(baseDirectory, "target"));
+        }
+        return Optional.absent();
+    }
+
+    public boolean isEnabled() {
+        return enabled && cache.isEnabled();
+    }
+
+    public File getCacheFile() {
+        return cache.getCacheFile();
+    }
+
+    public Optional<List<Requirement>> load() {
+        return cache.load();
+    }
+
+    public void store(List<Requirement> requirements) {
+        cache.store(requirements);
+    }
+
+    /**
+     * Run the given action while no other process or thread sharing this cache can.
+     * If the lock file cannot be used, the action runs anyway, without protection from other processes.
+     * If the lock is still held by someone else once the lock timeout has expired, the fallback runs instead,
+     * without the lock: it should load the requirements without going through this cache.
+     */
+    public <T> T withExclusiveLock(Callable<T> action, Callable<T> fallback) {
+        long deadline = System.currentTimeMillis() + lockTimeoutInMillis;
+        ReentrantLock lockInThisJVM = lockInThisJVM();
+        if (!tryLock(lockInThisJVM)) {
+            logger.warn("Gave up waiting for the shared requirements cache " + lockFile + " after "
+                        + TimeUnit.MILLISECONDS.toSeconds(lockTimeoutInMillis) + " seconds: loading requirements locally");
+            return call(fallback);
+        }
+        try {
+            return withFileLock(action, fallback, deadline);
+        } finally {
+            lockInThisJVM.unlock();
+        }
+    }
+
+    private boolean tryLock(ReentrantLock lockInThisJVM) {
+        try {
+            return lockInThisJVM.tryLock(lockTimeoutInMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the shared requirements cache", e);
+        }
+    }
+
+    private ReentrantLock lockInThisJVM() {
+        String lockPath = lockFile.getAbsolutePath();
+        LOCKS_IN_THIS_JVM.putIfAbsent(lockPath, new ReentrantLock());
+        return LOCKS_IN_THIS_JVM.get(lockPath);
+    }
+
+    private <T> T withFileLock(Callable<T> action, Callable<T> fallback, long deadline) {
+        RandomAccessFile lockedFile = null;
+        FileLock fileLock = null;
+        try {
+            Files.createParentDirs(lockFile);
+            lockedFile = new RandomAccessFile(lockFile, "rw");
+            logger.debug("Waiting for the shared requirements cache lock {}", lockFile);
+            fileLock = fileLockBefore(deadline, lockedFile);
+            if (fileLock == null) {
+                logger.warn("Gave up waiting for the shared requirements cache lock " + lockFile
+                            + ": loading requirements locally");
+                release(null, lockedFile);
+                return call(fallback);
+            }
+        } catch (IOException e) {
+            logger.warn("Could not lock the shared requirements cache " + lockFile, e);
+        }
+        try {
+            return call(action);
+        } finally {
+            release(fileLock, lockedFile);
+        }
+    }
+
+    /**
+     * @return null if another process still holds the lock at the deadline
+     */
+    private FileLock fileLockBefore(long deadline, RandomAccessFile lockedFile) throws IOException {
+        while (true) {
+            FileLock fileLock = tryFileLock(lockedFile);
+            if (fileLock != null || System.currentTimeMillis() >= deadline) {
+                return fileLock;
+            }
+            try {
+                Thread.sleep(LOCK_RETRY_INTERVAL_IN_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting for the shared requirements cache", e);
+            }
+        }
+    }
+
+    private FileLock tryFileLock(RandomAccessFile lockedFile) throws IOException {
+        try {
+            return lockedFile.getChannel().tryLock();
+        } catch (OverlappingFileLockException lockedInThisJVM) {
+            return null;
+        }
+    }
+
+    private <T> T call(Callable<T> action) {
+        try {
+            return action.call();
+        } catch (Exception e) {
+            throw Throwables.propagate(e);
+        }
+    }
+
+    private void release(FileLock fileLock, RandomAccessFile lockedFile) {
+        try {
+            if (fileLock != null) {
+                fileLock.release();
+            }
+            if (lockedFile != null) {
+                lockedFile.close();
+            }
+        } catch (IOException e) {
+            logger.warn("Could not release the shared requirements cache lock " + lockFile, e);
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package net.thucydides.plugins.jira.requirements;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Sets;
+import net.thucydides.core.model.TestOutcome;
+import net.thucydides.core.model.TestTag;
+import net.thucydides.core.requirements.RequirementsTagProvider;
+import net.thucydides.core.requirements.model.Requirement;
+
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Serves requirements and test tags from a {@link RequirementsSnapshot}, without ever calling JIRA.
+ * Tags are the same as those the JIRA requirements provider finds, as long as the referenced issues are in the snapshot.
+ */
+public class SnapshotTagProvider implements RequirementsTagProvider {
+
+    private final RequirementsSnapshot snapshot;
+    private final RequirementsIndex requirementsIndex;
+
+    public SnapshotTagProvider(RequirementsSnapshot snapshot) {
+        this.snapshot = snapshot;
+        this.requirementsIndex = new RequirementsIndex(snapshot.getRequirements());
+    }
+
+    RequirementsIndex getRequirementsIndex() {
+        return requirementsIndex;
+    }
+
+    @Override
+    public List<Requirement> getRequirements() {
+        return requirementsIndex.getRequirements();
+    }
+
+    @Override
+    public Optional<Requirement> getParentRequirementOf(TestOutcome testOutcome) {
+        List<String> issueKeys = testOutcome.getIssueKeys();
+        if (issueKeys.isEmpty()) {
+            return Optional.absent();
+        }
+        String issueKey = decoded(issueKeys.get(0));
+        Optional<Requirement> requirement = requirementsIndex.getRequirementWithCardNumber(issueKey);
+        if (requirement.isPresent()) {
+            return requirement;
+        }
+        Optional<RequirementsSnapshot.SnapshotIssue> issue = issueWithKey(issueKey);
+        if (issue.isPresent()) {
+            return Optional.of(Requirement.named(issue.get().getSummary())
+                                          .withOptionalCardNumber(issue.get().getKey())
+                                          .withType(issue.get().getType())
+                                          .withNarrative("")
+                                          .withReleaseVersions(issue.get().getFixVersions()));
+        }
+        return Optional.absent();
+    }
+
+    @Override
+    public Optional<Requirement> getRequirementFor(TestTag testTag) {
+        return requirementsIndex.getRequirementWithTypeAndName(testTag.getType(), testTag.getName());
+    }
+
+    @Override
+    public Set<TestTag> getTagsFor(TestOutcome testOutcome) {
+        Set<TestTag> tags = Sets.newHashSet();
+        for (String issueKey : testOutcome.getIssueKeys()) {
+            String decodedIssueKey = decoded(issueKey);
+            Optional<RequirementsSnapshot.SnapshotIssue> issue = issueWithKey(decodedIssueKey);
+            if (issue.isPresent()) {
+                tags.add(TestTag.withName(issue.get().getSummary()).andType(issue.get().getType()));
+            }
+            Optional<Requirement> requirement = requirementsIndex.getRequirementWithCardNumber(decodedIssueKey);
+            if (requirement.isPresent()) {
+                tags.add(requirement.get().asTag());
+                for (Requirement ancestor : requirementsIndex.getAncestorsOf(decodedIssueKey)) {
+                    tags.add(ancestor.asTag());
+                }
+            }
+            if (issue.isPresent()) {
+                for (String version : issue.get().getFixVersions()) {
+                    tags.add(TestTag.withName(version).andType("Version"));
+                }
+            }
+        }
+        return ImmutableSet.copyOf(tags);
+    }
+
+    private Optional<RequirementsSnapshot.SnapshotIssue> issueWithKey(String issueKey) {
+        return Optional.fromNullable(snapshot.getIssues().get(issueKey.toUpperCase()));
+    }
+
+    private String decoded(String issueKey) {
+        List<String> candidateKeys = IssueTagReader.candidateKeys(issueKey, snapshot.getProjectKeys());
+        for (String candidateKey : candidateKeys) {
+            if (issueWithKey(candidateKey).isPresent()
+                    || requirementsIndex.getRequirementWithCardNumber(candidateKey).isPresent()) {
+                return candidateKey;
+            }
+        }
+        return candidateKeys.get(0);
+    }
+}
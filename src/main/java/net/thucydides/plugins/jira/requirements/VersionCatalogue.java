@@ -0,0 +1,177 @@
+package net.thucydides.plugins.jira.requirements;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Maps;
+import net.thucydides.plugins.jira.domain.IssueSummary;
+import org.json.JSONException;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The fix versions of the issues of the configured projects, so that version tags can be found without asking JIRA
+ * about each issue. Each project is catalogued once per time-to-live: its versions are read first, and if it has any,
+ * the issues that have a fix version are read in a single search. Any other issue of a catalogued project has no
+ * fix version. The issues that tagging test outcomes has loaded are included as they are read, as they are newer.
+ * An issue whose project could not be catalogued is not known to the catalogue.
+ */
+public class VersionCatalogue {
+
+    private static final List<String> NO_VERSIONS = ImmutableList.of();
+
+    private final org.slf4j.Logger logger = LoggerFactory.getLogger(VersionCatalogue.class);
+
+    private final ConfigurableJiraClient jiraClient;
+    private final List<String> projectKeys;
+    private final long timeToLiveInMillis;
+
+    private final ConcurrentMap<String, CataloguedVersions> versionsByIssueKey
+            = new ConcurrentHashMap<String, CataloguedVersions>();
+    private final ConcurrentMap<String, CataloguedProject> cataloguedProjects
+            = new ConcurrentHashMap<String, CataloguedProject>();
+
+    public VersionCatalogue(ConfigurableJiraClient jiraClient, List<String> projectKeys,
+                            long timeToLive, TimeUnit timeUnit) {
+        this.jiraClient = jiraClient;
+        this.projectKeys = ImmutableList.copyOf(projectKeys);
+        this.timeToLiveInMillis = timeUnit.toMillis(timeToLive);
+    }
+
+    /**
+     * The fix versions of the given issue, or nothing if the catalogue does not know the issue,
+     * in which case the issue itself needs to be read.
+     */
+    public Optional<List<String>> getVersionsOf(String issueKey) {
+        Optional<String> projectKey = projectOf(issueKey);
+        if (!projectKey.isPresent()) {
+            return Optional.absent();
+        }
+        CataloguedVersions versions = versionsByIssueKey.get(issueKey.toUpperCase());
+        if (versions != null && !versions.expired()) {
+            return Optional.of(versions.getVersions());
+        }
+        Optional<CataloguedProject> project = cataloguedProject(projectKey.get());
+        if (project.isPresent()) {
+            return Optional.of(project.get().versionsOf(issueKey.toUpperCase()));
+        }
+        return Optional.absent();
+    }
+
+    /**
+     * Record the versions of issues that have been read from JIRA in the meantime.
+     */
+    public void include(Collection<IssueSummary> issues) {
+        for (IssueSummary issue : issues) {
+            if (projectOf(issue.getKey()).isPresent()) {
+                versionsByIssueKey.put(issue.getKey().toUpperCase(), new CataloguedVersions(versionsOf(issue)));
+            }
+        }
+    }
+
+    private Optional<CataloguedProject> cataloguedProject(String projectKey) {
+        CataloguedProject project = cataloguedProjects.get(projectKey);
+        if (project != null && !project.expired()) {
+            return Optional.of(project);
+        }
+        synchronized (this) {
+            project = cataloguedProjects.get(projectKey);
+            if (project == null || project.expired()) {
+                Optional<CataloguedProject> loadedProject = loadProject(projectKey);
+                if (!loadedProject.isPresent()) {
+                    return Optional.absent();
+                }
+                project = loadedProject.get();
+                cataloguedProjects.put(projectKey, project);
+            }
+            return Optional.of(project);
+        }
+    }
+
+    /**
+     * Nothing if JIRA could not be read, so that the project is catalogued again on the next lookup
+     * rather than remembered as having no versions.
+     */
+    private Optional<CataloguedProject> loadProject(String projectKey) {
+        try {
+            Optional<List<String>> projectVersions = jiraClient.findVersionsOf(projectKey);
+            if (!projectVersions.isPresent()) {
+                return Optional.absent();
+            }
+            Map<String, List<String>> versionsByIssue = Maps.newHashMap();
+            if (!projectVersions.get().isEmpty()) {
+                int jiraErrorsBefore = jiraClient.getJiraErrors();
+                List<IssueSummary> issues
+                        = jiraClient.findByJQL("project = " + projectKey + " AND fixVersion is not EMPTY");
+                if (jiraClient.getJiraErrors() != jiraErrorsBefore) {
+                    return Optional.absent();
+                }
+                for (IssueSummary issue : issues) {
+                    versionsByIssue.put(issue.getKey().toUpperCase(), versionsOf(issue));
+                }
+            }
+            return Optional.of(new CataloguedProject(versionsByIssue));
+        } catch (JSONException e) {
+            logger.warn("Could not catalogue the versions of project " + projectKey, e);
+            return Optional.absent();
+        }
+    }
+
+    private List<String> versionsOf(IssueSummary issue) {
+        List<String> versions = RequirementValues.interned(issue.getFixVersions());
+        return (versions == null) ? NO_VERSIONS : versions;
+    }
+
+    private Optional<String> projectOf(String issueKey) {
+        for (String projectKey : projectKeys) {
+            if (issueKey.toUpperCase().startsWith(projectKey.toUpperCase() + "-")) {
+                return Optional.of(projectKey);
+            }
+        }
+        return Optional.absent();
+    }
+
+    private boolean expired(long cataloguedAt) {
+        return System.currentTimeMillis() - cataloguedAt >= timeToLiveInMillis;
+    }
+
+    private class CataloguedVersions {
+        private final List<String> versions;
+        private final long cataloguedAt = System.currentTimeMillis();
+
+        CataloguedVersions(List<String> versions) {
+            this.versions = versions;
+        }
+
+        List<String> getVersions() {
+            return versions;
+        }
+
+        boolean expired() {
+            return VersionCatalogue.this.expired(cataloguedAt);
+        }
+    }
+
+    private class CataloguedProject {
+        private final Map<String, List<String>> versionsByIssueKey;
+        private final long cataloguedAt = System.currentTimeMillis();
+
+        CataloguedProject(Map<String, List<String>> versionsByIssueKey) {
+            this.versionsByIssueKey = versionsByIssueKey;
+        }
+
+        List<String> versionsOf(String issueKey) {
+            List<String> versions = versionsByIssueKey.get(issueKey);
+            return (versions == null) ? NO_VERSIONS : versions;
+        }
+
+        boolean expired() {
+            return VersionCatalogue.this.expired(cataloguedAt);
+        }
+    }
+}
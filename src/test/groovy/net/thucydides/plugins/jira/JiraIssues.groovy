@@ -0,0 +1,62 @@
+package net.thucydides.plugins.jira
+
+import com.google.common.collect.HashMultimap
+import net.thucydides.plugins.jira.domain.IssueSummary
+import net.thucydides.plugins.jira.domain.RenderedView
+import net.thucydides.plugins.jira.requirements.LinkedIssueSummary
+
+/**
+ * Issues as the JIRA client returns them, for the specs that crawl, convert or cache requirements.
+ * Every issue has a summary, a raw and a rendered description and a list of fix versions, so that it can go through
+ * the provider's real field mapping. The summary, fix versions and custom field values can be given by name:
+ * <pre>
+ *     issue("TRAD-21", "Story", summary: "Renamed story", customFields: ["Epic Link": "TRAD-2"])
+ * </pre>
+ */
+class JiraIssues {
+
+    static IssueSummary issue(String key, String type) {
+        issue([:], key, type)
+    }
+
+    static IssueSummary issue(Map properties, String key, String type) {
+        new IssueSummary(null, null, key, summaryOf(properties, key), "Description of " + key, renderedViewOf(key),
+                         type, null, [], fixVersionsOf(properties), customFieldsOf(properties))
+    }
+
+    /**
+     * An issue read with its issue links, as returned by the searches of the ConfigurableJiraClient.
+     */
+    static LinkedIssueSummary linkedIssue(String key, String type, String linkType, Collection<String> linkingKeys) {
+        linkedIssue([:], key, type, linkType, linkingKeys)
+    }
+
+    static LinkedIssueSummary linkedIssue(Map properties, String key, String type, String linkType,
+                                          Collection<String> linkingKeys) {
+        def linkingIssueKeys = HashMultimap.create()
+        linkingIssueKeys.putAll(linkType.toLowerCase(), linkingKeys)
+        new LinkedIssueSummary(null, null, key, summaryOf(properties, key), "Description of " + key,
+                               renderedViewOf(key), type, null, [], fixVersionsOf(properties),
+                               customFieldsOf(properties), linkingIssueKeys)
+    }
+
+    static String renderedDescriptionOf(String key) {
+        "<p>Description of " + key + "</p>"
+    }
+
+    private static RenderedView renderedViewOf(String key) {
+        new RenderedView(renderedDescriptionOf(key), [:])
+    }
+
+    private static String summaryOf(Map properties, String key) {
+        properties.summary ?: "Summary of " + key
+    }
+
+    private static List<String> fixVersionsOf(Map properties) {
+        properties.fixVersions ?: []
+    }
+
+    private static Map<String, Object> customFieldsOf(Map properties) {
+        properties.customFields ?: [:]
+    }
+}
@@ -0,0 +1,97 @@
+package net.thucydides.plugins.jira
+
+import com.google.common.base.Optional
+import com.sun.net.httpserver.HttpExchange
+import com.sun.net.httpserver.HttpHandler
+import com.sun.net.httpserver.HttpServer
+import net.thucydides.core.util.MockEnvironmentVariables
+import net.thucydides.plugins.jira.requirements.ConfigurableJiraClient
+import net.thucydides.plugins.jira.requirements.IssueCache
+import spock.lang.Specification
+
+import java.util.concurrent.Callable
+import java.util.concurrent.TimeUnit
+
+import static net.thucydides.plugins.jira.JiraIssues.issue
+
+class WhenCachingJiraIssues extends Specification {
+
+    def cache = new IssueCache(100, 10, TimeUnit.MINUTES)
+
+    def "should only load an issue once"() {
+        given:
+            def loader = Mock(Callable)
+            def story = issue("TRAD-5", "Story")
+        when:
+            cache.getIssue("TRAD-5", loader)
+            def cachedIssue = cache.getIssue("trad-5", loader)
+        then:
+            1 * loader.call() >> Optional.of(story)
+        and:
+            cachedIssue.get() == story
+        and:
+            cache.issueStats.hitCount() == 1 && cache.issueStats.missCount() == 1
+    }
+
+    def "should remember issues that do not exist"() {
+        given:
+            def loader = Mock(Callable)
+        when:
+            cache.getIssue("UNKNOWN-1", loader)
+            def cachedIssue = cache.getIssue("UNKNOWN-1", loader)
+        then:
+            1 * loader.call() >> Optional.absent()
+        and:
+            !cachedIssue.isPresent()
+    }
+
+    def "should cache the issues returned by a query individually"() {
+        given:
+            def story = issue("TRAD-5", "Story")
+            def loader = Mock(Callable)
+        when:
+            cache.getQueryResults("'Epic Link' in (TRAD-4)", { [story] } as Callable)
+            def cachedIssue = cache.getIssue("TRAD-5", loader)
+        then:
+            0 * loader.call()
+        and:
+            cachedIssue.get() == story
+    }
+
+    def "should not cache failed loads"() {
+        given:
+            def loader = Mock(Callable)
+        when:
+            cache.getIssue("TRAD-5", loader)
+        then:
+            1 * loader.call() >> { throw new IllegalStateException("JIRA is down") }
+            thrown(IllegalStateException)
+        and:
+            cache.getCachedIssues(["TRAD-5"]).isEmpty()
+    }
+
+    def "should look an issue up again after JIRA rejected the credentials"() {
+        given:
+            def requests = Collections.synchronizedList([])
+            def server = HttpServer.create(new InetSocketAddress("localhost", 0), 0)
+            server.createContext("/", { HttpExchange exchange ->
+                requests << exchange.requestURI
+                exchange.sendResponseHeaders(401, -1)
+                exchange.close()
+            } as HttpHandler)
+            server.start()
+            def client = new ConfigurableJiraClient("http://localhost:" + server.address.port, "user", "password",
+                                                    "TRAD", [], new MockEnvironmentVariables())
+        when:
+            def firstLookup = client.findByKey("TRAD-5")
+            def secondLookup = client.findByKey("TRAD-5")
+        then:
+            !firstLookup.isPresent() && !secondLookup.isPresent()
+            requests.size() == 2
+            client.jiraErrors == 2
+        and:
+            client.issueCache.getCachedIssues(["TRAD-5"]).isEmpty()
+        cleanup:
+            server?.stop(0)
+    }
+}
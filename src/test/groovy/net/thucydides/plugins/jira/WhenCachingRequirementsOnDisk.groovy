@@ -0,0 +1,121 @@
+package net.thucydides.plugins.jira
+
+import net.thucydides.core.requirements.model.Requirement
+import net.thucydides.core.util.MockEnvironmentVariables
+import net.thucydides.plugins.jira.requirements.RequirementsCache
+import spock.lang.Specification
+
+import java.util.concurrent.Callable
+import java.util.concurrent.Executors
+
+class WhenCachingRequirementsOnDisk extends Specification {
+
+    def environmentVariables = new MockEnvironmentVariables()
+    File cacheDirectory
+
+    def setup() {
+        cacheDirectory = File.createTempFile("requirements", "cache")
+        cacheDirectory.delete()
+        cacheDirectory.mkdirs()
+        environmentVariables.setProperty('jira.requirements.cache.dir', cacheDirectory.absolutePath)
+    }
+
+    def cleanup() {
+        cacheDirectory.deleteDir()
+    }
+
+    def requirementsTree() {
+        def story = Requirement.named("Post item for sale").withOptionalCardNumber("TRAD-5")
+                               .withType("Story").withNarrative("As a seller")
+                               .withReleaseVersions(["Release 1"])
+                               .withCustomField("Acceptance Criteria").setTo("- get paid", "<p>- get paid</p>")
+                               .withParent("Selling stuff")
+        def epic = Requirement.named("Selling stuff").withOptionalCardNumber("TRAD-4")
+                              .withType("Epic").withNarrative("Sell things online")
+                              .withReleaseVersions([])
+        return [epic.withChildren([story])]
+    }
+
+    def "should not cache anything unless a time-to-live is configured"() {
+        given:
+            def cache = new RequirementsCache(environmentVariables, "TRAD", "epic", "Epic Link", "")
+        when:
+            cache.store(requirementsTree())
+        then:
+            !cache.enabled && !cache.load().isPresent()
+    }
+
+    def "should reload a cached requirements tree"() {
+        given:
+            environmentVariables.setProperty('jira.requirements.cache.ttl', '60')
+            def cache = new RequirementsCache(environmentVariables, "TRAD", "epic", "Epic Link", "")
+        when:
+            cache.store(requirementsTree())
+            def reloaded = cache.load()
+        then:
+            reloaded.isPresent()
+        and:
+            def epic = reloaded.get().get(0)
+            epic.cardNumber == "TRAD-4" && epic.type == "Epic"
+        and:
+            def story = epic.children.get(0)
+            story.cardNumber == "TRAD-5" &&
+            story.parent == "Selling stuff" &&
+            story.releaseVersions == ["Release 1"] &&
+            story.getCustomField("Acceptance Criteria").get().text == "- get paid"
+    }
+
+    def "should share repeated values between reloaded requirements"() {
+        given:
+            environmentVariables.setProperty('jira.requirements.cache.ttl', '60')
+            def cache = new RequirementsCache(environmentVariables, "TRAD", "epic", "Epic Link", "")
+        when:
+            cache.store(requirementsTree() + requirementsTree())
+            def reloaded = cache.load().get()
+        then:
+            reloaded[0].type.is(reloaded[1].type)
+            reloaded[0].children[0].parent.is(reloaded[0].name)
+    }
+
+    def "should keep separate cache entries for different requirement structures"() {
+        given:
+            environmentVariables.setProperty('jira.requirements.cache.ttl', '60')
+            def epicCache = new RequirementsCache(environmentVariables, "TRAD", "epic", "Epic Link", "")
+            def linkedCache = new RequirementsCache(environmentVariables, "TRAD", "epic", "Epic Link,relates to", "")
+        when:
+            epicCache.store(requirementsTree())
+        then:
+            epicCache.cacheFile != linkedCache.cacheFile && !linkedCache.load().isPresent()
+    }
+
+    def "should keep separate cache entries for projects with the same key on different JIRA servers"() {
+        given:
+            environmentVariables.setProperty('jira.requirements.cache.ttl', '60')
+            def firstServerCache = new RequirementsCache(environmentVariables, "TRAD", "http://jira-1", "epic",
+                                                         "Epic Link", "")
+            def secondServerCache = new RequirementsCache(environmentVariables, "TRAD", "http://jira-2", "epic",
+                                                          "Epic Link", "")
+        when:
+            firstServerCache.store(requirementsTree())
+        then:
+            firstServerCache.cacheFile != secondServerCache.cacheFile && !secondServerCache.load().isPresent()
+    }
+
+    def "should let several writers store the same requirements at the same time"() {
+        given:
+            environmentVariables.setProperty('jira.requirements.cache.ttl', '60')
+            def executor = Executors.newFixedThreadPool(4)
+            def writers = (1..4).collect {
+                { -> new RequirementsCache(environmentVariables, "TRAD", "epic", "Epic Link", "")
+                             .store(requirementsTree()) } as Callable
+            }
+        when:
+            executor.invokeAll(writers)*.get()
+        then:
+            new RequirementsCache(environmentVariables, "TRAD", "epic", "Epic Link", "").load().isPresent()
+            cacheDirectory.list() as List == [new RequirementsCache(environmentVariables, "TRAD", "epic",
+                                                                    "Epic Link", "").cacheFile.name]
+        cleanup:
+            executor.shutdownNow()
+    }
+}
@@ -0,0 +1,110 @@
+package net.thucydides.plugins.jira
+
+import com.google.common.base.Optional
+import net.thucydides.plugins.jira.requirements.ConfigurableJiraClient
+import net.thucydides.plugins.jira.requirements.VersionCatalogue
+import spock.lang.Specification
+
+import java.util.concurrent.TimeUnit
+
+import static net.thucydides.plugins.jira.JiraIssues.issue
+
+class WhenCataloguingVersions extends Specification {
+
+    static final String ISSUES_WITH_VERSIONS = "project = TRAD AND fixVersion is not EMPTY"
+
+    def jiraClient = Mock(ConfigurableJiraClient)
+
+    def "should load the versions of a project once, rather than reading each issue"() {
+        given:
+            def catalogue = new VersionCatalogue(jiraClient, ["TRAD"], 10, TimeUnit.MINUTES)
+        when:
+            def firstVersions = catalogue.getVersionsOf("TRAD-1")
+            def secondVersions = catalogue.getVersionsOf("TRAD-2")
+            def unversioned = catalogue.getVersionsOf("TRAD-3")
+        then:
+            1 * jiraClient.findVersionsOf("TRAD") >> Optional.of(["Release 1", "Release 2"])
+            1 * jiraClient.findByJQL(ISSUES_WITH_VERSIONS) >> [issue("TRAD-1", "Story", fixVersions: ["Release 1"]),
+                                                               issue("TRAD-2", "Story", fixVersions: ["Release 2"])]
+            0 * jiraClient.findByKey(_)
+            0 * jiraClient.findByKeys(_)
+        and:
+            firstVersions.get() == ["Release 1"]
+            secondVersions.get() == ["Release 2"]
+            unversioned.get() == []
+    }
+
+    def "should not search for the issues of a project without versions"() {
+        given:
+            def catalogue = new VersionCatalogue(jiraClient, ["TRAD"], 10, TimeUnit.MINUTES)
+        when:
+            def versions = catalogue.getVersionsOf("TRAD-1")
+        then:
+            1 * jiraClient.findVersionsOf("TRAD") >> Optional.of([])
+            0 * jiraClient.findByJQL(_)
+        and:
+            versions.get() == []
+    }
+
+    def "should use issues loaded while tagging test outcomes"() {
+        given:
+            def catalogue = new VersionCatalogue(jiraClient, ["TRAD"], 10, TimeUnit.MINUTES)
+        when:
+            catalogue.include([issue("trad-1", "Story", fixVersions: ["Release 1"]),
+                               issue("OTHER-1", "Story", fixVersions: ["Release 2"])])
+        then:
+            catalogue.getVersionsOf("TRAD-1").get() == ["Release 1"]
+            !catalogue.getVersionsOf("OTHER-1").isPresent()
+        and:
+            0 * jiraClient.findVersionsOf(_)
+    }
+
+    def "should not know issues from other projects"() {
+        given:
+            def catalogue = new VersionCatalogue(jiraClient, ["TRAD"], 10, TimeUnit.MINUTES)
+        when:
+            def versions = catalogue.getVersionsOf("OTHER-1")
+        then:
+            0 * jiraClient.findVersionsOf(_)
+        and:
+            !versions.isPresent()
+    }
+
+    def "should catalogue a project again once it has expired"() {
+        given:
+            def catalogue = new VersionCatalogue(jiraClient, ["TRAD"], 0, TimeUnit.MINUTES)
+        when:
+            catalogue.getVersionsOf("TRAD-1")
+            def versions = catalogue.getVersionsOf("TRAD-1")
+        then:
+            2 * jiraClient.findVersionsOf("TRAD") >>> [Optional.of([]), Optional.of(["Release 1"])]
+            1 * jiraClient.findByJQL(ISSUES_WITH_VERSIONS) >> [issue("TRAD-1", "Story", fixVersions: ["Release 1"])]
+        and:
+            versions.get() == ["Release 1"]
+    }
+
+    def "should not remember a project whose versions could not be read"() {
+        given:
+            def catalogue = new VersionCatalogue(jiraClient, ["TRAD"], 10, TimeUnit.MINUTES)
+        when:
+            def unknown = catalogue.getVersionsOf("TRAD-1")
+            def versions = catalogue.getVersionsOf("TRAD-1")
+        then:
+            2 * jiraClient.findVersionsOf("TRAD") >>> [Optional.absent(), Optional.of([])]
+        and:
+            !unknown.isPresent()
+            versions.get() == []
+    }
+
+    def "should not remember a project whose issues could not be searched"() {
+        given:
+            def catalogue = new VersionCatalogue(jiraClient, ["TRAD"], 10, TimeUnit.MINUTES)
+            jiraClient.findVersionsOf("TRAD") >> Optional.of(["Release 1"])
+            jiraClient.getJiraErrors() >>> [0, 1]
+            jiraClient.findByJQL(ISSUES_WITH_VERSIONS) >> []
+        when:
+            def versions = catalogue.getVersionsOf("TRAD-1")
+        then:
+            !versions.isPresent()
+    }
+}
@@ -0,0 +1,90 @@
+package net.thucydides.plugins.jira
+
+import com.google.common.base.Optional
+import net.thucydides.plugins.jira.requirements.CrawlerExecutors
+import net.thucydides.plugins.jira.requirements.RequirementsProviderMetrics
+import spock.lang.Specification
+
+import java.util.concurrent.Callable
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+import static net.thucydides.plugins.jira.requirements.CrawlerExecutors.ExecutionMode.THREADS
+import static net.thucydides.plugins.jira.requirements.CrawlerExecutors.ExecutionMode.VIRTUAL
+
+class WhenChoosingHowToRunJiraRequests extends Specification {
+
+    def "should read the execution mode whatever its case"() {
+        expect:
+            CrawlerExecutors.ExecutionMode.fromName(name) == mode
+        where:
+            name      | mode
+            "threads" | THREADS
+            "VIRTUAL" | VIRTUAL
+            "Virtual" | VIRTUAL
+    }
+
+    def "should reject unknown execution modes"() {
+        when:
+            CrawlerExecutors.ExecutionMode.fromName("fibers")
+        then:
+            thrown(IllegalArgumentException)
+    }
+
+    def "should never run more requests at the same time than allowed"() {
+        given:
+            def executor = CrawlerExecutors.newExecutor(mode, 3, new RequirementsProviderMetrics())
+            def running = new AtomicInteger()
+            def maxRunning = new AtomicInteger()
+            def request = {
+                def nowRunning = running.incrementAndGet()
+                synchronized (maxRunning) {
+                    maxRunning.set(Math.max(maxRunning.get(), nowRunning))
+                }
+                Thread.sleep(10)
+                running.decrementAndGet()
+            } as Callable
+        when:
+            def results = (1..20).collect { executor.submit(request) }
+            results*.get()
+        then:
+            maxRunning.get() <= 3
+        cleanup:
+            executor.shutdown()
+            executor.awaitTermination(1, TimeUnit.SECONDS)
+        where:
+            mode << [THREADS, VIRTUAL]
+    }
+
+    def "should fall back to a fixed pool of threads when virtual threads are not available"() {
+        given:
+            def metrics = new RequirementsProviderMetrics()
+            def executor = CrawlerExecutors.newExecutor(VIRTUAL, 3, metrics, Optional.<ExecutorService>absent())
+            def threadNames = Collections.synchronizedSet([] as Set)
+            def request = {
+                threadNames << Thread.currentThread().name
+                Thread.sleep(10)
+            } as Callable
+        when:
+            def results = (1..20).collect { executor.submit(request) }
+            results*.get()
+        then:
+            threadNames.size() <= 3
+            threadNames.every { it.startsWith("jira-requirements-") }
+        cleanup:
+            executor.shutdown()
+            executor.awaitTermination(1, TimeUnit.SECONDS)
+    }
+
+    def "should start each request on a virtual thread when they are available"() {
+        given:
+            def virtualThreads = Mock(ExecutorService)
+            def executor = CrawlerExecutors.newExecutor(VIRTUAL, 3, new RequirementsProviderMetrics(),
+                                                        Optional.of(virtualThreads))
+        when:
+            executor.execute({} as Runnable)
+        then:
+            1 * virtualThreads.execute(_ as Runnable)
+    }
+}
@@ -0,0 +1,110 @@
+package net.thucydides.plugins.jira
+
+import ch.lambdaj.function.convert.Converter
+import com.google.common.util.concurrent.MoreExecutors
+import net.thucydides.core.requirements.model.Requirement
+import net.thucydides.plugins.jira.client.JerseyJiraClient
+import net.thucydides.plugins.jira.domain.IssueSummary
+import net.thucydides.plugins.jira.requirements.ChildIssueLoader
+import net.thucydides.plugins.jira.requirements.RequirementsTreeCrawler
+import spock.lang.Specification
+
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+
+import static net.thucydides.plugins.jira.JiraIssues.issue
+import static net.thucydides.plugins.jira.requirements.ChildIssueLoader.childIssuesJQL
+
+class WhenCrawlingRequirementsConcurrently extends Specification {
+
+    def jiraClient = Mock(JerseyJiraClient)
+    def childIssueLoader = new ChildIssueLoader(jiraClient, 1, 2000)
+    def converter = { IssueSummary issue ->
+        Requirement.named(issue.summary).withOptionalCardNumber(issue.key).withType(issue.type).withNarrative("")
+    } as Converter<IssueSummary, Requirement>
+    def executors = []
+
+    def firstCapability = issue("TRAD-1", "Capability")
+    def secondCapability = issue("TRAD-2", "Capability")
+    def feature = issue("TRAD-3", "Feature")
+    def story = issue("TRAD-4", "Story")
+
+    def crawlerWithThreads(int threads) {
+        def executor = MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(threads))
+        executors << executor
+        new RequirementsTreeCrawler(childIssueLoader, executor, ["relates to", "relates to"], converter)
+    }
+
+    def childrenOf(String parentKey) {
+        childIssuesJQL([parentKey], "relates to")
+    }
+
+    def cleanup() {
+        executors*.shutdownNow()
+    }
+
+    def "should load the children of several parents at the same time"() {
+        given:
+            def bothParentsLoading = new CountDownLatch(2)
+            def loadedTogether = Collections.synchronizedList([])
+            jiraClient.findByJQL(childrenOf("TRAD-1")) >> {
+                bothParentsLoading.countDown()
+                loadedTogether << bothParentsLoading.await(5, TimeUnit.SECONDS)
+                []
+            }
+            jiraClient.findByJQL(childrenOf("TRAD-2")) >> {
+                bothParentsLoading.countDown()
+                loadedTogether << bothParentsLoading.await(5, TimeUnit.SECONDS)
+                []
+            }
+        when:
+            def requirements = crawlerWithThreads(2).crawl([firstCapability, secondCapability]).get(10, TimeUnit.SECONDS)
+        then:
+            requirements*.cardNumber == ["TRAD-1", "TRAD-2"]
+            loadedTogether == [true, true]
+    }
+
+    def "should load the next level below a parent without waiting for the rest of its level"() {
+        given:
+            def featureExpanded = new CountDownLatch(1)
+            jiraClient.findByJQL(childrenOf("TRAD-1")) >> [feature]
+            jiraClient.findByJQL(childrenOf("TRAD-2")) >> {
+                if (!featureExpanded.await(5, TimeUnit.SECONDS)) {
+                    throw new IllegalStateException("TRAD-3 was not expanded while TRAD-2 was loading")
+                }
+                []
+            }
+            jiraClient.findByJQL(childrenOf("TRAD-3")) >> {
+                featureExpanded.countDown()
+                [story]
+            }
+        when:
+            def requirements = crawlerWithThreads(2).crawl([firstCapability, secondCapability]).get(10, TimeUnit.SECONDS)
+        then:
+            requirements[0].children[0].children*.cardNumber == ["TRAD-4"]
+            requirements[1].children.isEmpty()
+    }
+
+    def "should never block a crawler thread while the levels below it are loaded"() {
+        given:
+            jiraClient.findByJQL(childrenOf("TRAD-1")) >> [feature]
+            jiraClient.findByJQL(childrenOf("TRAD-3")) >> [story]
+        when:
+            def requirements = crawlerWithThreads(1).crawl([firstCapability]).get(10, TimeUnit.SECONDS)
+        then:
+            requirements[0].children[0].children*.cardNumber == ["TRAD-4"]
+    }
+
+    def "should report a failure to load a level as a failed crawl"() {
+        given:
+            jiraClient.findByJQL(childrenOf("TRAD-1")) >> [feature]
+            jiraClient.findByJQL(childrenOf("TRAD-3")) >> { throw new IllegalStateException("JIRA fell over") }
+        when:
+            crawlerWithThreads(2).crawl([firstCapability]).get(10, TimeUnit.SECONDS)
+        then:
+            def failure = thrown(ExecutionException)
+            failure.cause instanceof IllegalStateException
+    }
+}
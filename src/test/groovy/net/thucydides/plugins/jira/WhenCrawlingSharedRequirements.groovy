@@ -0,0 +1,81 @@
+package net.thucydides.plugins.jira
+
+import ch.lambdaj.function.convert.Converter
+import com.google.common.util.concurrent.MoreExecutors
+import net.thucydides.core.requirements.model.Requirement
+import net.thucydides.plugins.jira.client.JerseyJiraClient
+import net.thucydides.plugins.jira.domain.IssueSummary
+import net.thucydides.plugins.jira.requirements.ChildIssueLoader
+import net.thucydides.plugins.jira.requirements.JQLPages
+import net.thucydides.plugins.jira.requirements.RequirementsTreeCrawler
+import spock.lang.Specification
+
+import static net.thucydides.plugins.jira.JiraIssues.issue
+import static net.thucydides.plugins.jira.requirements.ChildIssueLoader.childIssuesJQL
+
+class WhenCrawlingSharedRequirements extends Specification {
+
+    def jiraClient = Mock(JerseyJiraClient)
+    def converter = { IssueSummary issue ->
+        Requirement.named(issue.summary).withOptionalCardNumber(issue.key).withType(issue.type).withNarrative("")
+    } as Converter<IssueSummary, Requirement>
+    def crawler = new RequirementsTreeCrawler(new ChildIssueLoader(jiraClient, 1, 2000),
+                                              MoreExecutors.listeningDecorator(MoreExecutors.sameThreadExecutor()),
+                                              ["relates to", "relates to"], converter)
+
+    def firstCapability = issue("TRAD-1", "Capability")
+    def secondCapability = issue("TRAD-2", "Capability")
+    def sharedFeature = issue("TRAD-3", "Feature")
+    def story = issue("TRAD-4", "Story")
+
+    def setup() {
+        jiraClient.findByJQL(childIssuesJQL(["TRAD-1"], "relates to")) >> [sharedFeature]
+        jiraClient.findByJQL(childIssuesJQL(["TRAD-2"], "relates to")) >> [sharedFeature]
+    }
+
+    def "should only expand an issue linked from several parents once"() {
+        when:
+            def requirements = crawler.crawl([firstCapability, secondCapability]).get()
+        then:
+            1 * jiraClient.findByJQL(childIssuesJQL(["TRAD-3"], "relates to")) >> [story]
+        and:
+            requirements*.cardNumber == ["TRAD-1", "TRAD-2"]
+            requirements.every { it.children*.cardNumber == ["TRAD-3"] }
+            requirements[0].children[0].is(requirements[1].children[0])
+            requirements[0].children[0].children*.cardNumber == ["TRAD-4"]
+    }
+
+    def "should not list an issue below itself when links form a cycle"() {
+        when:
+            def requirements = crawler.crawl([firstCapability]).get()
+        then:
+            1 * jiraClient.findByJQL(childIssuesJQL(["TRAD-3"], "relates to")) >> [firstCapability, story]
+        and:
+            requirements[0].children[0].children*.cardNumber == ["TRAD-4"]
+    }
+
+    def "should create each requirement with its parent already set"() {
+        when:
+            def requirements = crawler.crawl([firstCapability]).get()
+        then:
+            1 * jiraClient.findByJQL(childIssuesJQL(["TRAD-3"], "relates to")) >> [story]
+        and:
+            requirements[0].parent == null
+            requirements[0].children[0].parent == "Summary of TRAD-1"
+            requirements[0].children[0].children[0].parent == "Summary of TRAD-3"
+    }
+
+    def "should crawl below each page of root issues, sharing issues between pages"() {
+        given:
+            def rootIssuePages = Mock(JQLPages)
+            rootIssuePages.hasNext() >>> [true, true, false]
+            rootIssuePages.next() >>> [[firstCapability], [secondCapability]]
+        when:
+            def requirements = crawler.crawl(rootIssuePages).get()
+        then:
+            1 * jiraClient.findByJQL(childIssuesJQL(["TRAD-3"], "relates to")) >> [story]
+        and:
+            requirements*.cardNumber == ["TRAD-1", "TRAD-2"]
+            requirements[0].children[0].is(requirements[1].children[0])
+    }
+}
@@ -0,0 +1,210 @@
+package net.thucydides.plugins.jira
+
+import net.thucydides.plugins.jira.client.JIRAAuthenticationError
+import net.thucydides.plugins.jira.requirements.JiraRequestGuard
+import net.thucydides.plugins.jira.requirements.JiraUnavailableException
+import net.thucydides.plugins.jira.requirements.RequirementsProviderMetrics
+import org.json.JSONException
+import spock.lang.Specification
+
+import java.util.concurrent.Callable
+
+class WhenGuardingJiraRequests extends Specification {
+
+    def metrics = new RequirementsProviderMetrics()
+    def guard = new JiraRequestGuard(0, 2, 0, 3, metrics)
+
+    def "should retry requests that fail with a transient error"() {
+        given:
+            def request = Mock(Callable)
+        when:
+            def result = guard.call(request)
+        then:
+            2 * request.call() >> { throw new JSONException("JIRA query failed: error 503") }
+            1 * request.call() >> "issues"
+        and:
+            result == "issues"
+            metrics.retryCount == 2
+    }
+
+    def "should retry requests that time out"() {
+        given:
+            def request = Mock(Callable)
+        when:
+            def result = guard.call(request)
+        then:
+            1 * request.call() >> { throw new RuntimeException(new SocketTimeoutException("Read timed out")) }
+            1 * request.call() >> "issues"
+        and:
+            result == "issues"
+    }
+
+    def "should give up after the configured number of retries"() {
+        given:
+            def request = Mock(Callable)
+        when:
+            guard.call(request)
+        then:
+            3 * request.call() >> { throw new JSONException("JIRA query failed: error 502") }
+        and:
+            thrown(JSONException)
+    }
+
+    def "should not retry requests that JIRA rejected"() {
+        given:
+            def request = Mock(Callable)
+        when:
+            guard.call(request)
+        then:
+            1 * request.call() >> { throw new JSONException("JIRA query failed: error 400") }
+        and:
+            thrown(JSONException)
+            metrics.retryCount == 0
+    }
+
+    def "should not retry authentication errors"() {
+        given:
+            def request = Mock(Callable)
+        when:
+            guard.call(request)
+        then:
+            1 * request.call() >> { throw new JIRAAuthenticationError("Unauthorized") }
+        and:
+            thrown(JIRAAuthenticationError)
+    }
+
+    def connectionRefused = { throw new RuntimeException(new ConnectException("Connection refused")) }
+
+    def failedCalls(JiraRequestGuard guard, int calls) {
+        calls.times {
+            try {
+                guard.call({ connectionRefused() } as Callable)
+            } catch (RuntimeException expected) {
+            }
+        }
+    }
+
+    def "should fail fast once JIRA appears to be down"() {
+        given:
+            def request = Mock(Callable)
+        when:
+            failedCalls(guard, 3)
+        and:
+            guard.call(request)
+        then:
+            0 * request.call()
+            thrown(JiraUnavailableException)
+        and:
+            !guard.jiraAvailable
+            guard.circuitBreaks == 1
+            metrics.circuitOpen
+    }
+
+    def "should count a call as a single failure whatever the number of its retries"() {
+        given:
+            def request = Mock(Callable)
+        when:
+            guard.call(request)
+        then:
+            3 * request.call() >> { connectionRefused() }
+            thrown(RuntimeException)
+        and:
+            guard.jiraAvailable
+        when:
+            failedCalls(guard, 1)
+        then:
+            guard.jiraAvailable
+    }
+
+    def "should not count calls that succeed after a retry as failures"() {
+        given:
+            def request = Mock(Callable)
+        when:
+            failedCalls(guard, 2)
+            guard.call(request)
+            failedCalls(guard, 2)
+        then:
+            1 * request.call() >> { connectionRefused() }
+            1 * request.call() >> "issues"
+        and:
+            guard.jiraAvailable
+    }
+
+    def "should let a single probe through once the reset delay has passed"() {
+        given:
+            def resettingGuard = new JiraRequestGuard(0, 2, 0, 3, 0, metrics)
+            def request = Mock(Callable)
+            failedCalls(resettingGuard, 3)
+        when:
+            def result = resettingGuard.call(request)
+        then:
+            1 * request.call() >> "issues"
+        and:
+            result == "issues"
+            resettingGuard.jiraAvailable
+            resettingGuard.circuitBreaks == 1
+            !metrics.circuitOpen
+    }
+
+    def "should keep the circuit open when the probe fails"() {
+        given:
+            def resettingGuard = new JiraRequestGuard(0, 2, 0, 3, 0, metrics)
+            def request = Mock(Callable)
+            failedCalls(resettingGuard, 3)
+        when:
+            resettingGuard.call(request)
+        then:
+            1 * request.call() >> { connectionRefused() }
+            thrown(RuntimeException)
+        and:
+            !resettingGuard.jiraAvailable
+            metrics.circuitOpen
+    }
+
+    def "should not probe JIRA before the reset delay has passed"() {
+        given:
+            def request = Mock(Callable)
+            failedCalls(guard, 3)
+        when:
+            guard.call(request)
+        then:
+            0 * request.call()
+            thrown(JiraUnavailableException)
+    }
+
+    def "should close the circuit when JIRA rejects the probe"() {
+        given:
+            def resettingGuard = new JiraRequestGuard(0, 2, 0, 3, 0, metrics)
+            def request = Mock(Callable)
+            failedCalls(resettingGuard, 3)
+        when:
+            resettingGuard.call(request)
+        then:
+            1 * request.call() >> { throw new JSONException("JIRA query failed: error 400") }
+            thrown(JSONException)
+        and:
+            resettingGuard.jiraAvailable
+    }
+
+    def "should not throttle requests unless a rate is configured"() {
+        expect:
+            JiraRequestGuard.DEFAULT_REQUESTS_PER_SECOND == 0
+            guard.requestsPerSecond == 0
+    }
+
+    def "should slow down when JIRA throttles requests"() {
+        given:
+            def throttledGuard = new JiraRequestGuard(10, 1, 0, 3, metrics)
+            def request = Mock(Callable)
+        when:
+            def result = throttledGuard.call(request)
+        then:
+            1 * request.call() >> { throw new JSONException("JIRA query failed: error 429") }
+            1 * request.call() >> "issues"
+        and:
+            result == "issues"
+            throttledGuard.requestsPerSecond == 5.0
+            metrics.throttledResponseCount == 1
+            throttledGuard.jiraAvailable
+    }
+}
@@ -0,0 +1,42 @@
+package net.thucydides.plugins.jira
+
+import net.thucydides.core.requirements.model.Requirement
+import net.thucydides.plugins.jira.requirements.RequirementsIndex
+import spock.lang.Specification
+
+class WhenIndexingRequirements extends Specification {
+
+    def requirement(String cardNumber, String name, String type, List<Requirement> children = []) {
+        Requirement.named(name).withOptionalCardNumber(cardNumber).withType(type).withNarrative("")
+                   .withChildren(children)
+    }
+
+    def task = requirement("TRAD-7", "List items", "Sub-task")
+    def story = requirement("TRAD-5", "Post item for sale", "Story", [task])
+    def epic = requirement("TRAD-4", "Selling stuff", "Epic", [story])
+    def index = new RequirementsIndex([epic])
+
+    def "should find requirements by card number"() {
+        expect:
+            index.getRequirementWithCardNumber("trad-5").get().name == "Post item for sale"
+    }
+
+    def "should find requirements by type and name"() {
+        expect:
+            index.getRequirementWithTypeAndName("Sub-task", "List items").get().cardNumber == "TRAD-7"
+        and:
+            !index.getRequirementWithTypeAndName("Story", "List items").isPresent()
+    }
+
+    def "should find the ancestors of a requirement"() {
+        expect:
+            index.getAncestorsOf("TRAD-7")*.cardNumber == ["TRAD-5", "TRAD-4"]
+        and:
+            index.getAncestorsOf("TRAD-4").isEmpty()
+    }
+
+    def "should list every requirement in the tree in depth-first order"() {
+        expect:
+            index.flattenedRequirements*.cardNumber == ["TRAD-4", "TRAD-5", "TRAD-7"]
+    }
+}
@@ -0,0 +1,148 @@
+package net.thucydides.plugins.jira
+
+import net.thucydides.plugins.jira.client.JerseyJiraClient
+import net.thucydides.plugins.jira.requirements.ChildIssueLoader
+import org.json.JSONException
+import spock.lang.Specification
+
+import static net.thucydides.plugins.jira.JiraIssues.issue
+import static net.thucydides.plugins.jira.JiraIssues.linkedIssue
+
+class WhenLoadingChildRequirementsInBatches extends Specification {
+
+    def jiraClient = Mock(JerseyJiraClient)
+
+    def parents(int count) {
+        (1..count).collect { "A-" + it }
+    }
+
+    def "should query the children of several epics at once"() {
+        expect:
+            ChildIssueLoader.childIssuesJQL(["TRAD-1", "TRAD-2"], "Epic Link") == "'Epic Link' in (TRAD-1, TRAD-2)"
+    }
+
+    def "should combine linked issue queries for several parents"() {
+        expect:
+            ChildIssueLoader.childIssuesJQL(["TRAD-1", "TRAD-2"], "relates to") ==
+                    'issue in linkedIssues(TRAD-1,"relates to") OR issue in linkedIssues(TRAD-2,"relates to")'
+    }
+
+    def "should split large levels into batches that respect the batch size"() {
+        given:
+            def loader = new ChildIssueLoader(jiraClient, 2, 2000)
+        when:
+            def batches = loader.batchesOf(["A-1", "A-2", "A-3", "A-4", "A-5"], "Epic Link")
+        then:
+            batches == [["A-1", "A-2"], ["A-3", "A-4"], ["A-5"]]
+    }
+
+    def "should split large levels into batches that respect the maximum query length"() {
+        given:
+            def loader = new ChildIssueLoader(jiraClient, 50, 90)
+        when:
+            def batches = loader.batchesOf(["A-1", "A-2", "A-3"], "relates to")
+        then:
+            batches == [["A-1", "A-2"], ["A-3"]]
+    }
+
+    def "should attribute linked issues to the parents they were found through"() {
+        given:
+            def loader = new ChildIssueLoader(jiraClient)
+            def child = issue("A-10", "Story")
+        and:
+            jiraClient.findByJQL(ChildIssueLoader.childIssuesJQL(["A-1", "A-2"], "relates to")) >> [child]
+            jiraClient.findByJQL(ChildIssueLoader.childIssuesJQL(["A-1"], "relates to")) >> []
+            jiraClient.findByJQL(ChildIssueLoader.childIssuesJQL(["A-2"], "relates to")) >> [child]
+        when:
+            def children = loader.findChildrenOf(["A-1", "A-2"], "relates to")
+        then:
+            children == ["A-2": [child]]
+    }
+
+    def "should not split a batch when none of the parents have children"() {
+        given:
+            def loader = new ChildIssueLoader(jiraClient)
+        when:
+            def children = loader.findChildrenOf(["A-1", "A-2", "A-3"], "relates to")
+        then:
+            1 * jiraClient.findByJQL(_) >> []
+        and:
+            children.isEmpty()
+    }
+
+    def "should attribute linked issues to their parents from their issue links in a single query"() {
+        given:
+            def loader = new ChildIssueLoader(jiraClient)
+            def firstChild = linkedIssue("A-10", "Story", "relates to", ["A-1", "B-7"])
+            def secondChild = linkedIssue("A-11", "Story", "relates to", ["A-1", "A-3"])
+        when:
+            def children = loader.findChildrenOf(["A-1", "A-2", "A-3"], "relates to")
+        then:
+            1 * jiraClient.findByJQL(_) >> [firstChild, secondChild]
+        and:
+            children == ["A-1": [firstChild, secondChild], "A-3": [secondChild]]
+    }
+
+    def "should attribute epic children to their epics from the Epic Link field in a single query"() {
+        given:
+            def loader = new ChildIssueLoader(jiraClient)
+            def firstChild = issue("A-10", "Story", customFields: ["Epic Link": "A-1"])
+            def secondChild = issue("A-11", "Story", customFields: ["Epic Link": "A-2"])
+        when:
+            def children = loader.findChildrenOf(["A-1", "A-2", "A-3"], "Epic Link")
+        then:
+            1 * jiraClient.findByJQL(_) >> [firstChild, secondChild]
+        and:
+            children == ["A-1": [firstChild], "A-2": [secondChild]]
+    }
+
+    def "should split a batch in half when a few children do not say which parent they were found through"() {
+        given:
+            def loader = new ChildIssueLoader(jiraClient)
+            def child = issue("B-1", "Story")
+        when:
+            def children = loader.findChildrenOf(parents(16), "relates to")
+        then:
+            9 * jiraClient.findByJQL(_) >> { String jql -> jql.contains("linkedIssues(A-11,") ? [child] : [] }
+        and:
+            children == ["A-11": [child]]
+    }
+
+    def "should ask about each parent in turn when splitting the batch would take more queries"() {
+        given:
+            def loader = new ChildIssueLoader(jiraClient)
+            def childrenOfEachParent = parents(8).collectEntries { [it, issue("B-" + it, "Story")] }
+        when:
+            def children = loader.findChildrenOf(parents(8), "relates to")
+        then:
+            1 * jiraClient.findByJQL(ChildIssueLoader.childIssuesJQL(parents(8), "relates to")) >>
+                    childrenOfEachParent.values().toList()
+            8 * jiraClient.findByJQL({ !it.contains(" OR ") }) >> { String jql ->
+                [childrenOfEachParent[jql.find(/A-\d+/)]]
+            }
+        and:
+            children == childrenOfEachParent.collectEntries { key, child -> [key, [child]] }
+    }
+
+    def "should count the child queries that fail"() {
+        given:
+            def loader = new ChildIssueLoader(jiraClient)
+            jiraClient.findByJQL(_) >> { throw new JSONException("JIRA request /rest/api/2/search failed with error 503") }
+        when:
+            def children = loader.findChildrenOf(["A-1", "A-2"], "Epic Link")
+        then:
+            children.isEmpty()
+            loader.failedQueries == 1
+    }
+
+    def "should report a failed query for the children of a single parent"() {
+        given:
+            def loader = new ChildIssueLoader(jiraClient)
+            jiraClient.findByJQL(_) >> { throw new JSONException("JIRA request /rest/api/2/search failed with error 503") }
+        when:
+            loader.findChildrenOf("A-1", "Epic Link")
+        then:
+            thrown(JSONException)
+            loader.failedQueries == 1
+    }
+}
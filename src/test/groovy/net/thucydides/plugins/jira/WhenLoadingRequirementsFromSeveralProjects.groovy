@@ -0,0 +1,56 @@
+package net.thucydides.plugins.jira
+
+import net.thucydides.core.model.TestOutcome
+import net.thucydides.core.model.TestTag
+import net.thucydides.core.requirements.model.Requirement
+import net.thucydides.core.util.MockEnvironmentVariables
+import net.thucydides.plugins.jira.requirements.RequirementsProject
+import net.thucydides.plugins.jira.requirements.RequirementsSnapshot
+import net.thucydides.plugins.jira.requirements.SnapshotTagProvider
+import spock.lang.Specification
+
+class WhenLoadingRequirementsFromSeveralProjects extends Specification {
+
+    def environmentVariables = new MockEnvironmentVariables()
+
+    def "should default to the project of the JIRA configuration"() {
+        when:
+            def projects = RequirementsProject.configuredIn(environmentVariables, "TRAD")
+        then:
+            projects*.key == ["TRAD"]
+            projects[0].rootIssueType == "epic"
+            projects[0].requirementsLinks == ["Epic Link"]
+    }
+
+    def "should let each project override the shape of its requirements tree"() {
+        given:
+            environmentVariables.setProperty("jira.projects", "TRAD, PAY")
+            environmentVariables.setProperty("jira.root.issue.type", "capability")
+            environmentVariables.setProperty("jira.requirement.links.PAY", "relates to, Epic Link")
+        when:
+            def projects = RequirementsProject.configuredIn(environmentVariables, "IGNORED")
+        then:
+            projects*.key == ["TRAD", "PAY"]
+            projects*.rootIssueType == ["capability", "capability"]
+            projects*.requirementsLinks == [["Epic Link"], ["relates to", "Epic Link"]]
+            projects[1].rootRequirementsJQL == "issuetype = capability and project=PAY"
+    }
+
+    def "should resolve numeric issue keys against the project that has the issue"() {
+        given:
+            def snapshotFile = File.createTempFile("requirements", ".json")
+            def payments = Requirement.named("Pay for things").withOptionalCardNumber("PAY-7")
+                                      .withType("Epic").withNarrative("").withReleaseVersions([])
+            RequirementsSnapshot.of(["TRAD", "PAY"], [payments], []).writeTo(snapshotFile)
+            def provider = new SnapshotTagProvider(RequirementsSnapshot.readFrom(snapshotFile))
+        and:
+            def outcome = Mock(TestOutcome)
+            outcome.getIssueKeys() >> ["#7"]
+        when:
+            def tags = provider.getTagsFor(outcome)
+        then:
+            tags.contains(TestTag.withName("Pay for things").andType("Epic"))
+        cleanup:
+            snapshotFile.delete()
+    }
+}
@@ -0,0 +1,180 @@
+package net.thucydides.plugins.jira
+
+import net.thucydides.core.util.MockEnvironmentVariables
+import net.thucydides.plugins.jira.requirements.ConfigurableJiraClient
+import net.thucydides.plugins.jira.requirements.CrawlTrace
+import net.thucydides.plugins.jira.requirements.IssueCache
+import net.thucydides.plugins.jira.requirements.JIRARequirementsProvider
+import net.thucydides.plugins.jira.requirements.RequirementsProviderMetrics
+import net.thucydides.plugins.jira.service.JIRAConfiguration
+import spock.lang.Specification
+
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.TimeUnit
+
+import static net.thucydides.plugins.jira.JiraIssues.issue
+
+class WhenLoadingRequirementsInTheBackground extends Specification {
+
+    def environmentVariables = new MockEnvironmentVariables()
+    def providers = []
+
+    def cleanup() {
+        providers*.close()
+    }
+
+    def rootJQL(String projectKey) {
+        "issuetype = epic and project=" + projectKey
+    }
+
+    def mockJiraClient() {
+        def jiraClient = Mock(ConfigurableJiraClient)
+        jiraClient.getMetrics() >> new RequirementsProviderMetrics()
+        jiraClient.getTrace() >> CrawlTrace.disabled()
+        jiraClient.getIssueCache() >> new IssueCache(100, 10, TimeUnit.MINUTES)
+        jiraClient.isJiraAvailable() >> true
+        return jiraClient
+    }
+
+    def providerFor(String projectKey, ConfigurableJiraClient jiraClient) {
+        def configuration = Mock(JIRAConfiguration)
+        configuration.getProject() >> projectKey
+        def provider = new JIRARequirementsProvider(configuration, environmentVariables, jiraClient)
+        providers << provider
+        return provider
+    }
+
+    def "should load the requirements in the background and share the result with later callers"() {
+        given:
+            def rootEpic = issue("ASYNC-1", "Epic")
+            def jiraClient = mockJiraClient()
+            def provider = providerFor("ASYNC", jiraClient)
+        when:
+            def requirementsLoad = provider.getRequirementsAsync()
+            def requirements = requirementsLoad.get(10, TimeUnit.SECONDS)
+        then:
+            1 * jiraClient.findByJQL(rootJQL("ASYNC")) >> [rootEpic]
+            _ * jiraClient.findByJQL(_) >> []
+        and:
+            requirements*.cardNumber == ["ASYNC-1"]
+            provider.getRequirements().is(requirements)
+    }
+
+    def "should start loading the requirements when the provider is created if asked to"() {
+        given:
+            def rootEpic = issue("PREFETCH-1", "Epic")
+            environmentVariables.setProperty("jira.requirements.prefetch", "true")
+            def rootRequirementsRequested = new CountDownLatch(1)
+            def jiraClient = mockJiraClient()
+            jiraClient.findByJQL(rootJQL("PREFETCH")) >> {
+                rootRequirementsRequested.countDown()
+                [rootEpic]
+            }
+            jiraClient.findByJQL(_) >> []
+        when:
+            def provider = providerFor("PREFETCH", jiraClient)
+        then:
+            rootRequirementsRequested.await(10, TimeUnit.SECONDS)
+            provider.getRequirements()*.cardNumber == ["PREFETCH-1"]
+    }
+
+    def "should share the prefetched requirements with the providers created later for the same configuration"() {
+        given:
+            def rootEpic = issue("ONCE-1", "Epic")
+            environmentVariables.setProperty("jira.requirements.prefetch", "true")
+            def firstClient = mockJiraClient()
+            def releaseLoad = new CountDownLatch(1)
+            firstClient.findByJQL(rootJQL("ONCE")) >> {
+                releaseLoad.await(10, TimeUnit.SECONDS)
+                [rootEpic]
+            }
+            firstClient.findByJQL(_) >> []
+            def firstProvider = providerFor("ONCE", firstClient)
+            def secondClient = mockJiraClient()
+        when:
+            def secondProvider = providerFor("ONCE", secondClient)
+            releaseLoad.countDown()
+            def requirements = secondProvider.getRequirements()
+        then:
+            0 * secondClient.findByJQL(_)
+        and:
+            requirements*.cardNumber == ["ONCE-1"]
+            firstProvider.getRequirements().is(requirements)
+    }
+
+    def "should prefetch again once the shared prefetch has failed"() {
+        given:
+            def rootEpic = issue("AGAIN-1", "Epic")
+            environmentVariables.setProperty("jira.requirements.prefetch", "true")
+            def firstClient = mockJiraClient()
+            firstClient.findByJQL(rootJQL("AGAIN")) >> { throw new IllegalStateException("JIRA went away") }
+            def firstProvider = providerFor("AGAIN", firstClient)
+            waitForFailureOf(firstProvider)
+            def secondClient = mockJiraClient()
+        when:
+            def secondProvider = providerFor("AGAIN", secondClient)
+            def requirements = secondProvider.getRequirementsAsync().get(10, TimeUnit.SECONDS)
+        then:
+            1 * secondClient.findByJQL(rootJQL("AGAIN")) >> [rootEpic]
+            _ * secondClient.findByJQL(_) >> []
+        and:
+            requirements*.cardNumber == ["AGAIN-1"]
+    }
+
+    def waitForFailureOf(JIRARequirementsProvider provider) {
+        try {
+            provider.getRequirementsAsync().get(10, TimeUnit.SECONDS)
+        } catch (ExecutionException expected) {
+        }
+    }
+
+    def "should start a new load once a failed load has been reported"() {
+        given:
+            def rootEpic = issue("RETRY-1", "Epic")
+            def jiraClient = mockJiraClient()
+            def rootQueries = 0
+            jiraClient.findByJQL(rootJQL("RETRY")) >> {
+                if (rootQueries++ == 0) {
+                    throw new IllegalStateException("JIRA went away")
+                }
+                [rootEpic]
+            }
+            jiraClient.findByJQL(_) >> []
+            def provider = providerFor("RETRY", jiraClient)
+        when:
+            provider.getRequirementsAsync().get(10, TimeUnit.SECONDS)
+        then:
+            def failure = thrown(ExecutionException)
+            failure.cause instanceof IllegalStateException
+        when:
+            def requirements = provider.getRequirementsAsync().get(10, TimeUnit.SECONDS)
+        then:
+            requirements*.cardNumber == ["RETRY-1"]
+            rootQueries == 2
+    }
+
+    def "should report a failed load to every caller waiting for it"() {
+        given:
+            def jiraClient = mockJiraClient()
+            def releaseLoad = new CountDownLatch(1)
+            jiraClient.findByJQL(rootJQL("WAIT")) >> {
+                releaseLoad.await(10, TimeUnit.SECONDS)
+                throw new IllegalStateException("JIRA went away")
+            }
+            def provider = providerFor("WAIT", jiraClient)
+        when:
+            def firstLoad = provider.getRequirementsAsync()
+            def secondLoad = provider.getRequirementsAsync()
+            releaseLoad.countDown()
+        then:
+            [firstLoad, secondLoad].every { load ->
+                try {
+                    load.get(10, TimeUnit.SECONDS)
+                    false
+                } catch (ExecutionException e) {
+                    e.cause instanceof IllegalStateException
+                }
+            }
+    }
+}
@@ -0,0 +1,155 @@
+package net.thucydides.plugins.jira
+
+import ch.lambdaj.function.convert.Converter
+import com.google.common.base.Optional
+import net.thucydides.core.requirements.model.Requirement
+import net.thucydides.plugins.jira.domain.IssueSummary
+import net.thucydides.plugins.jira.requirements.ChildIssueLoader
+import net.thucydides.plugins.jira.requirements.ConfigurableJiraClient
+import net.thucydides.plugins.jira.requirements.LazyRequirementsTree
+import org.json.JSONException
+import spock.lang.Specification
+
+import java.util.concurrent.Callable
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+
+import static net.thucydides.plugins.jira.JiraIssues.issue
+import static net.thucydides.plugins.jira.JiraIssues.linkedIssue
+
+class WhenLoadingRequirementsLazily extends Specification {
+
+    def jiraClient = Mock(ConfigurableJiraClient)
+    def childIssueLoader = Mock(ChildIssueLoader)
+    def converter = { IssueSummary issue ->
+        Requirement.named(issue.summary).withOptionalCardNumber(issue.key).withType(issue.type).withNarrative("")
+    } as Converter<IssueSummary, Requirement>
+
+    def tree = new LazyRequirementsTree(jiraClient, childIssueLoader, "TRAD", "epic", ["relates to"], converter)
+
+    def epic = issue("TRAD-1", "Epic")
+    def story = issue("TRAD-2", "Story")
+
+    def "should only load the branch leading to a referenced issue"() {
+        given:
+            jiraClient.findByJQL('issue in linkedIssues(TRAD-2,"relates to")') >> [epic]
+        when:
+            def index = tree.indexCovering(["TRAD-2": Optional.of(story)])
+        then:
+            1 * childIssueLoader.findChildrenOf("TRAD-1", "relates to") >> [story]
+        and:
+            index.getRequirementWithCardNumber("TRAD-2").isPresent()
+            index.getAncestorsOf("TRAD-2")*.cardNumber == ["TRAD-1"]
+            index.requirements*.cardNumber == ["TRAD-1"]
+    }
+
+    def "should remember the branches it has already loaded"() {
+        given:
+            jiraClient.findByJQL('issue in linkedIssues(TRAD-2,"relates to")') >> [epic]
+        when:
+            tree.indexCovering(["TRAD-2": Optional.of(story)])
+            def index = tree.indexCovering(["TRAD-2": Optional.of(story)])
+        then:
+            1 * childIssueLoader.findChildrenOf("TRAD-1", "relates to") >> [story]
+        and:
+            index.getRequirementWithCardNumber("TRAD-2").isPresent()
+    }
+
+    def "should not treat linked issues as parents unless the issue is one of their children"() {
+        given:
+            def otherStory = issue("TRAD-3", "Story")
+            jiraClient.findByJQL('issue in linkedIssues(TRAD-3,"relates to")') >> [epic]
+            childIssueLoader.findChildrenOf("TRAD-1", "relates to") >> [story]
+        when:
+            def index = tree.indexCovering(["TRAD-3": Optional.of(otherStory)])
+        then:
+            !index.getRequirementWithCardNumber("TRAD-3").isPresent()
+    }
+
+    def "should recognize referenced root requirements without loading anything else"() {
+        when:
+            def index = tree.indexCovering(["TRAD-1": Optional.of(epic)])
+        then:
+            0 * childIssueLoader.findChildrenOf(_, _)
+        and:
+            index.requirements*.cardNumber == ["TRAD-1"]
+    }
+
+    def "should find the parents of an issue from its issue links"() {
+        given:
+            def linkedStory = linkedIssue("TRAD-2", "Story", "relates to", ["TRAD-1"])
+            childIssueLoader.findChildrenOf("TRAD-1", "relates to") >> [linkedStory]
+        when:
+            def index = tree.indexCovering(["TRAD-2": Optional.of(linkedStory)])
+        then:
+            1 * jiraClient.findByKeys(["TRAD-1"] as Set) >> ["TRAD-1": epic]
+            0 * jiraClient.findByJQL(_)
+        and:
+            index.getAncestorsOf("TRAD-2")*.cardNumber == ["TRAD-1"]
+    }
+
+    def "should resolve the issues of different test outcomes at the same time"() {
+        given:
+            def otherEpic = issue("TRAD-4", "Epic")
+            def otherStory = issue("TRAD-5", "Story")
+            jiraClient.findByJQL('issue in linkedIssues(TRAD-2,"relates to")') >> [epic]
+            jiraClient.findByJQL('issue in linkedIssues(TRAD-5,"relates to")') >> [otherEpic]
+        and:
+            def bothLoading = new CountDownLatch(2)
+            def loadedAtTheSameTime = Collections.synchronizedList([])
+            childIssueLoader.findChildrenOf(_ as String, "relates to") >> { String parentKey, String linkType ->
+                bothLoading.countDown()
+                loadedAtTheSameTime << bothLoading.await(5, TimeUnit.SECONDS)
+                parentKey == "TRAD-1" ? [story] : [otherStory]
+            }
+            def executor = Executors.newFixedThreadPool(2)
+        when:
+            def firstIndex = executor.submit({ tree.indexCovering(["TRAD-2": Optional.of(story)]) } as Callable)
+            def secondIndex = executor.submit({ tree.indexCovering(["TRAD-5": Optional.of(otherStory)]) } as Callable)
+        then:
+            firstIndex.get(10, TimeUnit.SECONDS).getRequirementWithCardNumber("TRAD-2").isPresent()
+            secondIndex.get(10, TimeUnit.SECONDS).getRequirementWithCardNumber("TRAD-5").isPresent()
+            loadedAtTheSameTime == [true, true]
+            tree.index.requirements*.cardNumber as Set == ["TRAD-1", "TRAD-4"] as Set
+        cleanup:
+            executor.shutdownNow()
+    }
+
+    def "should not take an issue without a type for a root requirement"() {
+        given:
+            def untypedIssue = issue("TRAD-6", null)
+            jiraClient.findByJQL('issue in linkedIssues(TRAD-6,"relates to")') >> []
+        when:
+            def index = tree.indexCovering(["TRAD-6": Optional.of(untypedIssue)])
+        then:
+            !index.getRequirementWithCardNumber("TRAD-6").isPresent()
+    }
+
+    def "should look the parents of an issue up again after a failed query"() {
+        when:
+            def firstIndex = tree.indexCovering(["TRAD-2": Optional.of(story)])
+            def secondIndex = tree.indexCovering(["TRAD-2": Optional.of(story)])
+        then:
+            2 * jiraClient.findByJQL('issue in linkedIssues(TRAD-2,"relates to")') >>
+                    { throw new JSONException("JIRA request failed with error 503") } >> [epic]
+            1 * childIssueLoader.findChildrenOf("TRAD-1", "relates to") >> [story]
+        and:
+            !firstIndex.getRequirementWithCardNumber("TRAD-2").isPresent()
+            secondIndex.getRequirementWithCardNumber("TRAD-2").isPresent()
+    }
+
+    def "should look the children of a parent up again after a failed query"() {
+        given:
+            jiraClient.findByJQL('issue in linkedIssues(TRAD-2,"relates to")') >> [epic]
+        when:
+            def firstIndex = tree.indexCovering(["TRAD-2": Optional.of(story)])
+            def secondIndex = tree.indexCovering(["TRAD-2": Optional.of(story)])
+        then:
+            2 * childIssueLoader.findChildrenOf("TRAD-1", "relates to") >>
+                    { throw new JSONException("JIRA request failed with error 503") } >> [story]
+        and:
+            !firstIndex.getRequirementWithCardNumber("TRAD-2").isPresent()
+            secondIndex.getRequirementWithCardNumber("TRAD-2").isPresent()
+    }
+}
@@ -0,0 +1,146 @@
+package net.thucydides.plugins.jira
+
+import com.google.common.base.Optional
+import net.thucydides.core.util.MockEnvironmentVariables
+import net.thucydides.plugins.jira.domain.CustomFieldCast
+import net.thucydides.plugins.jira.domain.IssueSummary
+import net.thucydides.plugins.jira.domain.RenderedView
+import net.thucydides.plugins.jira.requirements.RequirementFieldMapping
+import spock.lang.Specification
+
+class WhenMappingIssueFieldsToRequirements extends Specification {
+
+    def environmentVariables = new MockEnvironmentVariables()
+
+    def "should read the field configuration once"() {
+        given:
+            environmentVariables.setProperty("jira.custom.narrative.field", "User Story")
+            environmentVariables.setProperty("jira.custom.field.1", "Acceptance Criteria")
+            environmentVariables.setProperty("jira.custom.field.2", "Story Points")
+        when:
+            def mapping = RequirementFieldMapping.configuredIn(environmentVariables)
+        then:
+            mapping.narrativeField.get() == "User Story"
+            mapping.customFields == ["Acceptance Criteria", "Story Points"]
+            mapping.fieldsToRead == ["User Story", "Acceptance Criteria", "Story Points"]
+    }
+
+    def "should stop at the first custom field that is not defined"() {
+        given:
+            environmentVariables.setProperty("jira.custom.field.1", "Acceptance Criteria")
+            environmentVariables.setProperty("jira.custom.field.3", "Story Points")
+        when:
+            def mapping = RequirementFieldMapping.configuredIn(environmentVariables)
+        then:
+            !mapping.narrativeField.isPresent()
+            mapping.fieldsToRead == ["Acceptance Criteria"]
+    }
+
+    def rendered = Mock(RenderedView)
+
+    def issueWith(Map<String, String> customFields) {
+        def issue = Mock(IssueSummary)
+        issue.getKey() >> "TRAD-1"
+        issue.getSummary() >> "Sell items online"
+        issue.getType() >> "Story"
+        issue.getFixVersions() >> []
+        issue.getRendered() >> rendered
+        issue.customField(_) >> { String name -> valueOf(customFields[name]) }
+        return issue
+    }
+
+    def valueOf(String value) {
+        if (value == null) {
+            return Optional.absent()
+        }
+        def field = Mock(CustomFieldCast)
+        field.asString() >> value
+        return Optional.of(field)
+    }
+
+    def "should read the narrative from the narrative field"() {
+        given:
+            def mapping = new RequirementFieldMapping(Optional.of("User Story"), [])
+            def issue = issueWith(["User Story": "As a seller I want to sell my items online"])
+            rendered.getDescription() >> "<p>Some description</p>"
+        when:
+            def requirement = mapping.requirementFrom(issue)
+        then:
+            requirement.narrative.text == "As a seller I want to sell my items online"
+            requirement.cardNumber == "TRAD-1"
+            requirement.type == "Story"
+    }
+
+    def "should fall back to the rendered description when the narrative field is empty"() {
+        given:
+            def mapping = new RequirementFieldMapping(Optional.of("User Story"), [])
+            def issue = issueWith([:])
+            rendered.getDescription() >> "<p>Some description</p>"
+        when:
+            def requirement = mapping.requirementFrom(issue)
+        then:
+            requirement.narrative.text == "<p>Some description</p>"
+    }
+
+    def "should use the rendered description when no narrative field is configured"() {
+        given:
+            def mapping = new RequirementFieldMapping(Optional.<String>absent(), [])
+            def issue = issueWith(["User Story": "As a seller I want to sell my items online"])
+            rendered.getDescription() >> "<p>Some description</p>"
+        when:
+            def requirement = mapping.requirementFrom(issue)
+        then:
+            requirement.narrative.text == "<p>Some description</p>"
+            0 * issue.customField(_)
+    }
+
+    def "should keep both the raw and the rendered value of a custom field"() {
+        given:
+            def mapping = new RequirementFieldMapping(Optional.<String>absent(), ["Acceptance Criteria"])
+            def issue = issueWith(["Acceptance Criteria": "*Given* a seller"])
+            rendered.customField("Acceptance Criteria") >> Optional.of("<b>Given</b> a seller")
+        when:
+            def requirement = mapping.requirementFrom(issue)
+        then:
+            requirement.getCustomField("Acceptance Criteria").get().text == "*Given* a seller"
+            requirement.getCustomField("Acceptance Criteria").get().renderedText == "<b>Given</b> a seller"
+    }
+
+    def "should use the raw value of a custom field that has no rendered value"() {
+        given:
+            def mapping = new RequirementFieldMapping(Optional.<String>absent(), ["Story Points"])
+            def issue = issueWith(["Story Points": "5"])
+            rendered.customField("Story Points") >> Optional.absent()
+        when:
+            def requirement = mapping.requirementFrom(issue)
+        then:
+            requirement.getCustomField("Story Points").get().text == "5"
+            requirement.getCustomField("Story Points").get().renderedText == "5"
+    }
+
+    def "should leave out custom fields the issue does not have"() {
+        given:
+            def mapping = new RequirementFieldMapping(Optional.<String>absent(), ["Acceptance Criteria", "Story Points"])
+            def issue = issueWith(["Story Points": "5"])
+            rendered.customField(_) >> Optional.absent()
+        when:
+            def requirement = mapping.requirementFrom(issue)
+        then:
+            !requirement.getCustomField("Acceptance Criteria").isPresent()
+            requirement.getCustomField("Story Points").isPresent()
+    }
+
+    def "should look up each custom field only once"() {
+        given:
+            def mapping = new RequirementFieldMapping(Optional.of("User Story"), ["Acceptance Criteria"])
+            def issue = Mock(IssueSummary)
+            issue.getRendered() >> rendered
+            issue.getFixVersions() >> []
+            rendered.customField(_) >> Optional.absent()
+        when:
+            mapping.requirementFrom(issue)
+        then:
+            1 * issue.customField("User Story") >> valueOf("As a seller I want to sell my items online")
+            1 * issue.customField("Acceptance Criteria") >> valueOf("*Given* a seller")
+    }
+}
@@ -35,6 +35,26 @@ class WhenReadingRequirementsFromJira extends Specification {
             totalNumberOf(requirements) == 27
     }
 
+    def "Requirements can be loaded in the background"() {
+        given:
+            def requirementsProvider = new JIRARequirementsProvider(configuration)
+        when:
+            def requirementsLoad = requirementsProvider.getRequirementsAsync()
+        then:
+            requirementsLoad.get().size() == 5
+        and:
+            requirementsProvider.getRequirements().is(requirementsLoad.get())
+    }
+
+    def "Requirements can be prefetched when the provider is created"() {
+        given:
+            environmentVariables.setProperty('jira.requirements.prefetch','true')
+        when:
+            def requirementsProvider = new JIRARequirementsProvider(configuration, environmentVariables)
+        then:
+            requirementsProvider.getRequirementsAsync().get().size() == 5
+    }
+
     def "Child requirements should have parents"() {
         given:
         def requirementsProvider = new JIRARequirementsProvider(configuration)
@@ -0,0 +1,245 @@
+package net.thucydides.plugins.jira
+
+import net.thucydides.core.util.MockEnvironmentVariables
+import net.thucydides.plugins.jira.domain.IssueSummary
+import net.thucydides.plugins.jira.requirements.ConfigurableJiraClient
+import net.thucydides.plugins.jira.requirements.CrawlTrace
+import net.thucydides.plugins.jira.requirements.IssueCache
+import net.thucydides.plugins.jira.requirements.JIRARequirementsProvider
+import net.thucydides.plugins.jira.requirements.JQLPages
+import net.thucydides.plugins.jira.requirements.JiraRestConnection
+import net.thucydides.plugins.jira.requirements.RequirementsProviderMetrics
+import net.thucydides.plugins.jira.service.JIRAConfiguration
+import org.json.JSONArray
+import org.json.JSONException
+import org.json.JSONObject
+import spock.lang.Specification
+
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+
+import static net.thucydides.plugins.jira.JiraIssues.issue
+
+class WhenReadingRootRequirementsInPages extends Specification {
+
+    static final String SEARCH = "/rest/api/2/search"
+
+    def environmentVariables = new MockEnvironmentVariables()
+    def connection = Mock(JiraRestConnection)
+    def client = new ConfigurableJiraClient("http://jira", "user", "password", "TRAD", [], environmentVariables,
+                                            connection)
+
+    def searchResults(int startAt, List<String> keys, Integer total) {
+        def issues = keys.collect { key ->
+            new JSONObject().put("key", key)
+                            .put("fields", new JSONObject().put("summary", "Summary of " + key)
+                                                           .put("issuetype", new JSONObject().put("name", "Epic")))
+        }
+        def results = new JSONObject().put("startAt", startAt).put("issues", new JSONArray(issues))
+        if (total != null) {
+            results.put("total", total)
+        }
+        return results.toString()
+    }
+
+    def "should read each page in a single search for the requirement fields"() {
+        given:
+            def pages = client.findPagesByJQL("project = TRAD", 2)
+        when:
+            def firstPage = pages.next()
+            def secondPage = pages.next()
+        then:
+            1 * connection.get(SEARCH, { it.startAt == "0" && it.maxResults == "2" &&
+                                         it.fields.startsWith("summary,issuetype") }) >>
+                    searchResults(0, ["TRAD-1", "TRAD-2"], 3)
+            1 * connection.get(SEARCH, { it.startAt == "2" }) >> searchResults(2, ["TRAD-3"], 3)
+            0 * connection.get(SEARCH, _)
+        and:
+            firstPage*.key == ["TRAD-1", "TRAD-2"]
+            firstPage[0].summary == "Summary of TRAD-1"
+            secondPage*.key == ["TRAD-3"]
+            !pages.hasNext()
+    }
+
+    def "should stop at an empty page, whatever the total says"() {
+        given:
+            def pages = client.findPagesByJQL("project = TRAD", 2)
+            connection.get(SEARCH, { it.startAt == "0" }) >> searchResults(0, ["TRAD-1", "TRAD-2"], 10)
+            connection.get(SEARCH, { it.startAt == "2" }) >> searchResults(2, [], 10)
+        when:
+            pages.next()
+            def lastPage = pages.next()
+        then:
+            lastPage.isEmpty()
+            !pages.hasNext()
+    }
+
+    def "should take the issues read so far as the total when JIRA gives none"() {
+        given:
+            def pages = client.findPagesByJQL("project = TRAD", 2)
+            connection.get(SEARCH, { it.startAt == "0" }) >> searchResults(0, ["TRAD-1", "TRAD-2"], null)
+        when:
+            pages.next()
+        then:
+            !pages.hasNext()
+    }
+
+    def "should not load the issues of a page again by key"() {
+        given:
+            def pages = client.findPagesByJQL("project = TRAD", 2)
+            connection.get(SEARCH, { it.startAt == "0" }) >> searchResults(0, ["TRAD-1", "TRAD-2"], 2)
+            pages.next()
+        when:
+            def issues = client.findByKeys(["TRAD-1", "TRAD-2"])
+        then:
+            0 * connection.get(_, _)
+        and:
+            issues.keySet() == ["TRAD-1", "TRAD-2"] as Set
+    }
+
+    def providerReadingPagesThrough(ConfigurableJiraClient jiraClient) {
+        environmentVariables.setProperty("jira.page.size", "10")
+        def configuration = Mock(JIRAConfiguration)
+        configuration.getProject() >> "TRAD"
+        jiraClient.getMetrics() >> new RequirementsProviderMetrics()
+        jiraClient.getTrace() >> CrawlTrace.disabled()
+        jiraClient.getIssueCache() >> new IssueCache(100, 10, TimeUnit.MINUTES)
+        jiraClient.isJiraAvailable() >> true
+        jiraClient.findByJQL(_) >> []
+        new JIRARequirementsProvider(configuration, environmentVariables, jiraClient)
+    }
+
+    def pagesOf(List<List<IssueSummary>> issuePages) {
+        def pages = Mock(JQLPages)
+        def pagesRead = 0
+        pages.hasNext() >> { pagesRead < issuePages.size() }
+        pages.next() >> { issuePages[pagesRead++] }
+        return pages
+    }
+
+    def pagesFailingAfter(List<IssueSummary> firstPage) {
+        def pages = Mock(JQLPages)
+        def pagesRead = 0
+        pages.hasNext() >> true
+        pages.next() >> {
+            if (pagesRead++ == 0) {
+                return firstPage
+            }
+            throw new JSONException("JIRA request /rest/api/2/search failed with error 503")
+        }
+        return pages
+    }
+
+    def pagesWaitingForEachOther(String project, CountDownLatch projectsReading, Set<String> readAtTheSameTime) {
+        def rootIssue = issue(project + "-1", "Epic")
+        def pages = Mock(JQLPages)
+        def pagesRead = 0
+        pages.hasNext() >> { pagesRead == 0 }
+        pages.next() >> {
+            pagesRead++
+            projectsReading.countDown()
+            if (projectsReading.await(5, TimeUnit.SECONDS)) {
+                readAtTheSameTime << project
+            }
+            [rootIssue]
+        }
+        return pages
+    }
+
+    def "should read the pages of several projects at the same time"() {
+        given:
+            environmentVariables.setProperty("jira.projects", "TRAD, PAY")
+            def jiraClient = Mock(ConfigurableJiraClient)
+            def projectsReading = new CountDownLatch(2)
+            def readAtTheSameTime = Collections.synchronizedSet([] as Set)
+            jiraClient.findPagesByJQL({ it.contains("project=TRAD") }, 10) >>
+                    pagesWaitingForEachOther("TRAD", projectsReading, readAtTheSameTime)
+            jiraClient.findPagesByJQL({ it.contains("project=PAY") }, 10) >>
+                    pagesWaitingForEachOther("PAY", projectsReading, readAtTheSameTime)
+            def provider = providerReadingPagesThrough(jiraClient)
+        when:
+            def requirements = provider.getRequirements()
+        then:
+            requirements*.cardNumber == ["TRAD-1", "PAY-1"]
+            readAtTheSameTime == ["TRAD", "PAY"] as Set
+        cleanup:
+            provider?.close()
+    }
+
+    def "should not store a tree whose later pages could not be read"() {
+        given:
+            def cacheDirectory = File.createTempFile("jira-requirements", "")
+            cacheDirectory.delete()
+            cacheDirectory.deleteOnExit()
+            environmentVariables.setProperty("jira.requirements.cache.dir", cacheDirectory.path)
+            environmentVariables.setProperty("jira.requirements.cache.ttl", "10")
+        and:
+            def jiraClient = Mock(ConfigurableJiraClient)
+            jiraClient.findPagesByJQL(_, 10) >> pagesFailingAfter([issue("TRAD-1", "Epic")])
+            def provider = providerReadingPagesThrough(jiraClient)
+        when:
+            provider.getRequirements()
+        then:
+            def error = thrown(IllegalStateException)
+            error.cause instanceof JSONException
+            error.cause.message.contains("failed with error 503")
+        and:
+            !cacheDirectory.exists() || cacheDirectory.listFiles().every { !it.name.endsWith(".json") }
+        cleanup:
+            provider?.close()
+    }
+
+    def "should not store a tree whose child queries failed"() {
+        given:
+            def cacheDirectory = File.createTempFile("jira-requirements", "")
+            cacheDirectory.delete()
+            cacheDirectory.deleteOnExit()
+            environmentVariables.setProperty("jira.requirements.cache.dir", cacheDirectory.path)
+            environmentVariables.setProperty("jira.requirements.cache.ttl", "10")
+        and:
+            def jiraClient = Mock(ConfigurableJiraClient)
+            jiraClient.findPagesByJQL(_, 10) >> pagesOf([[issue("TRAD-1", "Epic")]])
+            jiraClient.findByJQL("'Epic Link' in (TRAD-1)") >> {
+                throw new JSONException("JIRA request /rest/api/2/search failed with error 503")
+            }
+            def provider = providerReadingPagesThrough(jiraClient)
+        when:
+            def requirements = provider.getRequirements()
+        then:
+            requirements*.cardNumber == ["TRAD-1"]
+        and:
+            !cacheDirectory.exists() || cacheDirectory.listFiles().every { !it.name.endsWith(".json") }
+        cleanup:
+            provider?.close()
+    }
+
+    def "should fall back on the cached tree when later pages could not be read"() {
+        given:
+            def cacheDirectory = File.createTempFile("jira-requirements", "")
+            cacheDirectory.delete()
+            cacheDirectory.deleteOnExit()
+            environmentVariables.setProperty("jira.requirements.cache.dir", cacheDirectory.path)
+            environmentVariables.setProperty("jira.requirements.cache.ttl", "10")
+        and: "requirements read in full an hour ago"
+            def firstClient = Mock(ConfigurableJiraClient)
+            firstClient.findPagesByJQL(_, 10) >> pagesOf([[issue("TRAD-1", "Epic")], [issue("TRAD-2", "Epic")]])
+            def firstProvider = providerReadingPagesThrough(firstClient)
+            firstProvider.getRequirements()
+            firstProvider.close()
+            def cacheFile = cacheDirectory.listFiles().find { it.name.endsWith(".json") }
+            def anHourAgo = System.currentTimeMillis() - TimeUnit.HOURS.toMillis(1)
+            cacheFile.text = new JSONObject(cacheFile.text).put("savedAt", anHourAgo).put("crawledAt", anHourAgo)
+                                                           .toString()
+        and: "a reload whose second page fails"
+            def secondClient = Mock(ConfigurableJiraClient)
+            secondClient.findPagesByJQL(_, 10) >> pagesFailingAfter([issue("TRAD-1", "Epic")])
+            def secondProvider = providerReadingPagesThrough(secondClient)
+        when:
+            def requirements = secondProvider.getRequirements()
+        then:
+            requirements*.cardNumber == ["TRAD-1", "TRAD-2"]
+            new JSONObject(cacheFile.text).getLong("savedAt") == anHourAgo
+        cleanup:
+            secondProvider?.close()
+    }
+}
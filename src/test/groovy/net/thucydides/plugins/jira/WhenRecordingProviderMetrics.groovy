@@ -0,0 +1,143 @@
+package net.thucydides.plugins.jira
+
+import com.google.common.base.Optional
+import net.thucydides.core.util.MockEnvironmentVariables
+import net.thucydides.plugins.jira.requirements.ConfigurableJiraClient
+import net.thucydides.plugins.jira.requirements.CrawlTrace
+import net.thucydides.plugins.jira.requirements.IssueCache
+import net.thucydides.plugins.jira.requirements.JIRARequirementsProvider
+import net.thucydides.plugins.jira.requirements.ReportsAtExit
+import net.thucydides.plugins.jira.requirements.RequirementsProviderMetrics
+import net.thucydides.plugins.jira.service.JIRAConfiguration
+import org.json.JSONObject
+import spock.lang.Specification
+
+import javax.management.ObjectName
+import java.lang.management.ManagementFactory
+import java.util.concurrent.TimeUnit
+
+import static net.thucydides.plugins.jira.requirements.RequirementsProviderMetrics.RequestType.JQL
+import static net.thucydides.plugins.jira.requirements.RequirementsProviderMetrics.RequestType.KEY
+
+class WhenRecordingProviderMetrics extends Specification {
+
+    def metrics = new RequirementsProviderMetrics()
+
+    def mBeanServer = ManagementFactory.getPlatformMBeanServer()
+
+    def "should count requests, failures and the issues received"() {
+        when:
+            metrics.recordRequest(JQL, 10, 3, false)
+            metrics.recordRequest(JQL, 10, 0, true)
+            metrics.recordRequest(KEY, 10, 1, false)
+        then:
+            metrics.jqlRequestCount == 2
+            metrics.keyRequestCount == 1
+            metrics.failedRequestCount == 1
+            metrics.issuesReceived == 4
+    }
+
+    def "should sort request latencies into power-of-two buckets"() {
+        when:
+            [0, 1, 3, 4, 5, 40000].each { metrics.recordRequest(JQL, it, 1, false) }
+            metrics.recordRequest(KEY, 100, 1, false)
+        then:
+            metrics.jqlLatencyHistogram == ["<=1ms": 2L, "<=4ms": 2L, "<=8ms": 1L, ">32768ms": 1L]
+            metrics.keyLatencyHistogram == ["<=128ms": 1L]
+            metrics.maxJqlLatencyMillis == 40000
+            metrics.meanKeyLatencyMillis == 100.0
+    }
+
+    def "should report the hit rate of the issue cache"() {
+        given:
+            def issueCache = new IssueCache(100, 10, TimeUnit.MINUTES)
+            metrics.monitor(issueCache)
+            def loader = { [] }
+        when:
+            issueCache.getQueryResults("project = TRAD", loader)
+            issueCache.getQueryResults("project = TRAD", loader)
+            issueCache.getIssue("TRAD-1", { Optional.absent() })
+        then:
+            metrics.queryCacheHitRate == 0.5
+            metrics.issueCacheHitRate == 0.0
+    }
+
+    def "should report no cache hits before a cache is monitored"() {
+        expect:
+            metrics.issueCacheHitRate == 0.0
+            metrics.queryCacheHitRate == 0.0
+    }
+
+    def "should write a JSON summary of the metrics"() {
+        given:
+            metrics.recordRequest(JQL, 3, 2, false)
+            metrics.recordRequest(KEY, 1, 1, true)
+            metrics.recordRetry()
+            def summaryFile = File.createTempFile("jira-metrics", ".json")
+            summaryFile.deleteOnExit()
+        when:
+            metrics.writeSummaryTo(summaryFile)
+        then:
+            def summary = new JSONObject(summaryFile.text)
+            summary.getLong("jqlRequests") == 1
+            summary.getLong("keyRequests") == 1
+            summary.getLong("failedRequests") == 1
+            summary.getLong("issuesReceived") == 3
+            summary.getLong("retries") == 1
+            !summary.getBoolean("circuitOpen")
+            summary.getJSONObject("jqlLatency").getLong("count") == 1
+            summary.getJSONObject("jqlLatency").getJSONObject("histogram").getLong("<=4ms") == 1
+            summary.getJSONArray("requirementsPerLevel").length() == 0
+    }
+
+    def metricsPublishedFor(String projectKey) {
+        mBeanServer.queryNames(new ObjectName("net.thucydides.plugins.jira:type=RequirementsProvider,project="
+                                              + ObjectName.quote(projectKey)), null)
+    }
+
+    def "should publish a single MBean per project however many providers are created"() {
+        given:
+            def earlierMetrics = new RequirementsProviderMetrics()
+            metrics.recordRequest(JQL, 1, 1, false)
+        when:
+            earlierMetrics.registerAsMBean("METRICS")
+            metrics.registerAsMBean("METRICS")
+        then:
+            def published = metricsPublishedFor("METRICS")
+            published.size() == 1
+            mBeanServer.getAttribute(published.iterator().next(), "JqlRequestCount") == 1
+        when:
+            earlierMetrics.unregisterMBean()
+        then:
+            metricsPublishedFor("METRICS").size() == 1
+        when:
+            metrics.unregisterMBean()
+        then:
+            metricsPublishedFor("METRICS").isEmpty()
+    }
+
+    def "should write the reports of a provider when it is closed rather than at exit"() {
+        given:
+            def summaryFile = new File(File.createTempFile("jira-metrics", ".json").parentFile,
+                                       "jira-metrics-" + System.nanoTime() + ".json")
+            summaryFile.deleteOnExit()
+            def environmentVariables = new MockEnvironmentVariables()
+            environmentVariables.setProperty("jira.metrics.file", summaryFile.path)
+            def configuration = Mock(JIRAConfiguration)
+            configuration.getProject() >> "TRAD"
+            def jiraClient = Mock(ConfigurableJiraClient)
+            jiraClient.getMetrics() >> metrics
+            jiraClient.getTrace() >> CrawlTrace.disabled()
+            jiraClient.getIssueCache() >> new IssueCache(100, 10, TimeUnit.MINUTES)
+            def writersBefore = ReportsAtExit.registeredWriters()
+        when:
+            def provider = new JIRARequirementsProvider(configuration, environmentVariables, jiraClient)
+        then:
+            ReportsAtExit.registeredWriters() == writersBefore + 1
+        when:
+            provider.close()
+        then:
+            ReportsAtExit.registeredWriters() == writersBefore
+            summaryFile.exists()
+    }
+}
@@ -0,0 +1,182 @@
+package net.thucydides.plugins.jira
+
+import net.thucydides.core.util.MockEnvironmentVariables
+import net.thucydides.plugins.jira.requirements.ConfigurableJiraClient
+import net.thucydides.plugins.jira.requirements.JiraRestConnection
+import org.json.JSONArray
+import org.json.JSONObject
+import spock.lang.Specification
+
+class WhenSearchingForRequirementFields extends Specification {
+
+    static final String SEARCH = "/rest/api/2/search"
+    static final String FIELDS = "/rest/api/2/field"
+
+    def environmentVariables = new MockEnvironmentVariables()
+    def connection = Mock(JiraRestConnection)
+
+    def setup() {
+        connection.get(FIELDS, _) >> new JSONArray([
+                new JSONObject().put("id", "summary").put("name", "Summary"),
+                new JSONObject().put("id", "customfield_10010").put("name", "User Story"),
+                new JSONObject().put("id", "customfield_10008").put("name", "Epic Link")]).toString()
+    }
+
+    def clientReading(List<String> customFields) {
+        new ConfigurableJiraClient("http://jira", "user", "password", "TRAD", customFields, environmentVariables,
+                                   connection)
+    }
+
+    def issue(String key, Map<String, Object> extraFields = [:], Map<String, Object> renderedFields = null) {
+        def fields = new JSONObject().put("summary", "Summary of " + key)
+                                     .put("issuetype", new JSONObject().put("name", "Story"))
+                                     .put("description", "*Description* of " + key)
+                                     .put("status", new JSONObject().put("name", "Open"))
+                                     .put("labels", new JSONArray(["checkout"]))
+                                     .put("fixVersions", new JSONArray([new JSONObject().put("name", "Release 1")]))
+        extraFields.each { name, value -> fields.put(name, value) }
+        def issue = new JSONObject().put("id", "10001").put("key", key).put("self", "http://jira/rest/api/2/issue/10001")
+                                    .put("fields", fields)
+        if (renderedFields != null) {
+            def rendered = new JSONObject()
+            renderedFields.each { name, value -> rendered.put(name, value) }
+            issue.put("renderedFields", rendered)
+        }
+        return issue
+    }
+
+    def searchResults(List<JSONObject> issues, int total = issues.size()) {
+        new JSONObject().put("startAt", 0).put("total", total).put("issues", new JSONArray(issues)).toString()
+    }
+
+    def "should only ask for the fields requirements are built from"() {
+        given:
+            environmentVariables.setProperty("jira.custom.narrative.field", "User Story")
+            def client = clientReading(["User Story", "Epic Link"])
+        when:
+            client.findByJQL("project = TRAD")
+        then:
+            1 * connection.get(SEARCH, { it.jql == "project = TRAD" &&
+                                         it.fields == "summary,issuetype,status,labels,fixVersions,description,issuelinks," +
+                                                      "customfield_10010,customfield_10008" &&
+                                         !it.containsKey("expand") }) >>
+                    searchResults([issue("TRAD-1", ["customfield_10010": "As a seller..."])])
+    }
+
+    def "should ask for rendered fields when custom fields are copied onto requirements"() {
+        given:
+            environmentVariables.setProperty("jira.custom.narrative.field", "User Story")
+            environmentVariables.setProperty("jira.custom.field.1", "Epic Link")
+            def client = clientReading(["User Story", "Epic Link"])
+        when:
+            client.findByJQL("project = TRAD")
+        then:
+            1 * connection.get(SEARCH, { it.expand == "renderedFields" }) >> searchResults([issue("TRAD-1")])
+    }
+
+    def "should ask for rendered fields when the description is used as the narrative"() {
+        given:
+            def client = clientReading([])
+        when:
+            client.findByJQL("project = TRAD")
+        then:
+            1 * connection.get(SEARCH, { it.fields == "summary,issuetype,status,labels,fixVersions,description,issuelinks" &&
+                                         it.expand == "renderedFields" }) >> searchResults([issue("TRAD-1")])
+            0 * connection.get(FIELDS, _)
+    }
+
+    def "should read the rendered description of the issues whose narrative field is empty"() {
+        given:
+            environmentVariables.setProperty("jira.custom.narrative.field", "User Story")
+            def client = clientReading(["User Story"])
+        when:
+            def issues = client.findByJQL("project = TRAD")
+        then:
+            1 * connection.get(SEARCH, { it.jql == "project = TRAD" && !it.containsKey("expand") }) >>
+                    searchResults([issue("TRAD-1", ["customfield_10010": "As a seller..."]), issue("TRAD-2")])
+            1 * connection.get(SEARCH, { it.jql == "key in (TRAD-2)" && it.expand == "renderedFields" }) >>
+                    searchResults([issue("TRAD-2", [:], ["description": "<b>Description</b> of TRAD-2"])])
+        and:
+            issues*.key == ["TRAD-1", "TRAD-2"]
+            issues[1].rendered.description == "<b>Description</b> of TRAD-2"
+    }
+
+    def "should read the requested fields of each issue"() {
+        given:
+            environmentVariables.setProperty("jira.custom.narrative.field", "User Story")
+            def client = clientReading(["User Story", "Epic Link"])
+            connection.get(SEARCH, _) >> searchResults([issue("TRAD-1", ["customfield_10008": "TRAD-100",
+                                                                         "customfield_10010": "As a seller..."])])
+        when:
+            def issues = client.findByJQL("project = TRAD")
+        then:
+            issues*.key == ["TRAD-1"]
+            issues[0].summary == "Summary of TRAD-1"
+            issues[0].type == "Story"
+            issues[0].status == "Open"
+            issues[0].labels == ["checkout"]
+            issues[0].fixVersions == ["Release 1"]
+            issues[0].customField("Epic Link").get().asString() == "TRAD-100"
+            issues[0].customField("User Story").get().asString() == "As a seller..."
+            issues[0].rendered.description == "*Description* of TRAD-1"
+    }
+
+    def "should read which issues link to each issue, as seen from their side"() {
+        given:
+            def client = clientReading([])
+            def relatesTo = new JSONObject().put("name", "Relates").put("inward", "relates to").put("outward", "relates to")
+            def blocks = new JSONObject().put("name", "Blocks").put("inward", "is blocked by").put("outward", "blocks")
+            def links = new JSONArray([
+                    new JSONObject().put("type", relatesTo).put("outwardIssue", new JSONObject().put("key", "TRAD-2")),
+                    new JSONObject().put("type", blocks).put("inwardIssue", new JSONObject().put("key", "TRAD-3")),
+                    new JSONObject().put("type", blocks).put("outwardIssue", new JSONObject().put("key", "TRAD-4"))])
+            connection.get(SEARCH, _) >> searchResults([issue("TRAD-1", ["issuelinks": links])])
+        when:
+            def issues = client.findByJQL("project = TRAD")
+        then:
+            issues[0].getIssuesLinkedAs("relates to") == ["TRAD-2"] as Set
+            issues[0].getIssuesLinkedAs("Blocks") == ["TRAD-3"] as Set
+            issues[0].getIssuesLinkedAs("is blocked by") == ["TRAD-4"] as Set
+    }
+
+    def "should read rendered values by field name"() {
+        given:
+            environmentVariables.setProperty("jira.custom.field.1", "User Story")
+            def client = clientReading(["User Story"])
+            connection.get(SEARCH, _) >> searchResults([issue("TRAD-1", ["customfield_10010": "*As a seller*"],
+                                                              ["customfield_10010": "<b>As a seller</b>",
+                                                               "description"      : "<b>Description</b>"])])
+        when:
+            def issues = client.findByJQL("project = TRAD")
+        then:
+            issues[0].rendered.customField("User Story").get() == "<b>As a seller</b>"
+            issues[0].rendered.description == "<b>Description</b>"
+    }
+
+    def "should read every page of the results"() {
+        given:
+            def client = clientReading([])
+        when:
+            def issues = client.findByJQL("project = TRAD")
+        then:
+            1 * connection.get(SEARCH, { it.startAt == "0" && it.maxResults == "100" }) >>
+                    searchResults((1..100).collect { issue("TRAD-" + it) }, 150)
+            1 * connection.get(SEARCH, { it.startAt == "100" }) >>
+                    searchResults((101..150).collect { issue("TRAD-" + it) }, 150)
+        and:
+            issues.size() == 150
+    }
+
+    def "should look up the ids of the custom fields only once"() {
+        given:
+            environmentVariables.setProperty("jira.custom.narrative.field", "User Story")
+            def client = clientReading(["User Story"])
+        when:
+            client.findByJQL("project = TRAD")
+            client.findByJQL("project = SHOP")
+        then:
+            1 * connection.get(FIELDS, _) >> new JSONArray([new JSONObject().put("id", "customfield_10010")
+                                                                            .put("name", "User Story")]).toString()
+            2 * connection.get(SEARCH, _) >> searchResults([])
+    }
+}
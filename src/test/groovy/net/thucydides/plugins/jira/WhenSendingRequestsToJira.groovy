@@ -0,0 +1,94 @@
+package net.thucydides.plugins.jira
+
+import com.sun.net.httpserver.HttpExchange
+import com.sun.net.httpserver.HttpHandler
+import com.sun.net.httpserver.HttpServer
+import net.thucydides.plugins.jira.client.JIRAAuthenticationError
+import net.thucydides.plugins.jira.client.JIRAConfigurationError
+import net.thucydides.plugins.jira.requirements.JiraRestConnection
+import org.json.JSONException
+import spock.lang.Specification
+
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+
+class WhenSendingRequestsToJira extends Specification {
+
+    def server = HttpServer.create(new InetSocketAddress("localhost", 0), 0)
+    def requests = Collections.synchronizedList([])
+    def releaseSlowResponses = new CountDownLatch(1)
+
+    def setup() {
+        server.start()
+    }
+
+    def cleanup() {
+        releaseSlowResponses.countDown()
+        server.stop(0)
+    }
+
+    def jiraUrl() {
+        "http://localhost:" + server.address.port + "/"
+    }
+
+    def respondWith(int status, String body, Map<String, String> headers = [:], boolean slowly = false) {
+        server.createContext("/rest/api/2/search", { HttpExchange exchange ->
+            requests << exchange.requestURI
+            if (slowly) {
+                releaseSlowResponses.await(5, TimeUnit.SECONDS)
+            }
+            headers.each { name, value -> exchange.responseHeaders.add(name, value) }
+            def bytes = body.getBytes("UTF-8")
+            exchange.sendResponseHeaders(status, bytes.length)
+            exchange.responseBody.withStream { it.write(bytes) }
+        } as HttpHandler)
+    }
+
+    def "should send the query parameters in order, encoded"() {
+        given:
+            respondWith(200, '{"issues":[]}')
+            def connection = new JiraRestConnection(jiraUrl(), "user", "password", 1000, 1000)
+        when:
+            def response = connection.get("/rest/api/2/search", ["jql": "project = TRAD", "fields": "summary,issuetype"])
+        then:
+            response == '{"issues":[]}'
+            requests[0].rawQuery == "jql=project+%3D+TRAD&fields=summary%2Cissuetype"
+    }
+
+    def "should give up on JIRA once the read timeout has passed"() {
+        given:
+            respondWith(200, '{"issues":[]}', [:], true)
+            def connection = new JiraRestConnection(jiraUrl(), "user", "password", 1000, 100)
+        when:
+            connection.get("/rest/api/2/search", ["jql": "project = TRAD"])
+        then:
+            thrown(SocketTimeoutException)
+    }
+
+    def "should report the status of a failed request, and how long JIRA asks to wait"() {
+        given:
+            respondWith(429, '{"errorMessages":[]}', ["Retry-After": "3"])
+            def connection = new JiraRestConnection(jiraUrl(), "user", "password", 1000, 1000)
+        when:
+            connection.get("/rest/api/2/search", ["jql": "project = TRAD"])
+        then:
+            def failure = thrown(JSONException)
+            failure.message.contains("error 429")
+            failure.message.contains("Retry-After: 3")
+    }
+
+    def "should report rejected credentials and permissions as the Jersey client does"() {
+        given:
+            respondWith(status, '{"errorMessages":[]}')
+            def connection = new JiraRestConnection(jiraUrl(), "user", "password", 1000, 1000)
+        when:
+            connection.get("/rest/api/2/search", ["jql": "project = TRAD"])
+        then:
+            thrown(error)
+        where:
+            status | error
+            401    | JIRAAuthenticationError
+            403    | JIRAConfigurationError
+            404    | JIRAConfigurationError
+    }
+}
@@ -0,0 +1,81 @@
+package net.thucydides.plugins.jira
+
+import net.thucydides.core.model.TestOutcome
+import net.thucydides.core.model.TestTag
+import net.thucydides.core.requirements.model.Requirement
+import net.thucydides.plugins.jira.requirements.RequirementsSnapshot
+import net.thucydides.plugins.jira.requirements.SnapshotTagProvider
+import spock.lang.Specification
+
+import static net.thucydides.plugins.jira.JiraIssues.issue
+
+class WhenServingRequirementsFromASnapshot extends Specification {
+
+    File snapshotFile
+
+    def setup() {
+        snapshotFile = File.createTempFile("requirements", ".json")
+    }
+
+    def cleanup() {
+        snapshotFile.delete()
+    }
+
+    def requirementsTree() {
+        def story = Requirement.named("Post item for sale").withOptionalCardNumber("TRAD-5")
+                               .withType("Story").withNarrative("As a seller")
+                               .withReleaseVersions(["Release 1"])
+                               .withParent("Selling stuff")
+        def epic = Requirement.named("Selling stuff").withOptionalCardNumber("TRAD-4")
+                              .withType("Epic").withNarrative("Sell things online")
+                              .withReleaseVersions([])
+        return [epic.withChildren([story])]
+    }
+
+    def outcomeFor(String... issueKeys) {
+        def outcome = Mock(TestOutcome)
+        outcome.getIssueKeys() >> issueKeys.toList()
+        return outcome
+    }
+
+    def snapshotProvider() {
+        def bug = issue("TRAD-9", "Bug", summary: "Prices are rounded", fixVersions: ["Release 2"])
+        RequirementsSnapshot.of("TRAD", requirementsTree(), [bug]).writeTo(snapshotFile)
+        return new SnapshotTagProvider(RequirementsSnapshot.readFrom(snapshotFile))
+    }
+
+    def "should serve the requirements tree from the snapshot"() {
+        when:
+            def requirements = snapshotProvider().getRequirements()
+        then:
+            requirements*.cardNumber == ["TRAD-4"]
+            requirements[0].children*.cardNumber == ["TRAD-5"]
+    }
+
+    def "should tag outcomes with their requirements and their ancestors"() {
+        when:
+            def tags = snapshotProvider().getTagsFor(outcomeFor("TRAD-5"))
+        then:
+            tags == [TestTag.withName("Post item for sale").andType("Story"),
+                     TestTag.withName("Selling stuff").andType("Epic"),
+                     TestTag.withName("Release 1").andType("Version")] as Set
+    }
+
+    def "should tag outcomes with issues that are not requirements"() {
+        when:
+            def tags = snapshotProvider().getTagsFor(outcomeFor("#9"))
+        then:
+            tags == [TestTag.withName("Prices are rounded").andType("Bug"),
+                     TestTag.withName("Release 2").andType("Version")] as Set
+    }
+
+    def "should find the requirement an outcome belongs to"() {
+        expect:
+            snapshotProvider().getParentRequirementOf(outcomeFor("TRAD-5")).get().name == "Post item for sale"
+    }
+
+    def "should not know issues missing from the snapshot"() {
+        expect:
+            snapshotProvider().getTagsFor(outcomeFor("TRAD-99")).isEmpty()
+    }
+}
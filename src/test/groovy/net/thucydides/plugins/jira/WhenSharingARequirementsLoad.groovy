@@ -0,0 +1,88 @@
+package net.thucydides.plugins.jira
+
+import net.thucydides.core.util.MockEnvironmentVariables
+import net.thucydides.plugins.jira.requirements.ConfigurableJiraClient
+import net.thucydides.plugins.jira.requirements.CrawlTrace
+import net.thucydides.plugins.jira.requirements.IssueCache
+import net.thucydides.plugins.jira.requirements.JIRARequirementsProvider
+import net.thucydides.plugins.jira.requirements.RequirementsProviderMetrics
+import net.thucydides.plugins.jira.service.JIRAConfiguration
+import spock.lang.Specification
+
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+
+import static net.thucydides.plugins.jira.JiraIssues.issue
+import static net.thucydides.plugins.jira.JiraIssues.renderedDescriptionOf
+
+class WhenSharingARequirementsLoad extends Specification {
+
+    def environmentVariables = new MockEnvironmentVariables()
+    def configuration = Mock(JIRAConfiguration)
+    def jiraClient = Mock(ConfigurableJiraClient)
+    def rootRequirementsJQL = "issuetype = epic and project=TRAD"
+    def provider
+
+    def epic = issue("TRAD-1", "Epic")
+
+    def setup() {
+        configuration.getProject() >> "TRAD"
+        jiraClient.getMetrics() >> new RequirementsProviderMetrics()
+        jiraClient.getTrace() >> CrawlTrace.disabled()
+        jiraClient.getIssueCache() >> new IssueCache(100, 10, TimeUnit.MINUTES)
+        jiraClient.isJiraAvailable() >> true
+        jiraClient.findByJQL("'Epic Link' in (TRAD-1)") >> []
+        provider = new JIRARequirementsProvider(configuration, environmentVariables, jiraClient)
+    }
+
+    def cleanup() {
+        provider.close()
+    }
+
+    def "should crawl JIRA once for callers that ask for the requirements at the same time"() {
+        given:
+            def crawlStarted = new CountDownLatch(1)
+            def releaseCrawl = new CountDownLatch(1)
+            def crawls = 0
+            jiraClient.findByJQL(rootRequirementsJQL) >> {
+                crawls++
+                crawlStarted.countDown()
+                releaseCrawl.await(5, TimeUnit.SECONDS)
+                [epic]
+            }
+        and:
+            def results = Collections.synchronizedList([])
+            def callers = (1..5).collect { Thread.start { results << provider.getRequirements() } }
+        when:
+            crawlStarted.await(5, TimeUnit.SECONDS)
+            Thread.sleep(100)
+            releaseCrawl.countDown()
+            callers*.join(5000)
+        then:
+            crawls == 1
+            results.size() == 5
+            results.every { it.is(results[0]) }
+            results[0]*.cardNumber == ["TRAD-1"]
+            results[0][0].narrative.text == renderedDescriptionOf("TRAD-1")
+    }
+
+    def "should start a new load after a load has failed"() {
+        given:
+            def crawls = 0
+            jiraClient.findByJQL(rootRequirementsJQL) >> {
+                if (crawls++ == 0) {
+                    throw new IllegalStateException("JIRA is down")
+                }
+                [epic]
+            }
+        when:
+            provider.getRequirements()
+        then:
+            thrown(IllegalStateException)
+        when:
+            def requirements = provider.getRequirements()
+        then:
+            crawls == 2
+            requirements*.cardNumber == ["TRAD-1"]
+    }
+}
@@ -0,0 +1,123 @@
+package net.thucydides.plugins.jira
+
+import net.thucydides.core.requirements.model.Requirement
+import net.thucydides.core.util.MockEnvironmentVariables
+import net.thucydides.plugins.jira.requirements.SharedRequirementsCache
+import spock.lang.Specification
+
+import java.util.concurrent.Callable
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+class WhenSharingRequirementsBetweenProcesses extends Specification {
+
+    def environmentVariables = new MockEnvironmentVariables()
+    File cacheDirectory
+
+    def setup() {
+        cacheDirectory = File.createTempFile("requirements", "shared")
+        cacheDirectory.delete()
+        cacheDirectory.mkdirs()
+        environmentVariables.setProperty('jira.requirements.shared.cache.dir', cacheDirectory.absolutePath)
+    }
+
+    def cleanup() {
+        cacheDirectory.deleteDir()
+    }
+
+    def requirementsTree() {
+        [Requirement.named("Selling stuff").withOptionalCardNumber("TRAD-4").withType("Epic")
+                    .withNarrative("Sell things online").withReleaseVersions([])]
+    }
+
+    def "should not share requirements unless asked to"() {
+        expect:
+            !new SharedRequirementsCache(environmentVariables, "TRAD", "epic", "Epic Link", "").enabled
+    }
+
+    def "should only load the requirements once for all of the users of the cache"() {
+        given:
+            environmentVariables.setProperty('jira.requirements.shared.cache', 'true')
+            def loads = new AtomicInteger()
+            def executor = Executors.newFixedThreadPool(4)
+        when:
+            def results = (1..8).collect {
+                executor.submit({
+                    def cache = new SharedRequirementsCache(environmentVariables, "TRAD", "epic", "Epic Link", "")
+                    cache.withExclusiveLock({
+                        def shared = cache.load()
+                        if (shared.isPresent()) {
+                            return shared.get()
+                        }
+                        loads.incrementAndGet()
+                        cache.store(requirementsTree())
+                        return requirementsTree()
+                    } as Callable, { throw new IllegalStateException("Gave up waiting for the lock") } as Callable)
+                } as Callable)
+            }*.get()
+        then:
+            loads.get() == 1
+        and:
+            results.every { it*.cardNumber == ["TRAD-4"] }
+        cleanup:
+            executor.shutdown()
+    }
+
+    def "should load the requirements locally rather than wait for the lock indefinitely"() {
+        given:
+            environmentVariables.setProperty('jira.requirements.shared.cache', 'true')
+            environmentVariables.setProperty('jira.requirements.shared.cache.lock.timeout', '1')
+            def cache = new SharedRequirementsCache(environmentVariables, "TRAD", "epic", "Epic Link", "")
+            def lockTaken = new CountDownLatch(1)
+            def slowLoadDone = new CountDownLatch(1)
+            def executor = Executors.newSingleThreadExecutor()
+            executor.submit({
+                cache.withExclusiveLock({
+                    lockTaken.countDown()
+                    slowLoadDone.await(10, TimeUnit.SECONDS)
+                    return requirementsTree()
+                } as Callable, { [] } as Callable)
+            } as Callable)
+            lockTaken.await(10, TimeUnit.SECONDS)
+        when:
+            def requirements = cache.withExclusiveLock({ throw new IllegalStateException("Lock taken twice") } as Callable,
+                                                       { requirementsTree() } as Callable)
+        then:
+            requirements*.cardNumber == ["TRAD-4"]
+        cleanup:
+            slowLoadDone.countDown()
+            executor.shutdown()
+    }
+
+    def "should keep the default cache directory in the build directory, whatever the working directory"() {
+        given:
+            def defaultEnvironmentVariables = new MockEnvironmentVariables()
+            defaultEnvironmentVariables.setProperty('jira.requirements.shared.cache', 'true')
+            defaultEnvironmentVariables.setProperty('basedir', cacheDirectory.absolutePath)
+        when:
+            def cache = new SharedRequirementsCache(defaultEnvironmentVariables, "TRAD", "epic", "Epic Link", "")
+        then:
+            cache.enabled
+            cache.cacheFile.parentFile == new File(cacheDirectory, "target/jira-requirements")
+    }
+
+    def "should prefer the build directory given by the build tool"() {
+        given:
+            environmentVariables.setProperty('jira.requirements.shared.cache.dir', 'shared-requirements')
+            environmentVariables.setProperty('project.build.directory', cacheDirectory.absolutePath)
+        when:
+            def cache = new SharedRequirementsCache(environmentVariables, "TRAD", "epic", "Epic Link", "")
+        then:
+            cache.cacheFile.parentFile == new File(cacheDirectory, "shared-requirements")
+    }
+
+    def "should not share a relative cache directory when the build directory is not known"() {
+        given:
+            environmentVariables.setProperty('jira.requirements.shared.cache.dir', 'shared-requirements')
+            environmentVariables.setProperty('jira.requirements.shared.cache', 'true')
+        expect:
+            !new SharedRequirementsCache(environmentVariables, "TRAD", "epic", "Epic Link", "").isEnabled()
+    }
+}
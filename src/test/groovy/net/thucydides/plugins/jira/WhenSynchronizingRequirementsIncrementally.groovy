@@ -0,0 +1,191 @@
+package net.thucydides.plugins.jira
+
+import ch.lambdaj.function.convert.Converter
+import net.thucydides.core.requirements.model.Requirement
+import net.thucydides.plugins.jira.client.JerseyJiraClient
+import net.thucydides.plugins.jira.domain.IssueSummary
+import net.thucydides.core.util.MockEnvironmentVariables
+import net.thucydides.plugins.jira.requirements.ChildIssueLoader
+import net.thucydides.plugins.jira.requirements.ConfigurableJiraClient
+import net.thucydides.plugins.jira.requirements.CrawlTrace
+import net.thucydides.plugins.jira.requirements.IncrementalRequirementsSync
+import net.thucydides.plugins.jira.requirements.IssueCache
+import net.thucydides.plugins.jira.requirements.JIRARequirementsProvider
+import net.thucydides.plugins.jira.requirements.RequirementsProviderMetrics
+import net.thucydides.plugins.jira.service.JIRAConfiguration
+import org.json.JSONObject
+import spock.lang.Specification
+
+import java.util.concurrent.TimeUnit
+
+import static net.thucydides.plugins.jira.JiraIssues.issue
+import static net.thucydides.plugins.jira.requirements.ChildIssueLoader.EPIC_LINK
+
+class WhenSynchronizingRequirementsIncrementally extends Specification {
+
+    static final String ROOT_JQL = "issuetype = epic and project=TRAD"
+
+    def jiraClient = Mock(JerseyJiraClient)
+    def converter = { IssueSummary issue ->
+        Requirement.named(issue.summary).withOptionalCardNumber(issue.key).withType(issue.type).withNarrative("")
+    } as Converter<IssueSummary, Requirement>
+    def sync = new IncrementalRequirementsSync(jiraClient, new ChildIssueLoader(jiraClient), "TRAD", ROOT_JQL,
+                                               [EPIC_LINK], converter)
+
+    def lastSynchronized = new GregorianCalendar(2014, Calendar.MARCH, 7, 14, 57).timeInMillis
+
+    def firstEpic = issue("TRAD-1", "Epic")
+    def secondEpic = issue("TRAD-2", "Epic")
+
+    def story(String key, String epicKey) {
+        issue(key, "Story", customFields: (epicKey == null) ? [:] : [(EPIC_LINK): epicKey])
+    }
+
+    def requirement(String key, String type, List<Requirement> children = []) {
+        Requirement.named("Summary of " + key).withOptionalCardNumber(key).withType(type).withNarrative("")
+                   .withChildren(children)
+    }
+
+    def previousTree() {
+        [requirement("TRAD-1", "Epic", [requirement("TRAD-11", "Story"), requirement("TRAD-12", "Story")]),
+         requirement("TRAD-2", "Epic", [requirement("TRAD-21", "Story")])]
+    }
+
+    def childKeysIn(List<Requirement> requirements) {
+        requirements.collectEntries { [(it.cardNumber): it.children*.cardNumber] }
+    }
+
+    def "should only ask JIRA for the issues updated since the last synchronization, with a safety margin"() {
+        given:
+            def tree = previousTree()
+        when:
+            def requirements = sync.refresh(tree, lastSynchronized, lastSynchronized + TimeUnit.MINUTES.toMillis(60))
+        then:
+            1 * jiraClient.findByJQL('project = TRAD AND updated >= "-65m"') >> []
+            0 * jiraClient.findByJQL(_)
+        and:
+            requirements.is(tree)
+    }
+
+    def "should count the minutes since the last synchronization up to the next whole minute"() {
+        when:
+            sync.refresh(previousTree(), lastSynchronized, lastSynchronized + TimeUnit.SECONDS.toMillis(3601))
+        then:
+            1 * jiraClient.findByJQL('project = TRAD AND updated >= "-66m"') >> []
+    }
+
+    def "should move a story to the epic it has been moved to"() {
+        given:
+            jiraClient.findByJQL({ it.contains("updated >=") }) >> [story("TRAD-12", "TRAD-2")]
+            jiraClient.findByJQL(ROOT_JQL) >> [firstEpic, secondEpic]
+        when:
+            def requirements = sync.refresh(previousTree(), lastSynchronized)
+        then:
+            1 * jiraClient.findByJQL("'Epic Link' in (TRAD-1, TRAD-2)") >>
+                    [story("TRAD-11", "TRAD-1"), story("TRAD-21", "TRAD-2"), story("TRAD-12", "TRAD-2")]
+        and:
+            childKeysIn(requirements) == ["TRAD-1": ["TRAD-11"], "TRAD-2": ["TRAD-21", "TRAD-12"]]
+    }
+
+    def "should add a new story to an existing epic without reloading the other epics"() {
+        given:
+            jiraClient.findByJQL({ it.contains("updated >=") }) >> [story("TRAD-13", "TRAD-1")]
+            jiraClient.findByJQL(ROOT_JQL) >> [firstEpic, secondEpic]
+        when:
+            def requirements = sync.refresh(previousTree(), lastSynchronized)
+        then:
+            1 * jiraClient.findByJQL("'Epic Link' in (TRAD-1)") >>
+                    [story("TRAD-11", "TRAD-1"), story("TRAD-12", "TRAD-1"), story("TRAD-13", "TRAD-1")]
+            0 * jiraClient.findByJQL({ it.contains("TRAD-2") })
+        and:
+            childKeysIn(requirements) == ["TRAD-1": ["TRAD-11", "TRAD-12", "TRAD-13"], "TRAD-2": ["TRAD-21"]]
+    }
+
+    def "should drop a story that its epic no longer returns"() {
+        given:
+            jiraClient.findByJQL({ it.contains("updated >=") }) >> [story("TRAD-12", null)]
+            jiraClient.findByJQL(ROOT_JQL) >> [firstEpic, secondEpic]
+        when:
+            def requirements = sync.refresh(previousTree(), lastSynchronized)
+        then:
+            1 * jiraClient.findByJQL("'Epic Link' in (TRAD-1)") >> [story("TRAD-11", "TRAD-1")]
+        and:
+            childKeysIn(requirements) == ["TRAD-1": ["TRAD-11"], "TRAD-2": ["TRAD-21"]]
+    }
+
+    def "should load the whole subtree of a new root requirement"() {
+        given:
+            def newEpic = issue("TRAD-3", "Epic")
+            jiraClient.findByJQL({ it.contains("updated >=") }) >> [newEpic]
+            jiraClient.findByJQL(ROOT_JQL) >> [firstEpic, secondEpic, newEpic]
+        when:
+            def requirements = sync.refresh(previousTree(), lastSynchronized)
+        then:
+            1 * jiraClient.findByJQL("'Epic Link' in (TRAD-3)") >> [story("TRAD-31", "TRAD-3")]
+            0 * jiraClient.findByJQL({ it.contains("TRAD-1") || it.contains("TRAD-2") })
+        and:
+            childKeysIn(requirements) == ["TRAD-1": ["TRAD-11", "TRAD-12"], "TRAD-2": ["TRAD-21"],
+                                          "TRAD-3": ["TRAD-31"]]
+    }
+
+    def "should replace an updated story that stays under the same epic"() {
+        given:
+            def renamedStory = issue("TRAD-21", "Story", summary: "Renamed story", customFields: [(EPIC_LINK): "TRAD-2"])
+            jiraClient.findByJQL({ it.contains("updated >=") }) >> [renamedStory]
+            jiraClient.findByJQL(ROOT_JQL) >> [firstEpic, secondEpic]
+        when:
+            def requirements = sync.refresh(previousTree(), lastSynchronized)
+        then:
+            1 * jiraClient.findByJQL("'Epic Link' in (TRAD-2)") >> [renamedStory]
+        and:
+            requirements[1].children*.name == ["Renamed story"]
+            requirements[0].children*.cardNumber == ["TRAD-11", "TRAD-12"]
+    }
+
+    def providerReadingThrough(ConfigurableJiraClient client, MockEnvironmentVariables environmentVariables) {
+        def configuration = Mock(JIRAConfiguration)
+        configuration.getProject() >> "TRAD"
+        client.getMetrics() >> new RequirementsProviderMetrics()
+        client.getTrace() >> CrawlTrace.disabled()
+        client.getIssueCache() >> new IssueCache(100, 10, TimeUnit.MINUTES)
+        client.isJiraAvailable() >> true
+        new JIRARequirementsProvider(configuration, environmentVariables, client)
+    }
+
+    def "should keep the cached requirements as they are when JIRA rejects the synchronization"() {
+        given:
+            def cacheDirectory = File.createTempFile("jira-requirements", "")
+            cacheDirectory.delete()
+            cacheDirectory.deleteOnExit()
+            def environmentVariables = new MockEnvironmentVariables()
+            environmentVariables.setProperty("jira.requirements.cache.dir", cacheDirectory.path)
+            environmentVariables.setProperty("jira.requirements.cache.ttl", "10")
+            environmentVariables.setProperty("jira.requirements.incremental", "true")
+        and: "requirements loaded in full an hour ago"
+            def firstClient = Mock(ConfigurableJiraClient)
+            firstClient.findByJQL(ROOT_JQL) >> [firstEpic]
+            firstClient.findByJQL("'Epic Link' in (TRAD-1)") >> [story("TRAD-11", "TRAD-1")]
+            def firstProvider = providerReadingThrough(firstClient, environmentVariables)
+            firstProvider.getRequirements()
+            firstProvider.close()
+            def cacheFile = cacheDirectory.listFiles().find { it.name.endsWith(".json") }
+            def anHourAgo = System.currentTimeMillis() - TimeUnit.HOURS.toMillis(1)
+            cacheFile.text = new JSONObject(cacheFile.text).put("savedAt", anHourAgo).put("crawledAt", anHourAgo)
+                                                           .toString()
+        and: "a synchronization whose query fails to authenticate"
+            def secondClient = Mock(ConfigurableJiraClient)
+            secondClient.getJiraErrors() >>> [0, 1]
+            def secondProvider = providerReadingThrough(secondClient, environmentVariables)
+        when:
+            def requirements = secondProvider.getRequirements()
+        then:
+            1 * secondClient.findByJQL({ it.contains("updated >=") }) >> []
+            0 * secondClient.findByJQL(ROOT_JQL)
+        and:
+            requirements*.cardNumber == ["TRAD-1"]
+            requirements[0].children*.cardNumber == ["TRAD-11"]
+            new JSONObject(cacheFile.text).getLong("savedAt") == anHourAgo
+        cleanup:
+            secondProvider?.close()
+    }
+}
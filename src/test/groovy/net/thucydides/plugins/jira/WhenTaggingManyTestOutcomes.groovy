@@ -0,0 +1,142 @@
+package net.thucydides.plugins.jira
+
+import com.google.common.base.Optional
+import net.thucydides.core.model.TestOutcome
+import net.thucydides.core.model.TestTag
+import net.thucydides.core.util.MockEnvironmentVariables
+import net.thucydides.plugins.jira.requirements.ConfigurableJiraClient
+import net.thucydides.plugins.jira.requirements.CrawlTrace
+import net.thucydides.plugins.jira.requirements.IssueCache
+import net.thucydides.plugins.jira.requirements.JIRARequirementsProvider
+import net.thucydides.plugins.jira.requirements.RequirementsProviderMetrics
+import net.thucydides.plugins.jira.service.JIRAConfiguration
+import org.json.JSONException
+import spock.lang.Specification
+
+import java.util.concurrent.TimeUnit
+
+import static net.thucydides.plugins.jira.JiraIssues.issue
+
+class WhenTaggingManyTestOutcomes extends Specification {
+
+    def environmentVariables = new MockEnvironmentVariables()
+
+    def firstStory = issue("TRAD-1", "Story")
+    def secondStory = issue("TRAD-2", "Story")
+    def thirdStory = issue("TRAD-3", "Story")
+
+    def outcomeFor(List<String> issueKeys) {
+        def outcome = Mock(TestOutcome)
+        outcome.getIssueKeys() >> issueKeys
+        return outcome
+    }
+
+    def "should load the issues of all the outcomes in a single batch"() {
+        given:
+            def configuration = Mock(JIRAConfiguration)
+            configuration.getProject() >> "TRAD"
+            def jiraClient = Mock(ConfigurableJiraClient)
+            jiraClient.getMetrics() >> new RequirementsProviderMetrics()
+            jiraClient.getTrace() >> CrawlTrace.disabled()
+            jiraClient.getIssueCache() >> new IssueCache(100, 10, TimeUnit.MINUTES)
+            jiraClient.isJiraAvailable() >> true
+            jiraClient.findByJQL(_) >> []
+            def provider = new JIRARequirementsProvider(configuration, environmentVariables, jiraClient)
+        and:
+            def first = outcomeFor(["TRAD-1", "TRAD-2"])
+            def second = outcomeFor(["TRAD-2"])
+            def third = outcomeFor(["#3"])
+        when:
+            def tags = provider.getTagsFor([first, second, third])
+        then:
+            1 * jiraClient.findByKeys({ it as Set == ["TRAD-1", "TRAD-2", "TRAD-3"] as Set }) >>
+                    ["TRAD-1": firstStory, "TRAD-2": secondStory, "TRAD-3": thirdStory]
+            0 * jiraClient.findByKey(_)
+        and:
+            tags[first] == [TestTag.withName("Summary of TRAD-1").andType("Story"),
+                            TestTag.withName("Summary of TRAD-2").andType("Story")] as Set
+            tags[second] == [TestTag.withName("Summary of TRAD-2").andType("Story")] as Set
+            tags[third] == [TestTag.withName("Summary of TRAD-3").andType("Story")] as Set
+        cleanup:
+            provider?.close()
+    }
+
+    def "should not load the whole requirements tree for a version tag when loading lazily"() {
+        given:
+            environmentVariables.setProperty("jira.requirements.lazy", "true")
+            def configuration = Mock(JIRAConfiguration)
+            configuration.getProject() >> "TRAD"
+            def jiraClient = Mock(ConfigurableJiraClient)
+            jiraClient.getMetrics() >> new RequirementsProviderMetrics()
+            jiraClient.getTrace() >> CrawlTrace.disabled()
+            jiraClient.getIssueCache() >> new IssueCache(100, 10, TimeUnit.MINUTES)
+            jiraClient.isJiraAvailable() >> true
+            def provider = new JIRARequirementsProvider(configuration, environmentVariables, jiraClient)
+        when:
+            def requirement = provider.getRequirementFor(TestTag.withName("Release 1").andType("Version"))
+        then:
+            0 * jiraClient.findByJQL(_)
+            0 * jiraClient.findPagesByJQL(_, _)
+        and:
+            !requirement.isPresent()
+        cleanup:
+            provider?.close()
+    }
+
+    def clientWithBatchSize(int batchSize) {
+        environmentVariables.setProperty("jira.batch.size", batchSize as String)
+        Spy(ConfigurableJiraClient, constructorArgs: ["http://localhost:1", "user", "password", "TRAD", [],
+                                                      environmentVariables])
+    }
+
+    def "should load issues in 'key in' queries of at most the batch size"() {
+        given:
+            def jiraClient = clientWithBatchSize(2)
+        when:
+            def issues = jiraClient.findByKeys(["TRAD-1", "TRAD-2", "TRAD-3"])
+        then:
+            1 * jiraClient.findByJQL("key in (TRAD-1, TRAD-2)") >> [firstStory, secondStory]
+            1 * jiraClient.findByJQL("key in (TRAD-3)") >> [thirdStory]
+            0 * jiraClient.findByKey(_)
+        and:
+            issues == ["TRAD-1": firstStory, "TRAD-2": secondStory, "TRAD-3": thirdStory]
+    }
+
+    def "should look up each issue of a batch whose query fails"() {
+        given:
+            def jiraClient = clientWithBatchSize(10)
+        when:
+            def issues = jiraClient.findByKeys(["TRAD-1", "TRAD-2"])
+        then:
+            1 * jiraClient.findByJQL("key in (TRAD-1, TRAD-2)") >> { throw new JSONException("error 400: no such issue") }
+            1 * jiraClient.findByKey("TRAD-1") >> Optional.of(firstStory)
+            1 * jiraClient.findByKey("TRAD-2") >> Optional.absent()
+        and:
+            issues == ["TRAD-1": firstStory]
+    }
+
+    def "should only look up the issues that a batch query did not return"() {
+        given:
+            def jiraClient = clientWithBatchSize(10)
+        when:
+            def issues = jiraClient.findByKeys(["trad-1", "TRAD-2"])
+        then:
+            1 * jiraClient.findByJQL("key in (trad-1, TRAD-2)") >> [firstStory]
+            1 * jiraClient.findByKey("TRAD-2") >> Optional.of(secondStory)
+            0 * jiraClient.findByKey("trad-1")
+        and:
+            issues == ["trad-1": firstStory, "TRAD-2": secondStory]
+    }
+
+    def "should not query issues that are already cached"() {
+        given:
+            def jiraClient = clientWithBatchSize(10)
+            jiraClient.getIssueCache().addAll([firstStory])
+        when:
+            def issues = jiraClient.findByKeys(["TRAD-1", "TRAD-2"])
+        then:
+            1 * jiraClient.findByJQL("key in (TRAD-2)") >> [secondStory]
+        and:
+            issues == ["TRAD-1": firstStory, "TRAD-2": secondStory]
+    }
+}
@@ -0,0 +1,112 @@
+package net.thucydides.plugins.jira
+
+import ch.lambdaj.function.convert.Converter
+import com.google.common.util.concurrent.MoreExecutors
+import net.thucydides.core.requirements.model.Requirement
+import net.thucydides.core.util.MockEnvironmentVariables
+import net.thucydides.plugins.jira.domain.IssueSummary
+import net.thucydides.plugins.jira.requirements.ChildIssueLoader
+import net.thucydides.plugins.jira.requirements.ConfigurableJiraClient
+import net.thucydides.plugins.jira.requirements.CrawlTrace
+import net.thucydides.plugins.jira.requirements.JiraRestConnection
+import net.thucydides.plugins.jira.requirements.RequirementsTreeCrawler
+import org.json.JSONArray
+import org.json.JSONObject
+import spock.lang.Specification
+
+import static net.thucydides.plugins.jira.JiraIssues.issue
+import static net.thucydides.plugins.jira.requirements.ChildIssueLoader.childIssuesJQL
+
+class WhenTracingRequirementLoads extends Specification {
+
+    static final String SEARCH = "/rest/api/2/search"
+
+    def connection = Mock(JiraRestConnection)
+    def trace = CrawlTrace.enabled()
+    def converter = { IssueSummary issue ->
+        Requirement.named(issue.summary).withOptionalCardNumber(issue.key).withType(issue.type).withNarrative("")
+    } as Converter<IssueSummary, Requirement>
+
+    def capability = issue("TRAD-1", "Capability")
+
+    def clientConfiguredWith(MockEnvironmentVariables environmentVariables) {
+        connection.get(SEARCH, { it.jql == childIssuesJQL(["TRAD-1"], "relates to") }) >>
+                searchResultsLinking("TRAD-2", "Feature", "TRAD-1")
+        connection.get(SEARCH, _) >> new JSONObject().put("startAt", 0).put("total", 0)
+                                                     .put("issues", new JSONArray()).toString()
+        new ConfigurableJiraClient("http://jira", "user", "password", "TRAD", [], environmentVariables, connection)
+    }
+
+    def crawlerReadingThrough(ConfigurableJiraClient client) {
+        new RequirementsTreeCrawler(new ChildIssueLoader(client, 10, 2000),
+                                    MoreExecutors.listeningDecorator(MoreExecutors.sameThreadExecutor()),
+                                    ["relates to"], converter, client.getTrace())
+    }
+
+    def searchResultsLinking(String key, String type, String parentKey) {
+        def relatesTo = new JSONObject().put("name", "Relates").put("inward", "relates to").put("outward", "relates to")
+        def fields = new JSONObject().put("summary", "Summary of " + key)
+                                     .put("issuetype", new JSONObject().put("name", type))
+                                     .put("issuelinks", new JSONArray([
+                                             new JSONObject().put("type", relatesTo)
+                                                             .put("outwardIssue", new JSONObject().put("key", parentKey))]))
+        def issue = new JSONObject().put("key", key).put("fields", fields)
+        new JSONObject().put("startAt", 0).put("total", 1).put("issues", new JSONArray([issue])).toString()
+    }
+
+    def traceEventsIn(File traceFile) {
+        def events = new JSONObject(traceFile.text).getJSONArray("traceEvents")
+        (0..<events.length()).collect { events.getJSONObject(it) }
+    }
+
+    def "should record the tree level and parent cards of each request made while crawling"() {
+        given:
+            def query = childIssuesJQL(["TRAD-1"], "relates to")
+            def traceFile = File.createTempFile("jira-trace", ".json")
+            traceFile.deleteOnExit()
+            def environmentVariables = new MockEnvironmentVariables()
+            environmentVariables.setProperty("jira.trace.file", traceFile.path)
+            def client = clientConfiguredWith(environmentVariables)
+        when:
+            def requirements = crawlerReadingThrough(client).crawl([capability]).get()
+            client.getTrace().writeTo(traceFile)
+        then:
+            requirements[0].children*.cardNumber == ["TRAD-2"]
+        and:
+            def events = traceEventsIn(traceFile)
+            def request = events.find { it.getString("cat") == "jira" }
+            request.getString("ph") == "X"
+            request.getJSONObject("args").getString("query") == query
+            request.getJSONObject("args").getInt("level") == 0
+            request.getJSONObject("args").getString("parents") == "TRAD-1"
+            request.getJSONObject("args").getInt("results") == 1
+        and:
+            events.any { it.getString("cat") == "executor" }
+            events.any { it.getString("ph") == "M" && it.getLong("tid") == request.getLong("tid") }
+    }
+
+    def "should not attach a tree level to requests made outside the crawl"() {
+        given:
+            def traceFile = File.createTempFile("jira-trace", ".json")
+            traceFile.deleteOnExit()
+        when:
+            trace.recordRequest("Key", "TRAD-1", trace.now(), trace.now(), 1, false)
+            trace.writeTo(traceFile)
+        then:
+            def args = traceEventsIn(traceFile).find { it.getString("ph") == "X" }.getJSONObject("args")
+            !args.has("level")
+            args.getString("query") == "TRAD-1"
+    }
+
+    def "should write nothing when tracing is disabled"() {
+        given:
+            def traceFile = new File(System.getProperty("java.io.tmpdir"), "untraced-" + System.nanoTime() + ".json")
+            def client = clientConfiguredWith(new MockEnvironmentVariables())
+        when:
+            def requirements = crawlerReadingThrough(client).crawl([capability]).get()
+            client.getTrace().writeTo(traceFile)
+        then:
+            requirements[0].children*.cardNumber == ["TRAD-2"]
+            !traceFile.exists()
+    }
+}